@@ -0,0 +1,25 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package amqp.spring.camel.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.openjdk.jmh.Main;
+
+/**
+ * JMH's own command line, with the gc profiler switched on unless other profilers
+ * are asked for, so every run reports gc.alloc.rate.norm: the bytes allocated per operation.
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        List<String> jmhArgs = new ArrayList<>(Arrays.asList(args));
+        if(! jmhArgs.contains("-prof")) {
+            jmhArgs.add("-prof");
+            jmhArgs.add("gc");
+        }
+        Main.main(jmhArgs.toArray(new String[jmhArgs.size()]));
+    }
+}
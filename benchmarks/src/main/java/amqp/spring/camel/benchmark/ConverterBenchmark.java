@@ -0,0 +1,122 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package amqp.spring.camel.benchmark;
+
+import amqp.spring.converter.ContentTypeConverterFactory;
+import amqp.spring.converter.JacksonConverter;
+import amqp.spring.converter.StringConverter;
+import amqp.spring.converter.XStreamConverter;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+/**
+ * Marshalling a payload into a message body and back with each of the converters.
+ * string and contentType both write text/plain through a StringConverter, the latter
+ * dispatched by a ContentTypeConverterFactory from a content type with a charset
+ * parameter, so the difference between them is the cost of dispatching. xstream and
+ * jackson write a bean holding a string of payloadSize characters.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConverterBenchmark {
+    private static final String TEXT_PLAIN = "text/plain";
+
+    @Param({"string", "contentType", "xstream", "jackson"})
+    public String converter;
+
+    @Param({"64", "4096", "65536"})
+    public int payloadSize;
+
+    private MessageConverter msgConverter;
+    private Object payload;
+    private Message message;
+
+    @Setup
+    public void setUp() throws Exception {
+        char[] text = new char[this.payloadSize];
+        Arrays.fill(text, 'x');
+
+        StringConverter stringConverter = new StringConverter();
+        stringConverter.setContentType(TEXT_PLAIN);
+        switch(this.converter) {
+            case "string":
+                this.msgConverter = stringConverter;
+                this.payload = new String(text);
+                break;
+            case "contentType":
+                ContentTypeConverterFactory factory = new ContentTypeConverterFactory();
+                factory.getConverters().put(TEXT_PLAIN, stringConverter);
+                factory.getConverters().put(MessageProperties.CONTENT_TYPE_JSON, new XStreamConverter());
+                factory.setDefaultContentType(TEXT_PLAIN);
+                this.msgConverter = factory;
+                this.payload = new String(text);
+                break;
+            case "xstream":
+                this.msgConverter = new XStreamConverter();
+                this.payload = new Payload(42, "benchmark", new String(text));
+                break;
+            case "jackson":
+                this.msgConverter = new JacksonConverter();
+                this.payload = new Payload(42, "benchmark", new String(text));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown converter "+this.converter);
+        }
+
+        this.message = this.msgConverter.toMessage(this.payload, new MessageProperties());
+        if("contentType".equals(this.converter))
+            this.message.getMessageProperties().setContentType(TEXT_PLAIN+"; charset=UTF-8");
+    }
+
+    @Benchmark
+    public Message toMessage() {
+        return this.msgConverter.toMessage(this.payload, new MessageProperties());
+    }
+
+    @Benchmark
+    public Object fromMessage() {
+        return this.msgConverter.fromMessage(this.message);
+    }
+
+    public static class Payload {
+        private long id;
+        private String name;
+        private String value;
+
+        public Payload() {
+        }
+
+        public Payload(long id, String name, String value) {
+            this.id = id;
+            this.name = name;
+            this.value = value;
+        }
+
+        public long getId() { return id; }
+        public void setId(long id) { this.id = id; }
+        public String getName() { return name; }
+        public void setName(String name) { this.name = name; }
+        public String getValue() { return value; }
+        public void setValue(String value) { this.value = value; }
+    }
+}
@@ -0,0 +1,97 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package amqp.spring.camel.benchmark;
+
+import amqp.spring.camel.component.SpringAMQPHeader;
+import amqp.spring.camel.component.SpringAMQPHeaderFilter;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+import org.apache.camel.impl.DefaultMessage;
+import org.apache.camel.spi.HeaderFilterStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+
+/**
+ * Writing a Camel message's headers into the properties of an outgoing AMQP message:
+ * the basic properties, the AMQP headers table, both in two passes, and both in the
+ * single pass the producer makes. The Camel headers hold the basic properties plus
+ * headerCount custom headers; with filtered set, every other custom header is excluded
+ * by a SpringAMQPHeaderFilter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeaderMappingBenchmark {
+    private static final byte[] BODY = new byte[0];
+
+    @Param({"0", "10", "50"})
+    public int headerCount;
+
+    @Param({"false", "true"})
+    public boolean filtered;
+
+    private Exchange exchange;
+    private Map<String, Object> headers;
+    private HeaderFilterStrategy headerFilter;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.exchange = new DefaultExchange(new DefaultCamelContext());
+        DefaultMessage camelMessage = new DefaultMessage();
+        camelMessage.setHeader(SpringAMQPHeader.MESSAGE_ID, "ID-benchmark-1");
+        camelMessage.setHeader(SpringAMQPHeader.CORRELATION_ID, "ID-benchmark-0");
+        camelMessage.setHeader(SpringAMQPHeader.CONTENT_TYPE, "text/plain");
+        camelMessage.setHeader(SpringAMQPHeader.PRIORITY, 4);
+        camelMessage.setHeader(SpringAMQPHeader.REPLY_TO, "replies");
+        camelMessage.setHeader(SpringAMQPHeader.DELIVERY_MODE, 2);
+        for(int i = 0; i < this.headerCount; ++i)
+            camelMessage.setHeader((i % 2 == 0 ? "Kept" : "Dropped")+i, "Value"+i);
+        this.exchange.setIn(camelMessage);
+        this.headers = camelMessage.getHeaders();
+        this.headerFilter = this.filtered ? new SpringAMQPHeaderFilter(null, "Dropped*") : null;
+    }
+
+    @Benchmark
+    public Message setBasicPropertiesFromHeaders() {
+        return SpringAMQPHeader.setBasicPropertiesFromHeaders(newMessage(), this.headers);
+    }
+
+    @Benchmark
+    public Message copyHeaders() {
+        return SpringAMQPHeader.copyHeaders(newMessage(), this.headers, this.headerFilter, this.exchange);
+    }
+
+    @Benchmark
+    public Message setBasicPropertiesThenCopyHeaders() {
+        Message message = SpringAMQPHeader.setBasicPropertiesFromHeaders(newMessage(), this.headers);
+        return SpringAMQPHeader.copyHeaders(message, this.headers, this.headerFilter, this.exchange);
+    }
+
+    @Benchmark
+    public Message setPropertiesFromHeaders() {
+        return SpringAMQPHeader.setPropertiesFromHeaders(newMessage(), this.headers, this.headerFilter, this.exchange);
+    }
+
+    private static Message newMessage() {
+        return new Message(BODY, new MessageProperties());
+    }
+}
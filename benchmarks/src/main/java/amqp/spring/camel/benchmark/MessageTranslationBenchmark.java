@@ -0,0 +1,94 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package amqp.spring.camel.benchmark;
+
+import amqp.spring.camel.component.SpringAMQPMessage;
+import amqp.spring.converter.StringConverter;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+import org.apache.camel.impl.DefaultMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+/**
+ * A whole message through SpringAMQPMessage in each direction, body and headers,
+ * with a StringConverter. fromAMQPMessageReadHeaders also reads every header back,
+ * as a route that copies or logs them would; fromAMQPMessageLazy leaves the body
+ * unconverted, as consumers with lazy conversion do until the body is read.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageTranslationBenchmark {
+    @Param({"64", "4096", "65536"})
+    public int payloadSize;
+
+    @Param({"5", "40"})
+    public int headerCount;
+
+    private final MessageConverter msgConverter = new StringConverter();
+    private org.apache.camel.Message camelMessage;
+    private Message amqpMessage;
+
+    @Setup
+    public void setUp() throws Exception {
+        char[] text = new char[this.payloadSize];
+        Arrays.fill(text, 'x');
+
+        Exchange exchange = new DefaultExchange(new DefaultCamelContext());
+        this.camelMessage = new DefaultMessage();
+        this.camelMessage.setBody(new String(text));
+        for(int i = 0; i < this.headerCount; ++i)
+            this.camelMessage.setHeader("Header"+i, "Value"+i);
+        this.camelMessage.setHeader("replyTo", "replies");
+        exchange.setIn(this.camelMessage);
+        //Generated once so no benchmark pays for it
+        this.camelMessage.getMessageId();
+
+        this.amqpMessage = SpringAMQPMessage.toAMQPMessage(this.camelMessage, this.msgConverter, null);
+    }
+
+    @Benchmark
+    public Message toAMQPMessage() {
+        return SpringAMQPMessage.toAMQPMessage(this.camelMessage, this.msgConverter, null);
+    }
+
+    @Benchmark
+    public SpringAMQPMessage fromAMQPMessage() {
+        return SpringAMQPMessage.fromAMQPMessage(this.msgConverter, this.amqpMessage);
+    }
+
+    @Benchmark
+    public SpringAMQPMessage fromAMQPMessageLazy() {
+        return SpringAMQPMessage.fromAMQPMessage(this.msgConverter, this.amqpMessage, true);
+    }
+
+    @Benchmark
+    public void fromAMQPMessageReadHeaders(Blackhole blackhole) {
+        SpringAMQPMessage message = SpringAMQPMessage.fromAMQPMessage(this.msgConverter, this.amqpMessage);
+        for(Map.Entry<String, Object> header : message.getHeaders().entrySet())
+            blackhole.consume(header.getValue());
+        blackhole.consume(message.getBody());
+    }
+}
@@ -0,0 +1,133 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package amqp.spring.camel.component;
+
+import com.rabbitmq.client.Channel;
+import java.io.IOException;
+import java.util.TreeSet;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects acknowledgements for one channel and sends them as a single
+ * basicAck(multiple=true) once batchSize deliveries have completed, or once the
+ * oldest pending acknowledgement has waited timeoutMillis.
+ *
+ * Deliveries may finish out of order, so a multiple ack is only ever sent up to the
+ * highest completed tag that sits below every delivery still being processed.
+ * Failed deliveries are rejected individually and straight away, and requeued,
+ * so the broker redelivers them as it would a failed delivery left unacknowledged.
+ * A delivery that fails again once redelivered is rejected without requeueing, so
+ * it goes to the queue's dead letter exchange rather than failing forever.
+ */
+class SpringAMQPAckCoalescer implements Runnable {
+    private static transient final Logger LOG = LoggerFactory.getLogger(SpringAMQPAckCoalescer.class);
+
+    private final Channel channel;
+    private final ScheduledExecutorService timer;
+    private final int batchSize;
+    private final long timeoutMillis;
+    private final TreeSet<Long> outstanding = new TreeSet<>();
+    private final TreeSet<Long> completed = new TreeSet<>();
+    private ScheduledFuture<?> timeout;
+
+    SpringAMQPAckCoalescer(Channel channel, ScheduledExecutorService timer, int batchSize, long timeoutMillis) {
+        this.channel = channel;
+        this.timer = timer;
+        this.batchSize = batchSize;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public Channel getChannel() {
+        return this.channel;
+    }
+
+    /**
+     * Acknowledgements not yet sent to the broker.
+     */
+    public synchronized int getPendingCount() {
+        return this.completed.size();
+    }
+
+    /**
+     * Must be called as a delivery is received, before it can complete, so that later
+     * deliveries finishing first can't acknowledge it by accident.
+     */
+    public synchronized void delivered(long deliveryTag) {
+        this.outstanding.add(deliveryTag);
+    }
+
+    public synchronized void acknowledge(long deliveryTag) {
+        this.outstanding.remove(deliveryTag);
+        this.completed.add(deliveryTag);
+
+        if(this.completed.size() >= this.batchSize)
+            flush();
+        else if(this.timeout == null)
+            scheduleFlush();
+    }
+
+    public synchronized void reject(long deliveryTag, boolean redelivered) {
+        this.outstanding.remove(deliveryTag);
+        try {
+            LOG.trace("Rejecting delivery [delivery_tag={}, requeue={}]", deliveryTag, !redelivered);
+            this.channel.basicReject(deliveryTag, !redelivered);
+        } catch(IOException | RuntimeException e) {
+            LOG.error("Could not reject delivery [delivery_tag={}]", deliveryTag, e);
+        }
+
+        //A failure at the head may be all that held back later acknowledgements
+        if(this.completed.size() >= this.batchSize)
+            flush();
+    }
+
+    /**
+     * Send whatever can be acknowledged now. Completed deliveries that are still
+     * waiting on an earlier one stay pending and are retried on the next flush.
+     */
+    public synchronized void flush() {
+        if(this.timeout != null) {
+            this.timeout.cancel(false);
+            this.timeout = null;
+        }
+        if(this.completed.isEmpty())
+            return;
+
+        Long ackTag = this.outstanding.isEmpty() ? this.completed.last() : this.completed.lower(this.outstanding.first());
+        if(ackTag != null) {
+            int acknowledged = this.completed.headSet(ackTag, true).size();
+            this.completed.headSet(ackTag, true).clear();
+            try {
+                LOG.trace("Acknowledging {} deliveries [delivery_tag={}]", acknowledged, ackTag);
+                this.channel.basicAck(ackTag, true);
+            } catch(IOException | RuntimeException e) {
+                //The broker redelivers everything unacknowledged once the channel is gone
+                LOG.error("Could not acknowledge deliveries [delivery_tag={}]", ackTag, e);
+            }
+        }
+
+        if(! this.completed.isEmpty())
+            scheduleFlush();
+    }
+
+    @Override
+    public void run() {
+        flush();
+    }
+
+    private void scheduleFlush() {
+        if(this.timer == null)
+            return;
+        try {
+            this.timeout = this.timer.schedule(this, this.timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch(RejectedExecutionException e) {
+            LOG.debug("Acknowledgement timer is stopped, not scheduling a flush");
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package amqp.spring.camel.component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.Exchange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+
+/**
+ * Gathers outgoing messages per exchange and routing key, then writes each batch
+ * back-to-back on a single confirm-mode channel. A batch is flushed once it reaches
+ * batchSize messages or batchBytes of payload, or when it has lingered for lingerMs.
+ * Confirms are tracked by a confirm publisher, so the next batch can go out while
+ * the broker is still confirming the last.
+ */
+class SpringAMQPBatchPublisher {
+    private static transient final Logger LOG = LoggerFactory.getLogger(SpringAMQPBatchPublisher.class);
+
+    private final SpringAMQPPublisherSupport support;
+    private final SpringAMQPConfirmPublisher confirmPublisher;
+    private final ScheduledExecutorService flushExecutor;
+    private final long confirmTimeoutMillis;
+    private final int batchSize;
+    private final long batchBytes;
+    private final long lingerMillis;
+    private final Map<BatchKey, Batch> openBatches = new HashMap<>();
+
+    SpringAMQPBatchPublisher(SpringAMQPPublisherSupport support, ScheduledExecutorService flushExecutor, ScheduledExecutorService confirmTimer,
+            long confirmTimeoutMillis, int batchSize, long batchBytes, long lingerMillis) {
+        this.support = support;
+        this.confirmPublisher = new SpringAMQPConfirmPublisher(support, confirmTimer, confirmTimeoutMillis);
+        this.flushExecutor = flushExecutor;
+        this.confirmTimeoutMillis = confirmTimeoutMillis;
+        this.batchSize = batchSize;
+        this.batchBytes = batchBytes;
+        this.lingerMillis = lingerMillis;
+    }
+
+    public void publish(String exchangeName, String routingKey, Message message, Exchange exchange, AsyncCallback callback) {
+        PendingPublish pending = new PendingPublish(message, exchange, callback);
+        BatchKey key = new BatchKey(exchangeName, routingKey);
+
+        Batch fullBatch = null;
+        synchronized(this.openBatches) {
+            Batch batch = this.openBatches.get(key);
+            if(batch == null) {
+                batch = new Batch(key);
+                this.openBatches.put(key, batch);
+                batch.lingerFlush = this.flushExecutor.schedule(new LingerFlush(key, batch), this.lingerMillis, TimeUnit.MILLISECONDS);
+            }
+
+            batch.add(pending);
+            if(batch.messages.size() >= this.batchSize || (this.batchBytes > 0 && batch.bytes >= this.batchBytes)) {
+                this.openBatches.remove(key);
+                batch.lingerFlush.cancel(false);
+                fullBatch = batch;
+            }
+        }
+
+        if(fullBatch != null)
+            submitFlush(fullBatch);
+    }
+
+    public int getPendingCount() {
+        int pending = 0;
+        synchronized(this.openBatches) {
+            for(Batch batch : this.openBatches.values())
+                pending += batch.messages.size();
+        }
+        return pending;
+    }
+
+    public int getPendingConfirmCount() {
+        return this.confirmPublisher.getPendingCount();
+    }
+
+    /**
+     * Flushes every open batch and waits for the flushes to finish, then for their
+     * confirms, before closing the channel.
+     */
+    public void stop() {
+        List<Batch> remaining;
+        synchronized(this.openBatches) {
+            remaining = new ArrayList<>(this.openBatches.values());
+            this.openBatches.clear();
+        }
+
+        for(Batch batch : remaining) {
+            batch.lingerFlush.cancel(false);
+            submitFlush(batch);
+        }
+
+        try {
+            Future<?> drained = this.flushExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    //Flushes run in order, so once this runs every batch has been written
+                }
+            });
+            if(this.confirmTimeoutMillis > 0)
+                drained.get(this.confirmTimeoutMillis, TimeUnit.MILLISECONDS);
+            else
+                drained.get();
+        } catch(Exception e) {
+            LOG.warn("Could not drain outstanding batches before stopping", e);
+        }
+        this.confirmPublisher.stop();
+    }
+
+    private void submitFlush(final Batch batch) {
+        try {
+            this.flushExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flush(batch);
+                }
+            });
+        } catch(RejectedExecutionException e) {
+            complete(batch, new AmqpException("Batch publisher stopped before the batch could be sent", e));
+        }
+    }
+
+    private void flush(Batch batch) {
+        LOG.debug("Flushing batch of {} messages ({} bytes) to exchange [{}] with routing key [{}]",
+                new Object[] {batch.messages.size(), batch.bytes, batch.key.exchangeName, batch.key.routingKey});
+        int published = 0;
+        try {
+            for(PendingPublish pending : batch.messages) {
+                this.confirmPublisher.publish(batch.key.exchangeName, batch.key.routingKey, pending.message, pending.exchange, pending.callback);
+                published++;
+            }
+        } catch(Throwable t) {
+            //Whatever was written before this completes with its confirm, or fails when the channel goes
+            LOG.error("Could not deliver {} of a batch of {} messages via AMQP", new Object[] {batch.messages.size() - published, batch.messages.size(), t});
+            complete(batch.messages.subList(published, batch.messages.size()), t);
+        }
+    }
+
+    private void complete(Batch batch, Throwable failure) {
+        complete(batch.messages, failure);
+    }
+
+    private void complete(List<PendingPublish> messages, Throwable failure) {
+        for(PendingPublish pending : messages)
+            this.support.complete(pending.exchange, pending.callback, failure);
+    }
+
+    private class LingerFlush implements Runnable {
+        private final BatchKey key;
+        private final Batch batch;
+
+        LingerFlush(BatchKey key, Batch batch) {
+            this.key = key;
+            this.batch = batch;
+        }
+
+        @Override
+        public void run() {
+            synchronized(openBatches) {
+                //The batch may have filled up and been flushed in the meantime
+                if(openBatches.get(this.key) != this.batch)
+                    return;
+                openBatches.remove(this.key);
+            }
+            flush(this.batch);
+        }
+    }
+
+    private static class Batch {
+        private final BatchKey key;
+        private final List<PendingPublish> messages = new ArrayList<>();
+        private long bytes = 0;
+        private ScheduledFuture<?> lingerFlush;
+
+        Batch(BatchKey key) {
+            this.key = key;
+        }
+
+        void add(PendingPublish pending) {
+            this.messages.add(pending);
+            this.bytes += pending.message.getBody() == null ? 0 : pending.message.getBody().length;
+        }
+    }
+
+    private static class BatchKey {
+        private final String exchangeName;
+        private final String routingKey;
+
+        BatchKey(String exchangeName, String routingKey) {
+            this.exchangeName = exchangeName == null ? "" : exchangeName;
+            this.routingKey = routingKey == null ? "" : routingKey;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(! (obj instanceof BatchKey))
+                return false;
+            BatchKey other = (BatchKey) obj;
+            return this.exchangeName.equals(other.exchangeName) && this.routingKey.equals(other.routingKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.exchangeName.hashCode() + this.routingKey.hashCode();
+        }
+    }
+
+    private static class PendingPublish {
+        private final Message message;
+        private final Exchange exchange;
+        private final AsyncCallback callback;
+
+        PendingPublish(Message message, Exchange exchange, AsyncCallback callback) {
+            this.message = message;
+            this.exchange = exchange;
+            this.callback = callback;
+        }
+    }
+}
@@ -4,8 +4,15 @@
 
 package amqp.spring.camel.component;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import org.apache.camel.CamelContext;
 import org.apache.camel.Endpoint;
 import org.apache.camel.impl.DefaultComponent;
@@ -17,6 +24,8 @@ import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitAdmin;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.support.DefaultMessagePropertiesConverter;
+import org.springframework.amqp.rabbit.support.MessagePropertiesConverter;
 
 public class SpringAMQPComponent extends DefaultComponent {
     private static transient final Logger LOG = LoggerFactory.getLogger(SpringAMQPComponent.class);
@@ -24,10 +33,24 @@ public class SpringAMQPComponent extends DefaultComponent {
     private Map<String, ConnectionFactory> connectionFactory;
     private Map<String, AmqpTemplate> amqpTemplate;
     private Map<String, AmqpAdmin> amqpAdministration;
+    private Map<String, ConnectionFactory> publisherConnectionFactory;
+    private Map<String, AmqpTemplate> publisherTemplate;
+    private RabbitTemplate defaultTemplate;
+    private MessagePropertiesConverter messagePropertiesConverter = new DefaultMessagePropertiesConverter();
+    private String encoding = DEFAULT_ENCODING;
+    private final Map<AmqpTemplate, AmqpTemplate> publisherTemplates = new IdentityHashMap<>();
+    private final Map<List<Object>, SpringAMQPReplyManager> replyManagers = new HashMap<>();
+    private final Map<ConnectionFactory, SpringAMQPConnectionMonitor> connectionMonitors = new IdentityHashMap<>();
+    private SpringAMQPTimeoutWheel replyTimeoutWheel;
+    private ScheduledExecutorService replyTimerExecutor;
+    private ExecutorService replyExecutor;
+    private static final long REPLY_TIMER_TICK_MILLIS = 50L;
     public static final String ROUTING_KEY_HEADER = "ROUTING_KEY";
     public static final String DEFAULT_CONNECTION = "DefaultConnection";
     public static final String CONNECTION = "connection";
     public static final String EXCHANGE_NAME_HEADER = "EXCHANGE_NAME";
+    public static final String BATCH_HEADERS = "SpringAMQPBatchHeaders";
+    public static final String DEFAULT_ENCODING = "UTF-8";
     
     public SpringAMQPComponent() {
         this(new CachingConnectionFactory());
@@ -77,6 +100,57 @@ public class SpringAMQPComponent extends DefaultComponent {
         this.connectionFactory = connectionFactory;
     }
 
+    public Map<String, ConnectionFactory> getPublisherConnectionFactory() {
+        return publisherConnectionFactory;
+    }
+
+    /**
+     * Connection factories to publish through, keyed by the same names as the
+     * connection factories. Only used for connections whose template the component
+     * created itself; otherwise give a publisherTemplate.
+     */
+    public void setPublisherConnectionFactory(Map<String, ConnectionFactory> publisherConnectionFactory) {
+        this.publisherConnectionFactory = publisherConnectionFactory;
+    }
+
+    public Map<String, AmqpTemplate> getPublisherTemplate() {
+        return publisherTemplate;
+    }
+
+    /**
+     * Templates to publish through when an endpoint asks for a dedicated publisher
+     * connection, keyed by the same names as the AMQP templates. Each should be set
+     * up like the template it stands in for, over a connection factory of its own.
+     */
+    public void setPublisherTemplate(Map<String, AmqpTemplate> publisherTemplate) {
+        this.publisherTemplate = publisherTemplate;
+    }
+
+    public MessagePropertiesConverter getMessagePropertiesConverter() {
+        return messagePropertiesConverter;
+    }
+
+    /**
+     * Writes the message properties of producers that publish on a channel of their
+     * own (publisherConfirms, batchSize, replyQueue) rather than through the template. Spring AMQP
+     * doesn't expose a template's settings, so if the template's is customized set the
+     * same one here. Defaults to a DefaultMessagePropertiesConverter.
+     */
+    public void setMessagePropertiesConverter(MessagePropertiesConverter messagePropertiesConverter) {
+        this.messagePropertiesConverter = messagePropertiesConverter;
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * The encoding to go with the messagePropertiesConverter, like the template's. Defaults to UTF-8.
+     */
+    public void setEncoding(String encoding) {
+        this.encoding = encoding;
+    }
+
     public Map<String, AmqpAdmin> getAmqpAdministration() {
         if(this.amqpAdministration == null && getCamelContext() != null && getCamelContext().getRegistry() != null) {
             //Attempt to load an administration connection from the registry
@@ -132,7 +206,8 @@ public class SpringAMQPComponent extends DefaultComponent {
         if(this.amqpTemplate == null || this.amqpTemplate.isEmpty()) {
             //Attempt to construct an AMQP template
             this.amqpTemplate = new HashMap<>();
-            this.amqpTemplate.put(DEFAULT_CONNECTION, new RabbitTemplate(this.connectionFactory.values().iterator().next()));
+            this.defaultTemplate = new RabbitTemplate(this.connectionFactory.values().iterator().next());
+            this.amqpTemplate.put(DEFAULT_CONNECTION, this.defaultTemplate);
             LOG.info("Created new AMQP Template");
         }
         
@@ -143,6 +218,123 @@ public class SpringAMQPComponent extends DefaultComponent {
         this.amqpTemplate = amqpTemplate;
     } 
     
+    /**
+     * A template whose sends go out over a connection of their own, so flow control
+     * on publishing never throttles the consumers sharing the original connection.
+     * Spring AMQP doesn't expose a template's settings, so a template the component
+     * didn't create itself needs a publisherTemplate configured for its connection.
+     */
+    synchronized AmqpTemplate getPublisherTemplate(AmqpTemplate template) {
+        if(! (template instanceof RabbitTemplate))
+            return template;
+        
+        AmqpTemplate publisherTemplate = this.publisherTemplates.get(template);
+        if(publisherTemplate == null) {
+            String connection = getConnectionName(template);
+            if(this.publisherTemplate != null)
+                publisherTemplate = this.publisherTemplate.get(connection);
+            if(publisherTemplate == null) {
+                if(template != this.defaultTemplate)
+                    throw new IllegalStateException("A dedicated publisher connection for " + connection
+                            + " needs a publisherTemplate configured like its AMQP template");
+                publisherTemplate = new RabbitTemplate(getPublisherConnectionFactory(connection));
+            }
+            this.publisherTemplates.put(template, publisherTemplate);
+        }
+        return publisherTemplate;
+    }
+    
+    ConnectionFactory getPublisherConnectionFactory(String connection) {
+        ConnectionFactory publisherFactory = this.publisherConnectionFactory == null ? null : this.publisherConnectionFactory.get(connection);
+        if(publisherFactory == null)
+            throw new IllegalStateException("A dedicated publisher connection for " + connection + " needs a publisherConnectionFactory or publisherTemplate");
+        return publisherFactory;
+    }
+    
+    private String getConnectionName(AmqpTemplate template) {
+        for(Map.Entry<String, AmqpTemplate> entry : getAmqpTemplate().entrySet()) {
+            if(entry.getValue() == template)
+                return entry.getKey();
+        }
+        return null;
+    }
+
+    /**
+     * Blocked state of the broker connection behind a connection factory, registering
+     * for connection.blocked notifications the first time it is asked for.
+     */
+    synchronized SpringAMQPConnectionMonitor getConnectionMonitor(ConnectionFactory connectionFactory) {
+        SpringAMQPConnectionMonitor monitor = this.connectionMonitors.get(connectionFactory);
+        if(monitor == null) {
+            monitor = new SpringAMQPConnectionMonitor(connectionFactory.getHost() + ":" + connectionFactory.getPort() + connectionFactory.getVirtualHost());
+            this.connectionMonitors.put(connectionFactory, monitor);
+            try {
+                connectionFactory.addConnectionListener(monitor);
+            } catch(RuntimeException e) {
+                //Registration opens a channel if already connected; the next connection will register us anyway
+                LOG.warn("Could not listen for blocked notifications on {}", connectionFactory.getHost(), e);
+            }
+        }
+        return monitor;
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        
+        if(this.connectionFactory != null) {
+            for(ConnectionFactory factory : this.connectionFactory.values())
+                getConnectionMonitor(factory);
+        }
+    }
+
+    /**
+     * Replies are consumed once per connection and reply queue; a second consumer on
+     * the same queue would be handed replies meant for the first.
+     */
+    synchronized SpringAMQPReplyManager getReplyManager(ConnectionFactory connectionFactory, String replyQueue) throws IOException {
+        List<Object> key = Arrays.<Object>asList(connectionFactory, replyQueue);
+        SpringAMQPReplyManager replyManager = this.replyManagers.get(key);
+        if(replyManager == null) {
+            if(this.replyTimeoutWheel == null) {
+                this.replyTimeoutWheel = new SpringAMQPTimeoutWheel(REPLY_TIMER_TICK_MILLIS);
+                this.replyTimerExecutor = getCamelContext().getExecutorServiceManager().newSingleThreadScheduledExecutor(this, "amqp-reply-timer");
+                this.replyTimerExecutor.scheduleAtFixedRate(this.replyTimeoutWheel, REPLY_TIMER_TICK_MILLIS, REPLY_TIMER_TICK_MILLIS, TimeUnit.MILLISECONDS);
+                this.replyExecutor = SpringAMQPPublisherSupport.newCompletionExecutor(getCamelContext(), this, "amqp-reply");
+            }
+            
+            SpringAMQPPublisherSupport support = new SpringAMQPPublisherSupport(connectionFactory, this.messagePropertiesConverter, this.encoding, this.replyExecutor);
+            replyManager = new SpringAMQPReplyManager(connectionFactory, replyQueue, this.replyTimeoutWheel, support);
+            replyManager.start();
+            this.replyManagers.put(key, replyManager);
+        }
+        return replyManager;
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        synchronized(this) {
+            for(SpringAMQPReplyManager replyManager : this.replyManagers.values())
+                replyManager.stop();
+            this.replyManagers.clear();
+            
+            if(this.replyTimerExecutor != null) {
+                getCamelContext().getExecutorServiceManager().shutdown(this.replyTimerExecutor);
+                this.replyTimerExecutor = null;
+                this.replyTimeoutWheel = null;
+            }
+            
+            if(this.replyExecutor != null) {
+                getCamelContext().getExecutorServiceManager().shutdown(this.replyExecutor);
+                this.replyExecutor = null;
+            }
+            
+            this.publisherTemplates.clear();
+        }
+        
+        super.doStop();
+    }
+    
     public static Throwable findRootCause(Throwable t) {
         return t.getCause()==null ? t : findRootCause(t.getCause());
     }
@@ -0,0 +1,146 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package amqp.spring.camel.component;
+
+import amqp.spring.converter.BufferPool;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+import org.iq80.snappy.CorruptionException;
+import org.iq80.snappy.Snappy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+/**
+ * Compresses message bodies on their way out and decompresses them on the way in.
+ * A compressed message says how in its contentEncoding (gzip, deflate or snappy), the
+ * way HTTP's Content-Encoding does. Converters use contentEncoding for the character
+ * set, so whatever was there before is kept in the originalContentEncoding header
+ * and put back once the body is decompressed.
+ */
+class SpringAMQPCompression {
+    private static transient final Logger LOG = LoggerFactory.getLogger(SpringAMQPCompression.class);
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private SpringAMQPCompression() {
+    }
+
+    /**
+     * Compress the body if it is at least threshold bytes, not compressed already,
+     * and actually gets smaller.
+     */
+    static Message compress(Message message, SpringAMQPEndpoint.Compression compression, int threshold) {
+        byte[] body = message.getBody();
+        if(compression == null || compression == SpringAMQPEndpoint.Compression.None || body == null || body.length < threshold)
+            return message;
+
+        MessageProperties properties = message.getMessageProperties();
+        if(codecOf(properties.getContentEncoding()) != null)
+            return message;
+
+        byte[] compressed;
+        try {
+            compressed = compress(body, compression);
+        } catch(IOException e) {
+            throw new MessageConversionException("Could not "+compression+" compress message body", e);
+        }
+        if(compressed.length >= body.length) {
+            LOG.trace("Sending {} byte body uncompressed, {} did not make it smaller", body.length, compression);
+            return message;
+        }
+
+        if(properties.getContentEncoding() != null)
+            properties.setHeader(SpringAMQPHeader.ORIGINAL_CONTENT_ENCODING, properties.getContentEncoding());
+        properties.setContentEncoding(compression.getContentEncoding());
+        properties.setContentLength(compressed.length);
+        return new Message(compressed, properties);
+    }
+
+    /**
+     * Undo compress(); messages that weren't compressed are returned as they are.
+     */
+    static Message decompress(Message message) {
+        MessageProperties properties = message.getMessageProperties();
+        SpringAMQPEndpoint.Compression compression = properties == null ? null : codecOf(properties.getContentEncoding());
+        if(compression == null || message.getBody() == null)
+            return message;
+
+        byte[] body;
+        try {
+            body = decompress(message.getBody(), compression);
+        } catch(IOException e) {
+            throw new MessageConversionException("Could not decompress "+compression+" message body", e);
+        }
+
+        Object originalEncoding = properties.getHeaders().remove(SpringAMQPHeader.ORIGINAL_CONTENT_ENCODING);
+        properties.setContentEncoding(originalEncoding == null ? null : originalEncoding.toString());
+        properties.setContentLength(body.length);
+        return new Message(body, properties);
+    }
+
+    private static SpringAMQPEndpoint.Compression codecOf(String contentEncoding) {
+        if(contentEncoding == null)
+            return null;
+        for(SpringAMQPEndpoint.Compression compression : SpringAMQPEndpoint.Compression.values()) {
+            if(compression.getContentEncoding() != null && compression.getContentEncoding().equalsIgnoreCase(contentEncoding))
+                return compression;
+        }
+        return null;
+    }
+
+    private static byte[] compress(byte[] body, SpringAMQPEndpoint.Compression compression) throws IOException {
+        if(compression == SpringAMQPEndpoint.Compression.Snappy)
+            return Snappy.compress(body);
+
+        //Favour speed, the point of deflate over gzip here
+        Deflater deflater = compression == SpringAMQPEndpoint.Compression.Gzip ? null : new Deflater(Deflater.BEST_SPEED);
+        try(BufferPool.OutputBuffer compressed = BufferPool.getShared().newOutputBuffer(body.length / 4)) {
+            DeflaterOutputStream out = deflater == null ? new GZIPOutputStream(compressed, BUFFER_SIZE) : new DeflaterOutputStream(compressed, deflater, BUFFER_SIZE);
+            try {
+                out.write(body);
+                //Copied out before closing, which hands the pooled array back
+                out.finish();
+                return compressed.toByteArray();
+            } finally {
+                out.close();
+            }
+        } finally {
+            if(deflater != null)
+                deflater.end();
+        }
+    }
+
+    private static byte[] decompress(byte[] body, SpringAMQPEndpoint.Compression compression) throws IOException {
+        if(compression == SpringAMQPEndpoint.Compression.Snappy) {
+            try {
+                return Snappy.uncompress(body, 0, body.length);
+            } catch(CorruptionException e) {
+                throw new IOException(e);
+            }
+        }
+
+        BufferPool pool = BufferPool.getShared();
+        InputStream source = new ByteArrayInputStream(body);
+        byte[] buffer = pool.acquire(BUFFER_SIZE);
+        try(BufferPool.OutputBuffer decompressed = pool.newOutputBuffer(Math.min(body.length, 1 << 18) * 4);
+                InputStream in = compression == SpringAMQPEndpoint.Compression.Gzip ? new GZIPInputStream(source, BUFFER_SIZE) : new InflaterInputStream(source)) {
+            int read;
+            while((read = in.read(buffer)) != -1)
+                decompressed.write(buffer, 0, read);
+            return decompressed.toByteArray();
+        } finally {
+            pool.release(buffer);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package amqp.spring.camel.component;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.Exchange;
+import org.apache.camel.ExchangeTimedOutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+
+/**
+ * Publishes messages on a dedicated channel in publisher confirm mode. Rather than
+ * parking a thread on every send, the Camel callback for each exchange is held
+ * against its delivery tag and only completed once the broker acks or nacks it.
+ * Publishes the broker hasn't confirmed within confirmTimeout fail, checked a few
+ * times per timeout period on the given timer. A confirmTimeout of zero or less
+ * waits for the broker indefinitely and leaves the timer alone.
+ */
+class SpringAMQPConfirmPublisher {
+    private static transient final Logger LOG = LoggerFactory.getLogger(SpringAMQPConfirmPublisher.class);
+
+    private static final int TIMEOUT_CHECKS_PER_PERIOD = 4;
+
+    private final SpringAMQPPublisherSupport support;
+    private final long confirmTimeoutMillis;
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final Object channelMonitor = new Object();
+    private final ScheduledFuture<?> timeoutCheck;
+    private ConfirmChannel confirmChannel;
+
+    SpringAMQPConfirmPublisher(SpringAMQPPublisherSupport support, ScheduledExecutorService timer, long confirmTimeoutMillis) {
+        this.support = support;
+        this.confirmTimeoutMillis = confirmTimeoutMillis;
+
+        if(confirmTimeoutMillis <= 0) {
+            this.timeoutCheck = null;
+            return;
+        }
+        
+        long checkInterval = Math.max(1L, confirmTimeoutMillis / TIMEOUT_CHECKS_PER_PERIOD);
+        this.timeoutCheck = timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                expireConfirms();
+            }
+        }, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Publish a message without waiting for the broker. The callback is invoked
+     * (from the completion executor) once the publish has been confirmed; a nack
+     * or a lost channel is surfaced as an exception on the exchange.
+     */
+    public void publish(String exchangeName, String routingKey, Message message, Exchange exchange, AsyncCallback callback) throws IOException {
+        AMQP.BasicProperties properties = this.support.toProperties(message);
+        synchronized(this.channelMonitor) {
+            getConfirmChannel().publish(exchangeName, routingKey, properties, message.getBody(), new PendingConfirm(exchange, callback));
+        }
+    }
+
+    public int getPendingCount() {
+        return this.pendingCount.get();
+    }
+
+    /**
+     * Waits up to confirmTimeout for outstanding confirms, then closes the channel and
+     * fails whatever is still unconfirmed. Without a timeout nothing is waited for.
+     */
+    public void stop() {
+        if(this.timeoutCheck != null)
+            this.timeoutCheck.cancel(false);
+        synchronized(this.channelMonitor) {
+            if(this.confirmChannel != null) {
+                if(this.confirmTimeoutMillis > 0)
+                    this.confirmChannel.awaitConfirms(this.confirmTimeoutMillis);
+                this.confirmChannel.close();
+                this.confirmChannel = null;
+            }
+        }
+    }
+
+    private void expireConfirms() {
+        ConfirmChannel channel;
+        synchronized(this.channelMonitor) {
+            channel = this.confirmChannel;
+        }
+        if(channel != null)
+            channel.expire(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(this.confirmTimeoutMillis));
+    }
+
+    private ConfirmChannel getConfirmChannel() throws IOException {
+        if(this.confirmChannel == null || !this.confirmChannel.isOpen()) {
+            this.confirmChannel = new ConfirmChannel(this.support.openChannel());
+            LOG.debug("Opened publisher confirm channel {}", this.confirmChannel);
+        }
+        return this.confirmChannel;
+    }
+
+    private void complete(PendingConfirm pending, Throwable failure) {
+        this.pendingCount.decrementAndGet();
+        //Don't continue routing on the connection's I/O thread
+        this.support.complete(pending.exchange, pending.callback, failure);
+    }
+
+    /**
+     * Delivery tags are only meaningful for the channel that issued them, so each
+     * channel keeps its own outstanding confirms and fails them if it goes away.
+     */
+    private class ConfirmChannel implements ConfirmListener, ShutdownListener {
+        private final SpringAMQPPublisherSupport.PublisherChannel channel;
+        private final Channel targetChannel;
+        private final ConcurrentNavigableMap<Long, PendingConfirm> pendingConfirms = new ConcurrentSkipListMap<>();
+
+        ConfirmChannel(SpringAMQPPublisherSupport.PublisherChannel channel) throws IOException {
+            this.channel = channel;
+            this.targetChannel = channel.getTargetChannel();
+            this.targetChannel.addConfirmListener(this);
+            this.targetChannel.addShutdownListener(this);
+        }
+
+        void publish(String exchangeName, String routingKey, AMQP.BasicProperties properties, byte[] body, PendingConfirm pending) throws IOException {
+            long deliveryTag = this.targetChannel.getNextPublishSeqNo();
+            this.pendingConfirms.put(deliveryTag, pending);
+            pendingCount.incrementAndGet();
+            try {
+                this.targetChannel.basicPublish(exchangeName, routingKey, false, properties, body);
+            } catch(IOException e) {
+                if(this.pendingConfirms.remove(deliveryTag) != null)
+                    pendingCount.decrementAndGet();
+                throw e;
+            }
+        }
+
+        boolean isOpen() {
+            return this.channel.isOpen();
+        }
+
+        /**
+         * Fail publishes made before the deadline. Delivery tags are handed out in
+         * publishing order, so the oldest are always first.
+         */
+        void expire(long deadlineNanos) {
+            Map.Entry<Long, PendingConfirm> entry;
+            while((entry = this.pendingConfirms.firstEntry()) != null && entry.getValue().publishedNanos - deadlineNanos < 0) {
+                if(this.pendingConfirms.remove(entry.getKey()) != null) {
+                    LOG.warn("Broker did not confirm delivery tag {} within {} ms", entry.getKey(), confirmTimeoutMillis);
+                    complete(entry.getValue(), new ExchangeTimedOutException(entry.getValue().exchange, confirmTimeoutMillis,
+                            "Broker did not confirm delivery"));
+                }
+            }
+            confirmed();
+        }
+
+        synchronized void awaitConfirms(long timeoutMillis) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            try {
+                long remaining;
+                while(!this.pendingConfirms.isEmpty() && this.channel.isOpen() && (remaining = deadline - System.nanoTime()) > 0)
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private synchronized void confirmed() {
+            if(this.pendingConfirms.isEmpty())
+                notifyAll();
+        }
+
+        void close() {
+            this.channel.close();
+            failAll(new AmqpException("Publisher stopped before the broker confirmed delivery"));
+        }
+
+        @Override
+        public void handleAck(long deliveryTag, boolean multiple) {
+            confirm(deliveryTag, multiple, null);
+        }
+
+        @Override
+        public void handleNack(long deliveryTag, boolean multiple) {
+            LOG.warn("Broker rejected delivery tag {} (multiple={})", deliveryTag, multiple);
+            confirm(deliveryTag, multiple, new AmqpException("Broker did not accept the message for delivery"));
+        }
+
+        @Override
+        public void shutdownCompleted(ShutdownSignalException cause) {
+            if(!this.pendingConfirms.isEmpty())
+                LOG.error("Publisher confirm channel closed with {} unconfirmed messages", this.pendingConfirms.size(), cause);
+            failAll(new AmqpException("Channel closed before the broker confirmed delivery", cause));
+        }
+
+        private void confirm(long deliveryTag, boolean multiple, Throwable failure) {
+            if(!multiple) {
+                PendingConfirm pending = this.pendingConfirms.remove(deliveryTag);
+                if(pending != null)
+                    complete(pending, failure);
+                confirmed();
+                return;
+            }
+
+            Map.Entry<Long, PendingConfirm> entry;
+            while((entry = this.pendingConfirms.firstEntry()) != null && entry.getKey() <= deliveryTag) {
+                if(this.pendingConfirms.remove(entry.getKey()) != null)
+                    complete(entry.getValue(), failure);
+            }
+            confirmed();
+        }
+
+        private void failAll(Throwable failure) {
+            Map.Entry<Long, PendingConfirm> entry;
+            while((entry = this.pendingConfirms.pollFirstEntry()) != null)
+                complete(entry.getValue(), failure);
+            confirmed();
+        }
+
+        @Override
+        public String toString() {
+            return this.channel.toString();
+        }
+    }
+
+    private static class PendingConfirm {
+        private final Exchange exchange;
+        private final AsyncCallback callback;
+        private final long publishedNanos = System.nanoTime();
+
+        PendingConfirm(Exchange exchange, AsyncCallback callback) {
+            this.exchange = exchange;
+            this.callback = callback;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package amqp.spring.camel.component;
+
+import com.rabbitmq.client.BlockedListener;
+import com.rabbitmq.client.Channel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.connection.Connection;
+import org.springframework.amqp.rabbit.connection.ConnectionListener;
+import org.springframework.amqp.rabbit.connection.RabbitUtils;
+
+/**
+ * Tracks connection.blocked / connection.unblocked notifications for one connection
+ * factory. RabbitMQ blocks publishing connections while a memory or disk alarm is
+ * raised, so producers consult this before sending rather than hanging in a write.
+ */
+class SpringAMQPConnectionMonitor implements ConnectionListener, BlockedListener {
+    private static transient final Logger LOG = LoggerFactory.getLogger(SpringAMQPConnectionMonitor.class);
+
+    private final String name;
+    private final List<Runnable> unblockListeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong totalBlockedMillis = new AtomicLong();
+    private final AtomicLong blockedCount = new AtomicLong();
+    private volatile boolean blocked = false;
+    private volatile long blockedSince = 0;
+    private volatile String blockedReason = null;
+
+    SpringAMQPConnectionMonitor(String name) {
+        this.name = name;
+    }
+
+    public boolean isBlocked() {
+        return this.blocked;
+    }
+
+    public String getBlockedReason() {
+        return this.blockedReason;
+    }
+
+    /**
+     * How long the connection has been blocked, 0 if it isn't.
+     */
+    public long getBlockedMillis() {
+        long since = this.blockedSince;
+        return this.blocked && since > 0 ? System.currentTimeMillis() - since : 0;
+    }
+
+    /**
+     * Time spent blocked over the life of this monitor, including any current block.
+     */
+    public long getTotalBlockedMillis() {
+        return this.totalBlockedMillis.get() + getBlockedMillis();
+    }
+
+    public long getBlockedCount() {
+        return this.blockedCount.get();
+    }
+
+    public void addUnblockListener(Runnable listener) {
+        this.unblockListeners.add(listener);
+    }
+
+    public void removeUnblockListener(Runnable listener) {
+        this.unblockListeners.remove(listener);
+    }
+
+    @Override
+    public void onCreate(Connection connection) {
+        Channel channel = connection.createChannel(false);
+        try {
+            channel.getConnection().addBlockedListener(this);
+        } finally {
+            RabbitUtils.closeChannel(channel);
+        }
+    }
+
+    @Override
+    public void onClose(Connection connection) {
+        //A replacement connection starts out unblocked
+        unblocked();
+    }
+
+    @Override
+    public void handleBlocked(String reason) {
+        synchronized(this) {
+            if(this.blocked)
+                return;
+            this.blockedReason = reason;
+            this.blockedSince = System.currentTimeMillis();
+            this.blocked = true;
+        }
+        this.blockedCount.incrementAndGet();
+        LOG.warn("Broker blocked connection {}: {}", this.name, reason);
+    }
+
+    @Override
+    public void handleUnblocked() {
+        unblocked();
+    }
+
+    private void unblocked() {
+        long blockedMillis;
+        synchronized(this) {
+            if(! this.blocked)
+                return;
+            blockedMillis = System.currentTimeMillis() - this.blockedSince;
+            this.totalBlockedMillis.addAndGet(blockedMillis);
+            this.blocked = false;
+            this.blockedSince = 0;
+            this.blockedReason = null;
+        }
+        LOG.info("Broker unblocked connection {} after {} ms", this.name, blockedMillis);
+
+        for(Runnable listener : this.unblockListeners) {
+            try {
+                listener.run();
+            } catch(RuntimeException e) {
+                LOG.error("Unblock listener failed", e);
+            }
+        }
+    }
+}
@@ -6,11 +6,23 @@ package amqp.spring.camel.component;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import org.aopalliance.aop.Advice;
+import org.apache.camel.AsyncCallback;
 import org.apache.camel.Exchange;
 import org.apache.camel.ExchangePattern;
 import org.apache.camel.Processor;
@@ -19,9 +31,12 @@ import org.apache.camel.impl.DefaultExchange;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.AmqpConnectException;
+import org.springframework.amqp.AmqpException;
 import org.springframework.amqp.AmqpIOException;
+import org.springframework.amqp.AmqpRejectAndDontRequeueException;
 import org.springframework.amqp.core.AcknowledgeMode;
 import org.springframework.amqp.core.Address;
+import org.springframework.amqp.core.AmqpTemplate;
 import org.springframework.amqp.core.Binding;
 import org.springframework.amqp.core.BindingBuilder;
 import org.springframework.amqp.core.FanoutExchange;
@@ -33,6 +48,7 @@ import org.springframework.amqp.rabbit.config.StatefulRetryOperationsInterceptor
 import org.springframework.amqp.rabbit.connection.Connection;
 import org.springframework.amqp.rabbit.connection.ConnectionListener;
 import org.springframework.amqp.rabbit.core.ChannelAwareMessageListener;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
 import org.springframework.amqp.rabbit.retry.MessageKeyGenerator;
@@ -53,6 +69,8 @@ public class SpringAMQPConsumer extends DefaultConsumer implements ConnectionLis
 
     private final SpringAMQPEndpoint endpoint;
     private final RabbitMQMessageListener messageListener;
+    private SpringAMQPConnectionMonitor connectionMonitor;
+    private AmqpTemplate replyTemplate;
 
     public SpringAMQPConsumer(final SpringAMQPEndpoint endpoint, final Processor processor) {
         super(endpoint, processor);
@@ -64,6 +82,12 @@ public class SpringAMQPConsumer extends DefaultConsumer implements ConnectionLis
     public void doStart() throws Exception {
         super.doStart();
 
+        this.replyTemplate = this.endpoint.getPublisherTemplate();
+        if (this.replyTemplate instanceof RabbitTemplate) {
+            RabbitTemplate template = (RabbitTemplate) this.replyTemplate;
+            this.connectionMonitor = ((SpringAMQPComponent) this.endpoint.getComponent()).getConnectionMonitor(template.getConnectionFactory());
+        }
+
         if (!this.messageListener.listenerContainer.isActive())
             this.messageListener.start();
     }
@@ -112,7 +136,16 @@ public class SpringAMQPConsumer extends DefaultConsumer implements ConnectionLis
 
         private final MessageConverter msgConverter;
         private final SimpleMessageListenerContainer listenerContainer;
+        private final ConcurrentMap<Channel, ConsumeBatch> consumeBatches = new ConcurrentHashMap<>();
+        private final ConcurrentMap<Channel, SpringAMQPAckCoalescer> ackCoalescers = new ConcurrentHashMap<>();
+        private final Semaphore inFlightPermits;
+        private final int maxInFlight;
+        private final SpringAMQPConsumerScaler scaler;
+        private volatile ExecutorService[] lanes;
+        private volatile boolean accepting = true;
+        private ScheduledExecutorService timer;
         private static final long DEFAULT_TIMEOUT_MILLIS = 1000;
+        private static final long DRAIN_TIMEOUT_MILLIS = 30000;
 
         public RabbitMQMessageListener(final SpringAMQPEndpoint endpoint) {
             this.listenerContainer = new SimpleMessageListenerContainer();
@@ -130,9 +163,81 @@ public class SpringAMQPConsumer extends DefaultConsumer implements ConnectionLis
 
             this.listenerContainer.setQueueNames(endpoint.getQueueName());
             this.listenerContainer.setConcurrentConsumers(endpoint.getConcurrentConsumers());
-            this.listenerContainer.setPrefetchCount(endpoint.getPrefetchCount());
             this.listenerContainer.setAcknowledgeMode(endpoint.getAcknowledgeMode());
 
+            int prefetchCount = endpoint.getPrefetchCount();
+
+            if (endpoint.isConsumeBatching()) {
+                //The container would ack each message as soon as we buffered it
+                if (endpoint.getAcknowledgeMode() == AcknowledgeMode.AUTO)
+                    throw new IllegalArgumentException("Batch consumption requires the MANUAL or NONE acknowledgement mode");
+                //The broker stops delivering once prefetchCount messages are unacknowledged, so a batch could never fill
+                if (prefetchCount < endpoint.getConsumeBatchSize()) {
+                    LOG.info("Raising prefetch count to the consume batch size of {}", endpoint.getConsumeBatchSize());
+                    prefetchCount = endpoint.getConsumeBatchSize();
+                }
+            }
+            else if (endpoint.isAckCoalescing()) {
+                //Deliveries would stop while we sit on the acks, leaving only the timer to flush them
+                if (prefetchCount < endpoint.getAckBatchSize()) {
+                    LOG.info("Raising prefetch count to the ack batch size of {}", endpoint.getAckBatchSize());
+                    prefetchCount = endpoint.getAckBatchSize();
+                }
+            }
+            else if (endpoint.getAckBatchSize() > 1) {
+                LOG.warn("Ignoring ackBatchSize on {}, acknowledgements are only coalesced in the MANUAL acknowledgement mode", endpoint.getEndpointUri());
+            }
+
+            if (endpoint.isPartitioned()) {
+                if (endpoint.isConsumeBatching())
+                    throw new IllegalArgumentException("Partitioned consumption can't be combined with batch consumption");
+                //Deliveries for one key would be spread over several channels and lose their order
+                if (endpoint.getConcurrentConsumers() > 1 || endpoint.isAutoscaling())
+                    throw new IllegalArgumentException("Partitioned consumption preserves order only with a single consumer");
+                //A lane can only work while the broker lets more deliveries through than one per lane
+                if (prefetchCount < endpoint.getPartitionLanes()) {
+                    LOG.info("Raising prefetch count to the number of partition lanes, {}", endpoint.getPartitionLanes());
+                    prefetchCount = endpoint.getPartitionLanes();
+                }
+            }
+            this.listenerContainer.setPrefetchCount(prefetchCount);
+
+            boolean async = endpoint.isAsyncConsumer() && !endpoint.isConsumeBatching() && !endpoint.isPartitioned();
+            if (async || endpoint.isPartitioned()) {
+                //The container acks as soon as onMessage returns, long before an asynchronous route or lane is done
+                if (endpoint.getAcknowledgeMode() == AcknowledgeMode.AUTO)
+                    throw new IllegalArgumentException("Asynchronous and partitioned consumption require the MANUAL or NONE acknowledgement mode");
+                //Without acks (NONE) the broker doesn't enforce the prefetch window, so enforce it here
+                int consumerLimit = endpoint.isAutoscaling() ? endpoint.getMaxConsumers() : endpoint.getConcurrentConsumers();
+                this.maxInFlight = Math.max(1, prefetchCount) * consumerLimit;
+                this.inFlightPermits = new Semaphore(this.maxInFlight);
+            }
+            else {
+                this.maxInFlight = 0;
+                this.inFlightPermits = null;
+            }
+
+            if (endpoint.isAutoscaling()) {
+                this.scaler = new SpringAMQPConsumerScaler(new SpringAMQPConsumerScaler.Target() {
+                    @Override
+                    public Integer getQueueDepth() {
+                        Properties properties = endpoint.getAmqpAdministration().getQueueProperties(endpoint.getQueueName());
+                        Object messageCount = properties == null ? null : properties.get(RabbitAdmin.QUEUE_MESSAGE_COUNT);
+                        return messageCount instanceof Number ? ((Number) messageCount).intValue() : null;
+                    }
+
+                    @Override
+                    public void setConsumers(final int consumers) {
+                        listenerContainer.setConcurrentConsumers(consumers);
+                    }
+                }, endpoint.getMinConsumers(), endpoint.getMaxConsumers(), endpoint.getConcurrentConsumers(),
+                        async ? Math.max(1, prefetchCount) : 1, endpoint.getScaleIntervalMs());
+                this.listenerContainer.setConcurrentConsumers(this.scaler.getConsumers());
+            }
+            else {
+                this.scaler = null;
+            }
+
             //Set error handling (send it to Camel)
             this.listenerContainer.setErrorHandler(getErrorHandler());
             this.listenerContainer.setAdviceChain(getAdviceChain());
@@ -147,6 +252,18 @@ public class SpringAMQPConsumer extends DefaultConsumer implements ConnectionLis
         }
 
         public void start() {
+            if (endpoint.isPartitioned() && this.lanes == null) {
+                this.lanes = new ExecutorService[endpoint.getPartitionLanes()];
+                for (int i = 0; i < this.lanes.length; ++i)
+                    this.lanes[i] = endpoint.getCamelContext().getExecutorServiceManager().newSingleThreadExecutor(SpringAMQPConsumer.this, "amqp-consumer-lane-" + i);
+            }
+            if ((endpoint.isConsumeBatching() || endpoint.isAckCoalescing() || endpoint.isPartitioned() || this.scaler != null) && this.timer == null) {
+                this.timer = endpoint.getCamelContext().getExecutorServiceManager().newScheduledThreadPool(SpringAMQPConsumer.this,
+                        "amqp-consumer-timer", endpoint.getConcurrentConsumers());
+                if (this.scaler != null)
+                    this.timer.scheduleWithFixedDelay(this.scaler, endpoint.getScaleIntervalMs(), endpoint.getScaleIntervalMs(), TimeUnit.MILLISECONDS);
+            }
+            this.accepting = true;
             this.listenerContainer.setMessageListener(this);
             this.listenerContainer.start();
             LOG.info("Started AMQP Async Listeners for {}", endpoint.getEndpointUri());
@@ -159,7 +276,44 @@ public class SpringAMQPConsumer extends DefaultConsumer implements ConnectionLis
         }
 
         public void shutdown() {
+            //Let asynchronous exchanges finish while their channels can still carry the ack and reply
+            boolean drained = false;
+            this.accepting = false;
+            if (this.inFlightPermits != null) {
+                try {
+                    drained = this.inFlightPermits.tryAcquire(this.maxInFlight, DRAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                    if (!drained)
+                        LOG.warn("Stopping {} with {} exchanges still in flight", endpoint.getEndpointUri(), getInFlightCount());
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            //Acknowledgements still held back when the channels close just mean redeliveries
+            for (SpringAMQPAckCoalescer ackCoalescer : this.ackCoalescers.values())
+                ackCoalescer.flush();
             this.listenerContainer.shutdown();
+
+            if (this.lanes != null) {
+                for (ExecutorService lane : this.lanes)
+                    endpoint.getCamelContext().getExecutorServiceManager().shutdown(lane);
+                this.lanes = null;
+            }
+
+            //Anything still buffered was never acknowledged and will be redelivered
+            if (this.timer != null) {
+                endpoint.getCamelContext().getExecutorServiceManager().shutdown(this.timer);
+                this.timer = null;
+            }
+            this.consumeBatches.clear();
+            this.ackCoalescers.clear();
+            if (drained)
+                this.inFlightPermits.release(this.maxInFlight);
+        }
+
+        public int getInFlightCount() {
+            return this.inFlightPermits == null ? 0 : this.maxInFlight - this.inFlightPermits.availablePermits();
         }
 
         public final ErrorHandler getErrorHandler() {
@@ -199,56 +353,398 @@ public class SpringAMQPConsumer extends DefaultConsumer implements ConnectionLis
             if (this.msgConverter == null)
                 throw new IllegalStateException("No message converter present - cannot processs messages!");
 
+            final long receivedNanos = System.nanoTime();
             LOG.debug("Received message for routing key {}", amqpMessage.getMessageProperties().getReceivedRoutingKey());
+            if (endpoint.isConsumeBatching()) {
+                collect(amqpMessage, channel);
+                return;
+            }
+
             ExchangePattern exchangePattern = SpringAMQPMessage.getExchangePattern(amqpMessage);
             Exchange exchange = new DefaultExchange(endpoint, exchangePattern);
-            SpringAMQPMessage camelMessage = SpringAMQPMessage.fromAMQPMessage(msgConverter, amqpMessage);
+            SpringAMQPMessage camelMessage = SpringAMQPMessage.fromAMQPMessage(msgConverter, amqpMessage, endpoint.isLazyBody());
             exchange.setIn(camelMessage);
 
+            if (endpoint.isPartitioned()) {
+                processInLane(amqpMessage, channel, exchange, receivedNanos);
+                return;
+            }
+            if (this.inFlightPermits != null) {
+                processAsync(amqpMessage, channel, exchange, receivedNanos);
+                return;
+            }
+
+            SpringAMQPAckCoalescer ackCoalescer = delivered(amqpMessage, channel);
+            boolean replied = process(amqpMessage, channel, exchange, ackCoalescer, receivedNanos);
+            //The container acknowledges AUTO deliveries unless the listener throws. Requeue once
+            //for another try at the reply, after that let the broker dead-letter or drop it
+            if (!replied && ackCoalescer == null && endpoint.getAcknowledgeMode() == AcknowledgeMode.AUTO) {
+                if (amqpMessage.getMessageProperties().isRedelivered())
+                    throw new AmqpRejectAndDontRequeueException("Reply not sent", exchange.getException());
+                throw new AmqpException("Reply not sent", exchange.getException());
+            }
+        }
+
+        /**
+         * @return false if a requested reply could not be sent
+         */
+        private boolean process(final Message amqpMessage, final Channel channel, final Exchange exchange, final SpringAMQPAckCoalescer ackCoalescer, final long receivedNanos) {
+            boolean failed = false;
             try {
                 getProcessor().process(exchange);
+            }
+            catch (Throwable t) {
+                exchange.setException(t);
+                failed = true;
+            }
 
-                if (endpoint.getAcknowledgeMode() == AcknowledgeMode.MANUAL) {
-                    long deliveryTag = amqpMessage.getMessageProperties().getDeliveryTag();
+            //Replying first means a reply that can't be sent leaves the delivery unacknowledged
+            boolean replied = reply(amqpMessage, exchange);
+            acknowledge(amqpMessage, channel, exchange, ackCoalescer, failed || !replied);
+            recordCompletion(receivedNanos);
+            return replied;
+        }
+
+        /**
+         * Route the delivery without waiting for it, then acknowledge and reply from the
+         * completion callback. The listener thread only blocks once the in-flight limit is reached.
+         */
+        private void processAsync(final Message amqpMessage, final Channel channel, final Exchange exchange, final long receivedNanos) {
+            if (!acquireInFlightPermit(amqpMessage))
+                return;
+            final SpringAMQPAckCoalescer ackCoalescer = delivered(amqpMessage, channel);
+
+            AsyncCallback callback = new AsyncCallback() {
+                @Override
+                public void done(final boolean doneSync) {
+                    try {
+                        boolean replied = reply(amqpMessage, exchange);
+                        acknowledge(amqpMessage, channel, exchange, ackCoalescer, !replied);
+                        recordCompletion(receivedNanos);
+                    }
+                    finally {
+                        inFlightPermits.release();
+                    }
+                }
+            };
+
+            try {
+                getAsyncProcessor().process(exchange, callback);
+            }
+            catch (Throwable t) {
+                exchange.setException(t);
+                try {
+                    acknowledge(amqpMessage, channel, exchange, ackCoalescer, true);
+                }
+                finally {
+                    this.inFlightPermits.release();
+                }
+            }
+        }
+
+        /**
+         * Route the delivery on the lane its partition key hashes to. Each lane handles its
+         * deliveries one at a time and in order, while different lanes run in parallel.
+         */
+        private void processInLane(final Message amqpMessage, final Channel channel, final Exchange exchange, final long receivedNanos) {
+            if (!acquireInFlightPermit(amqpMessage))
+                return;
+            final SpringAMQPAckCoalescer ackCoalescer = delivered(amqpMessage, channel);
+
+            Object partitionKey = endpoint.getPartitionHeader() == null ? null : exchange.getIn().getHeader(endpoint.getPartitionHeader());
+            if (partitionKey == null)
+                partitionKey = amqpMessage.getMessageProperties().getReceivedRoutingKey();
+            int hash = partitionKey == null ? 0 : partitionKey.hashCode();
+            //Spread the hash so keys differing only in their high bits don't share a lane
+            hash ^= (hash >>> 16);
+
+            try {
+                ExecutorService[] currentLanes = this.lanes;
+                if (currentLanes == null)
+                    throw new RejectedExecutionException("Partition lanes are stopped");
+                currentLanes[(hash & Integer.MAX_VALUE) % currentLanes.length].execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            process(amqpMessage, channel, exchange, ackCoalescer, receivedNanos);
+                        }
+                        finally {
+                            inFlightPermits.release();
+                        }
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                //Left unacknowledged, the broker redelivers it once the channel closes
+                LOG.debug("Consumer is stopping, not routing message [delivery_tag={}]", amqpMessage.getMessageProperties().getDeliveryTag());
+                this.inFlightPermits.release();
+            }
+        }
+
+        /**
+         * Waits while the in-flight limit is reached.
+         * @return false if the consumer is stopping and the delivery should be left alone
+         */
+        private boolean acquireInFlightPermit(final Message amqpMessage) {
+            try {
+                this.inFlightPermits.acquire();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AmqpException("Interrupted waiting for an in-flight slot", e);
+            }
+            if (!this.accepting) {
+                //Left unacknowledged, the broker redelivers it once the channel closes
+                LOG.debug("Consumer is stopping, not routing message [delivery_tag={}]", amqpMessage.getMessageProperties().getDeliveryTag());
+                this.inFlightPermits.release();
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Register a delivery with its channel's ack coalescer, if acknowledgements go through one.
+         */
+        private SpringAMQPAckCoalescer delivered(final Message amqpMessage, final Channel channel) {
+            //Lanes finish out of order, so their acks must only ever cover contiguous delivery tags
+            boolean coalesce = endpoint.isAckCoalescing() || (endpoint.isPartitioned() && endpoint.getAcknowledgeMode() == AcknowledgeMode.MANUAL);
+            if (!coalesce)
+                return null;
+
+            SpringAMQPAckCoalescer ackCoalescer = getAckCoalescer(channel);
+            ackCoalescer.delivered(amqpMessage.getMessageProperties().getDeliveryTag());
+            return ackCoalescer;
+        }
+
+        private void recordCompletion(final long startNanos) {
+            if (this.scaler != null)
+                this.scaler.recordCompletion(System.nanoTime() - startNanos);
+        }
+
+        private void acknowledge(final Message amqpMessage, final Channel channel, final Exchange exchange, final SpringAMQPAckCoalescer ackCoalescer, final boolean failed) {
+            long deliveryTag = amqpMessage.getMessageProperties().getDeliveryTag();
+            if (ackCoalescer != null) {
+                //Left unacknowledged it would hold back every later acknowledgement on the channel
+                if (failed)
+                    ackCoalescer.reject(deliveryTag, amqpMessage.getMessageProperties().isRedelivered());
+                else
+                    ackCoalescer.acknowledge(deliveryTag);
+            }
+            else if (!failed && endpoint.getAcknowledgeMode() == AcknowledgeMode.MANUAL) {
+                try {
                     LOG.trace("Acknowledging receipt [delivery_tag={}]", deliveryTag);
                     channel.basicAck(deliveryTag, false);
                 }
+                catch (Throwable t) {
+                    exchange.setException(t);
+                }
+            }
+        }
+
+        /**
+         * Send a reply if one was requested
+         * @return false if the reply was refused because the broker has blocked the connection
+         */
+        private boolean reply(final Message amqpMessage, final Exchange exchange) {
+            Address replyToAddress = amqpMessage.getMessageProperties().getReplyToAddress();
+            if (replyToAddress == null || !endpoint.isAutoReply())
+                return true;
+
+            org.apache.camel.Message outMessage = exchange.getOut();
+            SpringAMQPMessage replyMessage = new SpringAMQPMessage(outMessage);
+
+            // Camel exchange will contain a non-null exception if an unhandled exception has occurred,
+            // such as when using the DefaultErrorHandler with default configuration, or when
+            // using the DeadLetterChannel error handler with an OnException handled=false override.
+            // Exchange will not contain an exception (via getException()) if the exception has been handled,
+            // such as when using the DeadLetterChannel error handler with default configuration, but
+            // the Exchange property EXCEPTION_CAUGHT will contain the handled exception.
+            if (exchange.getException() != null) {
+                replyMessage.setHeader(SpringAMQPMessage.IS_EXCEPTION_CAUGHT, true);
+                replyMessage.setBody(exchange.getException());
+            }
+            else if (exchange.getProperty(Exchange.EXCEPTION_CAUGHT) != null) {
+                replyMessage.setHeader(SpringAMQPMessage.IS_EXCEPTION_CAUGHT, true);
+                replyMessage.setBody(exchange.getProperty(Exchange.EXCEPTION_CAUGHT));
+            }
+
+            exchange.setOut(replyMessage); //Swap out the outbound message
+
+            Message amqpReply = replyMessage.toAMQPMessage(msgConverter, endpoint.getHeaderFilterStrategy());
+            amqpReply = SpringAMQPCompression.compress(amqpReply, endpoint.getCompression(), endpoint.getCompressionThreshold());
+            //Requesters sharing one reply queue can only match the reply through its correlation id
+            if (amqpReply.getMessageProperties().getCorrelationId() == null)
+                amqpReply.getMessageProperties().setCorrelationId(amqpMessage.getMessageProperties().getCorrelationId());
+
+            //Hanging here would stall this listener thread for as long as the broker alarm lasts
+            SpringAMQPConnectionMonitor monitor = connectionMonitor;
+            if (monitor != null && monitor.isBlocked() && endpoint.getBlockedPolicy() == SpringAMQPEndpoint.BlockedPolicy.Fail) {
+                LOG.warn("Connection blocked by the broker ({}), not replying to {}", monitor.getBlockedReason(), replyToAddress);
+                exchange.setException(new RejectedExecutionException("AMQP connection is blocked by the broker, reply to "
+                        + replyToAddress + " not sent: " + monitor.getBlockedReason()));
+                return false;
+            }
+
+            try {
+                replyTemplate.send(replyToAddress.getExchangeName(), replyToAddress.getRoutingKey(), amqpReply);
+            }
+            catch (AmqpConnectException e) {
+                LOG.error("AMQP Connection error, marking this connection as failed");
+                onClose(null);
+            }
+            return true;
+        }
+
+        private SpringAMQPAckCoalescer getAckCoalescer(final Channel channel) {
+            SpringAMQPAckCoalescer ackCoalescer = this.ackCoalescers.get(channel);
+            if (ackCoalescer == null) {
+                //A new channel usually replaces one the container lost; drop those
+                for (SpringAMQPAckCoalescer existing : this.ackCoalescers.values()) {
+                    if (!existing.getChannel().isOpen())
+                        this.ackCoalescers.remove(existing.getChannel(), existing);
+                }
+
+                SpringAMQPAckCoalescer newCoalescer = new SpringAMQPAckCoalescer(channel, this.timer, endpoint.getAckBatchSize(), endpoint.getAckBatchTimeoutMs());
+                ackCoalescer = this.ackCoalescers.putIfAbsent(channel, newCoalescer);
+                if (ackCoalescer == null)
+                    ackCoalescer = newCoalescer;
+            }
+            return ackCoalescer;
+        }
+
+        private void collect(final Message amqpMessage, final Channel channel) {
+            ConsumeBatch batch = this.consumeBatches.get(channel);
+            if (batch == null) {
+                //A new channel usually replaces one the container lost; the broker redelivers what those held
+                for (ConsumeBatch existing : this.consumeBatches.values()) {
+                    if (!existing.channel.isOpen() && this.consumeBatches.remove(existing.channel, existing))
+                        existing.discard();
+                }
+
+                ConsumeBatch newBatch = new ConsumeBatch(channel);
+                batch = this.consumeBatches.putIfAbsent(channel, newBatch);
+                if (batch == null)
+                    batch = newBatch;
+            }
+
+            if (batch.add(amqpMessage))
+                batch.flush();
+        }
+
+        /**
+         * Send a batch of deliveries through the route as one exchange whose body is the list
+         * of converted payloads, then acknowledge all of them at once.
+         */
+        private void processBatch(final List<Message> amqpMessages, final Channel channel) {
+            List<Object> bodies = new ArrayList<>(amqpMessages.size());
+            List<Map<String, Object>> headers = new ArrayList<>(amqpMessages.size());
+            for (Message amqpMessage : amqpMessages) {
+                SpringAMQPMessage camelMessage = SpringAMQPMessage.fromAMQPMessage(msgConverter, amqpMessage);
+                bodies.add(camelMessage.getBody());
+                headers.add(camelMessage.getHeaders());
+            }
+
+            SpringAMQPMessage batchMessage = new SpringAMQPMessage();
+            batchMessage.setBody(bodies);
+            batchMessage.setHeader(SpringAMQPComponent.BATCH_HEADERS, headers);
+            Exchange exchange = new DefaultExchange(endpoint, ExchangePattern.InOnly);
+            exchange.setIn(batchMessage);
+            LOG.debug("Processing batch of {} messages", amqpMessages.size());
+
+            long startNanos = System.nanoTime();
+            try {
+                getProcessor().process(exchange);
             }
             catch (Throwable t) {
                 exchange.setException(t);
             }
+            recordCompletion(startNanos);
 
-            //Send a reply if one was requested
-            Address replyToAddress = amqpMessage.getMessageProperties().getReplyToAddress();
-            if (replyToAddress != null && endpoint.isAutoReply()) {
-                org.apache.camel.Message outMessage = exchange.getOut();
-                SpringAMQPMessage replyMessage = new SpringAMQPMessage(outMessage);
-
-                // Camel exchange will contain a non-null exception if an unhandled exception has occurred,
-                // such as when using the DefaultErrorHandler with default configuration, or when
-                // using the DeadLetterChannel error handler with an OnException handled=false override.
-                // Exchange will not contain an exception (via getException()) if the exception has been handled,
-                // such as when using the DeadLetterChannel error handler with default configuration, but
-                // the Exchange property EXCEPTION_CAUGHT will contain the handled exception.
-                if (exchange.getException() != null) {
-                    replyMessage.setHeader(SpringAMQPMessage.IS_EXCEPTION_CAUGHT, true);
-                    replyMessage.setBody(exchange.getException());
+            if (endpoint.getAcknowledgeMode() != AcknowledgeMode.MANUAL)
+                return;
+
+            long lastTag = amqpMessages.get(amqpMessages.size() - 1).getMessageProperties().getDeliveryTag();
+            try {
+                if (exchange.getException() == null) {
+                    LOG.trace("Acknowledging receipt of batch [delivery_tag={}]", lastTag);
+                    channel.basicAck(lastTag, true);
                 }
-                else if (exchange.getProperty(Exchange.EXCEPTION_CAUGHT) != null) {
-                    replyMessage.setHeader(SpringAMQPMessage.IS_EXCEPTION_CAUGHT, true);
-                    replyMessage.setBody(exchange.getProperty(Exchange.EXCEPTION_CAUGHT));
+                else if (!isRedelivered(amqpMessages)) {
+                    //Held back unacknowledged, a failed batch would stall the channel once the prefetch window fills
+                    LOG.error("Requeueing batch of {} messages after a failure", amqpMessages.size(), exchange.getException());
+                    channel.basicNack(lastTag, true, true);
                 }
+                else {
+                    //Requeued already and failed again, so requeueing once more could loop forever
+                    LOG.error("Rejecting redelivered batch of {} messages after a failure", amqpMessages.size(), exchange.getException());
+                    channel.basicNack(lastTag, true, false);
+                }
+            }
+            catch (Exception e) {
+                LOG.error("Could not acknowledge batch [delivery_tag={}]", lastTag, e);
+            }
+        }
 
-                exchange.setOut(replyMessage); //Swap out the outbound message
+        private boolean isRedelivered(final List<Message> amqpMessages) {
+            for (Message amqpMessage : amqpMessages) {
+                if (amqpMessage.getMessageProperties().isRedelivered())
+                    return true;
+            }
+            return false;
+        }
 
-                try {
-                    endpoint.getAmqpTemplate().send(replyToAddress.getExchangeName(), replyToAddress.getRoutingKey(), replyMessage.toAMQPMessage(msgConverter));
+        /**
+         * Deliveries buffered for one channel. Batches on a channel are processed one at a time
+         * and in order, since acknowledging with multiple=true covers every earlier delivery tag.
+         */
+        private class ConsumeBatch implements Runnable {
+            private final Channel channel;
+            private final Object processLock = new Object();
+            private List<Message> messages = new ArrayList<>();
+            private ScheduledFuture<?> timeout;
+
+            ConsumeBatch(final Channel channel) {
+                this.channel = channel;
+            }
+
+            /**
+             * @return true if the batch is now full
+             */
+            synchronized boolean add(final Message amqpMessage) {
+                this.messages.add(amqpMessage);
+                if (this.messages.size() == 1 && timer != null)
+                    this.timeout = timer.schedule(this, endpoint.getConsumeBatchTimeoutMs(), TimeUnit.MILLISECONDS);
+                return this.messages.size() >= endpoint.getConsumeBatchSize();
+            }
+
+            private synchronized List<Message> drain() {
+                if (this.timeout != null) {
+                    this.timeout.cancel(false);
+                    this.timeout = null;
                 }
-                catch (AmqpConnectException e) {
-                    LOG.error("AMQP Connection error, marking this connection as failed");
-                    onClose(null);
+                List<Message> drained = this.messages;
+                this.messages = new ArrayList<>();
+                return drained;
+            }
+
+            void discard() {
+                List<Message> discarded = drain();
+                if (!discarded.isEmpty())
+                    LOG.debug("Dropping {} buffered messages from closed channel {}", discarded.size(), this.channel);
+            }
+
+            void flush() {
+                synchronized (this.processLock) {
+                    List<Message> drained = drain();
+                    if (!drained.isEmpty())
+                        processBatch(drained, this.channel);
                 }
             }
+
+            @Override
+            public void run() {
+                flush();
+            }
         }
     }
 
@@ -0,0 +1,139 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package amqp.spring.camel.component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Grows and shrinks the number of concurrent consumers between minConsumers and
+ * maxConsumers. Every interval it samples the queue depth, how busy the consumers
+ * were and how long a delivery took to process.
+ *
+ * Scaling up happens as soon as a backlog builds while consumers are busy, by as many
+ * consumers as it would take to clear the backlog within one interval. Scaling down
+ * happens one consumer at a time, and only after several idle intervals in a row, so
+ * a short lull in a bursty workload doesn't throw away consumers that are about to
+ * be needed again.
+ */
+class SpringAMQPConsumerScaler implements Runnable {
+    private static transient final Logger LOG = LoggerFactory.getLogger(SpringAMQPConsumerScaler.class);
+
+    static final double SCALE_UP_UTILIZATION = 0.75;
+    static final double SCALE_DOWN_UTILIZATION = 0.3;
+    static final int SCALE_DOWN_SAMPLES = 3;
+
+    private final Target target;
+    private final int minConsumers;
+    private final int maxConsumers;
+    private final int slotsPerConsumer;
+    private final long intervalMillis;
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private long lastSample = System.nanoTime();
+    private int consumers;
+    private int idleSamples = 0;
+
+    /**
+     * What gets scaled.
+     */
+    interface Target {
+        /**
+         * @return the number of ready messages, or null if that can't be found out right now
+         */
+        Integer getQueueDepth();
+
+        void setConsumers(int consumers);
+    }
+
+    /**
+     * @param slotsPerConsumer how many deliveries one consumer works on at once
+     */
+    SpringAMQPConsumerScaler(Target target, int minConsumers, int maxConsumers, int initialConsumers, int slotsPerConsumer, long intervalMillis) {
+        this.target = target;
+        this.minConsumers = Math.max(1, minConsumers);
+        this.maxConsumers = Math.max(this.minConsumers, maxConsumers);
+        this.consumers = clamp(initialConsumers);
+        this.slotsPerConsumer = Math.max(1, slotsPerConsumer);
+        this.intervalMillis = intervalMillis;
+    }
+
+    public synchronized int getConsumers() {
+        return this.consumers;
+    }
+
+    /**
+     * Record one finished delivery (or consumed batch) and how long it took from receipt.
+     */
+    public void recordCompletion(long latencyNanos) {
+        this.completed.incrementAndGet();
+        this.busyNanos.addAndGet(latencyNanos);
+    }
+
+    @Override
+    public void run() {
+        try {
+            sample();
+        } catch(RuntimeException e) {
+            LOG.warn("Could not rescale consumers", e);
+        }
+    }
+
+    synchronized void sample() {
+        long now = System.nanoTime();
+        long elapsedNanos = Math.max(1, now - this.lastSample);
+        this.lastSample = now;
+        long completedCount = this.completed.getAndSet(0);
+        long busy = this.busyNanos.getAndSet(0);
+
+        Integer depth = this.target.getQueueDepth();
+        if(depth == null)
+            return;
+
+        //Deliveries that run across a sample are counted in full when they finish, so cap this
+        double utilization = Math.min(1.0, (double) busy / ((double) elapsedNanos * this.consumers * this.slotsPerConsumer));
+        double latencyMillis = completedCount == 0 ? 0 : (double) TimeUnit.NANOSECONDS.toMillis(busy) / completedCount;
+
+        int desired = decide(depth, utilization, latencyMillis);
+        if(desired != this.consumers) {
+            LOG.info("Scaling consumers from {} to {} (queue depth {}, utilization {}%, latency {} ms)",
+                    new Object[] {this.consumers, desired, depth, Math.round(utilization * 100), Math.round(latencyMillis)});
+            this.target.setConsumers(desired);
+            this.consumers = desired;
+        }
+    }
+
+    /**
+     * @return how many consumers there should be given the latest sample
+     */
+    int decide(int depth, double utilization, double latencyMillis) {
+        if(depth > 0 && utilization >= SCALE_UP_UTILIZATION) {
+            this.idleSamples = 0;
+            if(this.consumers >= this.maxConsumers)
+                return this.consumers;
+
+            //Keep up with what is arriving now, plus enough to drain the backlog within an interval
+            int keepingUp = (int) Math.ceil(this.consumers * utilization);
+            int draining = latencyMillis <= 0 ? 1 : (int) Math.ceil(depth * latencyMillis / (this.slotsPerConsumer * (double) this.intervalMillis));
+            return clamp(Math.max(this.consumers + 1, keepingUp + draining));
+        }
+
+        if(depth == 0 && utilization < SCALE_DOWN_UTILIZATION) {
+            if(++this.idleSamples < SCALE_DOWN_SAMPLES || this.consumers <= this.minConsumers)
+                return this.consumers;
+            this.idleSamples = 0;
+            return this.consumers - 1;
+        }
+
+        this.idleSamples = 0;
+        return this.consumers;
+    }
+
+    private int clamp(int count) {
+        return Math.max(this.minConsumers, Math.min(this.maxConsumers, count));
+    }
+}
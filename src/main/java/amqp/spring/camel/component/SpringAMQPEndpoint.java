@@ -9,6 +9,8 @@ import org.apache.camel.Consumer;
 import org.apache.camel.Processor;
 import org.apache.camel.Producer;
 import org.apache.camel.impl.DefaultEndpoint;
+import org.apache.camel.spi.HeaderFilterStrategy;
+import org.apache.camel.spi.HeaderFilterStrategyAware;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.core.AcknowledgeMode;
@@ -32,7 +34,7 @@ import org.springframework.util.StringUtils;
  * <code>spring-amqp:exchange?params=values</code><br>
  * And the ROUTING_KEY header could be set to the appropriate routing key.
  */
-public class SpringAMQPEndpoint extends DefaultEndpoint {
+public class SpringAMQPEndpoint extends DefaultEndpoint implements HeaderFilterStrategyAware {
 
     private static transient final Logger LOG = LoggerFactory.getLogger(SpringAMQPEndpoint.class);
 
@@ -59,6 +61,35 @@ public class SpringAMQPEndpoint extends DefaultEndpoint {
     private Integer timeToLive = null;
     private AcknowledgeMode acknowledgeMode = AcknowledgeMode.NONE;
     private boolean createResources = true;
+    private boolean publisherConfirms = false;
+    private long confirmTimeout = 30000;
+    private int batchSize = 1;
+    private long batchBytes = 0;
+    private long lingerMs = 10;
+    private String replyQueue = null;
+    private long replyTimeout = 5000;
+    private int maxInFlight = 0;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.Block;
+    private BlockedPolicy blockedPolicy = BlockedPolicy.Wait;
+    private boolean dedicatedPublisherConnection = false;
+    private int consumeBatchSize = 1;
+    private long consumeBatchTimeoutMs = 500;
+    private int ackBatchSize = 1;
+    private long ackBatchTimeoutMs = 100;
+    private boolean asyncConsumer = false;
+    private int minConsumers = 1;
+    private int maxConsumers = 0;
+    private long scaleIntervalMs = 5000;
+    private String partitionHeader = null;
+    private int partitionLanes = 0;
+    private boolean lazyBody = false;
+    private HeaderFilterStrategy headerFilterStrategy = null;
+    private String headerIncludes = null;
+    private String headerExcludes = null;
+    private volatile HeaderFilterStrategy compiledHeaderFilter = null;
+    private boolean dynamicRouting = true;
+    private Compression compression = Compression.None;
+    private int compressionThreshold = 1024;
 
     //The second and third parameters to the URI can be interchangable based on the context.
     //Place them here until we determine if we're a consumer or producer.
@@ -138,6 +169,16 @@ public class SpringAMQPEndpoint extends DefaultEndpoint {
         return amqpTemplate;
     }
 
+    /**
+     * The template to send through: the endpoint's own, or one bound to a dedicated
+     * publisher connection if dedicatedPublisherConnection is set.
+     */
+    public AmqpTemplate getPublisherTemplate() {
+        if (!this.dedicatedPublisherConnection || !(getComponent() instanceof SpringAMQPComponent))
+            return this.amqpTemplate;
+        return ((SpringAMQPComponent) getComponent()).getPublisherTemplate(this.amqpTemplate);
+    }
+
     public void setAmqpTemplate(final AmqpTemplate amqpTemplate) {
         this.amqpTemplate = amqpTemplate;
     }
@@ -274,6 +315,268 @@ public class SpringAMQPEndpoint extends DefaultEndpoint {
         this.createResources = createResources;
     }
 
+    public boolean isPublisherConfirms() {
+        return publisherConfirms;
+    }
+
+    public void setPublisherConfirms(final boolean publisherConfirms) {
+        this.publisherConfirms = publisherConfirms;
+    }
+
+    public long getConfirmTimeout() {
+        return confirmTimeout;
+    }
+
+    public void setConfirmTimeout(final long confirmTimeout) {
+        this.confirmTimeout = confirmTimeout;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getBatchBytes() {
+        return batchBytes;
+    }
+
+    public void setBatchBytes(final long batchBytes) {
+        this.batchBytes = batchBytes;
+    }
+
+    public long getLingerMs() {
+        return lingerMs;
+    }
+
+    public void setLingerMs(final long lingerMs) {
+        this.lingerMs = lingerMs;
+    }
+
+    public boolean isBatching() {
+        return this.batchSize > 1;
+    }
+
+    public String getReplyQueue() {
+        return replyQueue;
+    }
+
+    public void setReplyQueue(final String replyQueue) {
+        this.replyQueue = replyQueue;
+    }
+
+    public long getReplyTimeout() {
+        return replyTimeout;
+    }
+
+    public void setReplyTimeout(final long replyTimeout) {
+        this.replyTimeout = replyTimeout;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public void setMaxInFlight(final int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(final OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public int getConsumeBatchSize() {
+        return consumeBatchSize;
+    }
+
+    public void setConsumeBatchSize(final int consumeBatchSize) {
+        this.consumeBatchSize = consumeBatchSize;
+    }
+
+    public long getConsumeBatchTimeoutMs() {
+        return consumeBatchTimeoutMs;
+    }
+
+    public void setConsumeBatchTimeoutMs(final long consumeBatchTimeoutMs) {
+        this.consumeBatchTimeoutMs = consumeBatchTimeoutMs;
+    }
+
+    public boolean isConsumeBatching() {
+        return this.consumeBatchSize > 1;
+    }
+
+    public int getAckBatchSize() {
+        return ackBatchSize;
+    }
+
+    public void setAckBatchSize(final int ackBatchSize) {
+        this.ackBatchSize = ackBatchSize;
+    }
+
+    public long getAckBatchTimeoutMs() {
+        return ackBatchTimeoutMs;
+    }
+
+    public void setAckBatchTimeoutMs(final long ackBatchTimeoutMs) {
+        this.ackBatchTimeoutMs = ackBatchTimeoutMs;
+    }
+
+    public boolean isAckCoalescing() {
+        return this.ackBatchSize > 1 && this.acknowledgeMode == AcknowledgeMode.MANUAL;
+    }
+
+    public boolean isAsyncConsumer() {
+        return asyncConsumer;
+    }
+
+    public void setAsyncConsumer(final boolean asyncConsumer) {
+        this.asyncConsumer = asyncConsumer;
+    }
+
+    public int getMinConsumers() {
+        return minConsumers;
+    }
+
+    public void setMinConsumers(final int minConsumers) {
+        this.minConsumers = minConsumers;
+    }
+
+    public int getMaxConsumers() {
+        return maxConsumers;
+    }
+
+    public void setMaxConsumers(final int maxConsumers) {
+        this.maxConsumers = maxConsumers;
+    }
+
+    public long getScaleIntervalMs() {
+        return scaleIntervalMs;
+    }
+
+    public void setScaleIntervalMs(final long scaleIntervalMs) {
+        this.scaleIntervalMs = scaleIntervalMs;
+    }
+
+    public boolean isAutoscaling() {
+        return this.maxConsumers > 0 && this.maxConsumers > this.minConsumers;
+    }
+
+    public String getPartitionHeader() {
+        return partitionHeader;
+    }
+
+    public void setPartitionHeader(final String partitionHeader) {
+        this.partitionHeader = partitionHeader;
+    }
+
+    public int getPartitionLanes() {
+        return partitionLanes;
+    }
+
+    public void setPartitionLanes(final int partitionLanes) {
+        this.partitionLanes = partitionLanes;
+    }
+
+    public boolean isPartitioned() {
+        return this.partitionLanes > 1;
+    }
+
+    public boolean isLazyBody() {
+        return lazyBody;
+    }
+
+    public void setLazyBody(final boolean lazyBody) {
+        this.lazyBody = lazyBody;
+    }
+
+    /**
+     * The strategy set on this endpoint or, failing that, one compiled from
+     * headerIncludes and headerExcludes. Null if neither was set.
+     */
+    @Override
+    public HeaderFilterStrategy getHeaderFilterStrategy() {
+        if(this.headerFilterStrategy != null)
+            return this.headerFilterStrategy;
+        if(this.headerIncludes == null && this.headerExcludes == null)
+            return null;
+
+        HeaderFilterStrategy compiled = this.compiledHeaderFilter;
+        if(compiled == null) {
+            compiled = new SpringAMQPHeaderFilter(this.headerIncludes, this.headerExcludes);
+            this.compiledHeaderFilter = compiled;
+        }
+        return compiled;
+    }
+
+    @Override
+    public void setHeaderFilterStrategy(final HeaderFilterStrategy headerFilterStrategy) {
+        this.headerFilterStrategy = headerFilterStrategy;
+    }
+
+    public String getHeaderIncludes() {
+        return headerIncludes;
+    }
+
+    public void setHeaderIncludes(final String headerIncludes) {
+        this.headerIncludes = headerIncludes;
+        this.compiledHeaderFilter = null;
+    }
+
+    public String getHeaderExcludes() {
+        return headerExcludes;
+    }
+
+    public void setHeaderExcludes(final String headerExcludes) {
+        this.headerExcludes = headerExcludes;
+        this.compiledHeaderFilter = null;
+    }
+
+    public boolean isDynamicRouting() {
+        return dynamicRouting;
+    }
+
+    public void setDynamicRouting(final boolean dynamicRouting) {
+        this.dynamicRouting = dynamicRouting;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public void setCompression(final Compression compression) {
+        this.compression = compression;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    public void setCompressionThreshold(final int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public boolean isDedicatedPublisherConnection() {
+        return dedicatedPublisherConnection;
+    }
+
+    public void setDedicatedPublisherConnection(final boolean dedicatedPublisherConnection) {
+        this.dedicatedPublisherConnection = dedicatedPublisherConnection;
+    }
+
+    public BlockedPolicy getBlockedPolicy() {
+        return blockedPolicy;
+    }
+
+    public void setBlockedPolicy(final BlockedPolicy blockedPolicy) {
+        this.blockedPolicy = blockedPolicy;
+    }
+
     public String getDlxName() {
         return dlxName;
     }
@@ -318,6 +621,43 @@ public class SpringAMQPEndpoint extends DefaultEndpoint {
             builder.append("&x-dead-letter-exchange=").append(this.dlxName);
         builder.append("&autoReply=").append(this.autoReply);
         builder.append("&createResources=").append(this.createResources);
+        if (this.publisherConfirms)
+            builder.append("&publisherConfirms=true");
+        if (isBatching())
+            builder.append("&batchSize=").append(this.batchSize).append("&lingerMs=").append(this.lingerMs).append("&batchBytes=").append(this.batchBytes);
+        if (this.publisherConfirms || isBatching())
+            builder.append("&confirmTimeout=").append(this.confirmTimeout);
+        if (this.replyQueue != null)
+            builder.append("&replyQueue=").append(this.replyQueue).append("&replyTimeout=").append(this.replyTimeout);
+        if (this.maxInFlight > 0)
+            builder.append("&maxInFlight=").append(this.maxInFlight).append("&overflowPolicy=").append(this.overflowPolicy);
+        if (this.blockedPolicy != BlockedPolicy.Wait)
+            builder.append("&blockedPolicy=").append(this.blockedPolicy);
+        if (this.dedicatedPublisherConnection)
+            builder.append("&dedicatedPublisherConnection=true");
+        if (isConsumeBatching())
+            builder.append("&consumeBatchSize=").append(this.consumeBatchSize).append("&consumeBatchTimeoutMs=").append(this.consumeBatchTimeoutMs);
+        if (this.ackBatchSize > 1)
+            builder.append("&ackBatchSize=").append(this.ackBatchSize).append("&ackBatchTimeoutMs=").append(this.ackBatchTimeoutMs);
+        if (this.asyncConsumer)
+            builder.append("&asyncConsumer=true");
+        if (isAutoscaling())
+            builder.append("&minConsumers=").append(this.minConsumers).append("&maxConsumers=").append(this.maxConsumers).append("&scaleIntervalMs=").append(this.scaleIntervalMs);
+        if (isPartitioned()) {
+            builder.append("&partitionLanes=").append(this.partitionLanes);
+            if (this.partitionHeader != null)
+                builder.append("&partitionHeader=").append(this.partitionHeader);
+        }
+        if (this.lazyBody)
+            builder.append("&lazyBody=true");
+        if (this.headerIncludes != null)
+            builder.append("&headerIncludes=").append(this.headerIncludes);
+        if (this.headerExcludes != null)
+            builder.append("&headerExcludes=").append(this.headerExcludes);
+        if (! this.dynamicRouting)
+            builder.append("&dynamicRouting=false");
+        if (this.compression != Compression.None)
+            builder.append("&compression=").append(this.compression).append("&compressionThreshold=").append(this.compressionThreshold);
 
         return builder.toString();
     }
@@ -343,4 +683,56 @@ public class SpringAMQPEndpoint extends DefaultEndpoint {
             return new DirectExchange(this.exchangeName, this.durable, this.autodelete);
         }
     }
+
+    /**
+     * What a producer does with an exchange once maxInFlight exchanges are outstanding.
+     */
+    public enum OverflowPolicy {
+        /** Wait for an in-flight exchange to complete */
+        Block,
+        /** Fail the exchange with a RejectedExecutionException */
+        Reject,
+        /** Send on the calling thread and wait for completion there */
+        CallerRuns
+    }
+
+    /**
+     * What to do with outgoing messages while the broker has blocked the connection.
+     */
+    public enum BlockedPolicy {
+        /** Send anyway; the sending thread waits until the broker unblocks */
+        Wait,
+        /** Fail producer exchanges with a RejectedExecutionException, and consumer exchanges whose reply can't be sent */
+        Fail,
+        /** Hold producer exchanges and send them once the broker unblocks */
+        Park
+    }
+
+    /**
+     * How outgoing message bodies are compressed. Received messages are decompressed
+     * whatever this is set to.
+     */
+    public enum Compression {
+        /** Send bodies as they are */
+        None(null),
+        /** Best ratio, at the most CPU */
+        Gzip("gzip"),
+        /** zlib at its fastest setting */
+        Deflate("deflate"),
+        /** Far less CPU than gzip for a somewhat larger result */
+        Snappy("snappy");
+
+        private final String contentEncoding;
+
+        private Compression(String contentEncoding) {
+            this.contentEncoding = contentEncoding;
+        }
+
+        /**
+         * @return what a message compressed this way has for its contentEncoding
+         */
+        public String getContentEncoding() {
+            return contentEncoding;
+        }
+    }
 }
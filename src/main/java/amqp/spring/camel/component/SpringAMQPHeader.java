@@ -4,8 +4,11 @@
 
 package amqp.spring.camel.component;
 
+import org.apache.camel.Exchange;
+import org.apache.camel.spi.HeaderFilterStrategy;
 import org.springframework.amqp.core.Message;
 import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessageProperties;
 import java.util.Map;
 
 public class SpringAMQPHeader {
@@ -21,53 +24,87 @@ public class SpringAMQPHeader {
     public static final String DELIVERY_MODE = "deliveryMode";
     public static final String TYPE = "type";
     
+    // The contentEncoding a compressed message had before compression
+    public static final String ORIGINAL_CONTENT_ENCODING = "originalContentEncoding";
+    
     public static Message setBasicPropertiesFromHeaders(Message msg, Map<String, Object> headers) {
         for (Map.Entry<String, Object> headerEntry : headers.entrySet()) {
             String headerKey = headerEntry.getKey();
-            if (headerKey != null) {
-                Object headerValue = headerEntry.getValue();
-                String headerValueString = headerValue==null ? null : headerValue.toString();
-            
-                switch (headerKey) {
-                    case CONTENT_ENCODING:
-                        msg.getMessageProperties().setContentEncoding(headerValueString);
-                        break;
-                    case CONTENT_TYPE:
-                        msg.getMessageProperties().setContentType(headerValueString);
-                        break;
-                    case MESSAGE_ID:
-                        msg.getMessageProperties().setMessageId(headerValueString);
-                        break;
-                    case CORRELATION_ID:
-                        byte[] correlationId = headerValueString != null ? headerValueString.getBytes() : null;
-                        msg.getMessageProperties().setCorrelationId(correlationId);
-                        break;
-                    case APP_ID:
-                        msg.getMessageProperties().setAppId(headerValueString);
-                        break;
-                    case EXPIRATION:
-                        msg.getMessageProperties().setExpiration(headerValueString);
-                        break;
-                    case PRIORITY:
-                        Integer priority = headerValueString != null ? Integer.parseInt(headerValueString) : null;
-                        msg.getMessageProperties().setPriority(priority);
-                        break;
-                    case REPLY_TO:
-                        msg.getMessageProperties().setReplyTo(headerValueString);
-                        break;
-                    case DELIVERY_MODE:
-                        msg.getMessageProperties().setDeliveryMode(MessageDeliveryMode.fromInt(Integer.parseInt(headerValueString)));
-                        break;
-                    case TYPE:
-                        msg.getMessageProperties().setType(headerValueString);
-                        break;
-                }
-            }
+            if (headerKey != null)
+                setBasicProperty(msg.getMessageProperties(), headerKey, headerEntry.getValue());
+        }
+        
+        return msg;
+    }
+    
+    /**
+     * Does the work of setBasicPropertiesFromHeaders() and copyHeaders() in a single pass
+     * over the Camel headers.
+     */
+    public static Message setPropertiesFromHeaders(Message msg, Map<String, Object> headers, HeaderFilterStrategy filter, Exchange exchange) {
+        MessageProperties properties = msg.getMessageProperties();
+        Map<String, Object> amqpHeaders = properties.getHeaders();
+        for(Map.Entry<String, Object> headerEntry : headers.entrySet()) {
+            String headerKey = headerEntry.getKey();
+            if(headerKey == null || setBasicProperty(properties, headerKey, headerEntry.getValue()))
+                continue;
+            if(isCopied(headerKey, headerEntry.getValue(), amqpHeaders, filter, exchange))
+                amqpHeaders.put(headerKey, headerEntry.getValue());
         }
         
         return msg;
     }
     
+    /**
+     * @return true if the header was a reserved one, whether or not it set a property
+     */
+    private static boolean setBasicProperty(MessageProperties properties, String headerKey, Object headerValue) {
+        //Most headers aren't reserved, don't turn their values into strings for nothing
+        if(! isReserved(headerKey))
+            return false;
+        String headerValueString = headerValue==null ? null : headerValue.toString();
+        
+        switch (headerKey) {
+            case CONTENT_ENCODING:
+                properties.setContentEncoding(headerValueString);
+                return true;
+            case CONTENT_TYPE:
+                properties.setContentType(headerValueString);
+                return true;
+            case MESSAGE_ID:
+                properties.setMessageId(headerValueString);
+                return true;
+            case CORRELATION_ID:
+                byte[] correlationId = headerValueString != null ? headerValueString.getBytes() : null;
+                properties.setCorrelationId(correlationId);
+                return true;
+            case APP_ID:
+                properties.setAppId(headerValueString);
+                return true;
+            case EXPIRATION:
+                properties.setExpiration(headerValueString);
+                return true;
+            case PRIORITY:
+                Integer priority = headerValueString != null ? Integer.parseInt(headerValueString) : null;
+                properties.setPriority(priority);
+                return true;
+            case REPLY_TO:
+                properties.setReplyTo(headerValueString);
+                return true;
+            case DELIVERY_MODE:
+                properties.setDeliveryMode(MessageDeliveryMode.fromInt(Integer.parseInt(headerValueString)));
+                return true;
+            case TYPE:
+                properties.setType(headerValueString);
+                return true;
+            case SpringAMQPComponent.ROUTING_KEY_HEADER:
+            case SpringAMQPComponent.EXCHANGE_NAME_HEADER:
+                return true;
+            default:
+                return false;
+        }
+    }
+    
     public static SpringAMQPMessage setBasicPropertiesToHeaders(SpringAMQPMessage msg, Message amqpMessage) {
         msg.getHeaders().put(MESSAGE_ID, amqpMessage.getMessageProperties().getMessageId());
         byte[] correlationId = amqpMessage.getMessageProperties().getCorrelationId();
@@ -85,29 +122,59 @@ public class SpringAMQPHeader {
     }
     
     public static Message copyHeaders(Message msg, Map<String, Object> headers) {
+        return copyHeaders(msg, headers, null, null);
+    }
+    
+    /**
+     * Copy Camel headers into the AMQP headers table, leaving out the ones the filter
+     * (which may be null) rejects.
+     */
+    public static Message copyHeaders(Message msg, Map<String, Object> headers, HeaderFilterStrategy filter, Exchange exchange) {
+        Map<String, Object> amqpHeaders = msg.getMessageProperties().getHeaders();
         for(Map.Entry<String, Object> headerEntry : headers.entrySet()) {
-
+            String headerKey = headerEntry.getKey();
             // headers used for setting basic properties and routing key are skipped
-            if ( !CONTENT_ENCODING.equals(headerEntry.getKey()) &&
-                    !CONTENT_TYPE.equals(headerEntry.getKey()) &&
-                    !MESSAGE_ID.equals(headerEntry.getKey()) &&
-                    !CORRELATION_ID.equals(headerEntry.getKey()) &&
-                    !APP_ID.equals(headerEntry.getKey()) &&
-                    !EXPIRATION.equals(headerEntry.getKey()) &&
-                    !PRIORITY.equals(headerEntry.getKey()) &&
-                    !REPLY_TO.equals(headerEntry.getKey()) &&
-                    !DELIVERY_MODE.equals(headerEntry.getKey()) &&
-                    !TYPE.equals(headerEntry.getKey()) &&
-                    !SpringAMQPComponent.ROUTING_KEY_HEADER.equals(headerEntry.getKey()) &&
-                    !SpringAMQPComponent.EXCHANGE_NAME_HEADER.equals(headerEntry.getKey()) &&
-                    !msg.getMessageProperties().getHeaders().containsKey(headerEntry.getKey())) {
-                msg.getMessageProperties().setHeader(headerEntry.getKey(), headerEntry.getValue());
-            }
+            if(! isReserved(headerKey) && isCopied(headerKey, headerEntry.getValue(), amqpHeaders, filter, exchange))
+                amqpHeaders.put(headerKey, headerEntry.getValue());
         }
         
         return msg;
     }
     
+    private static boolean isCopied(String headerKey, Object headerValue, Map<String, Object> amqpHeaders, HeaderFilterStrategy filter, Exchange exchange) {
+        if(amqpHeaders.containsKey(headerKey))
+            return false;
+        //Requesters need this one to tell a failure apart from a reply
+        return filter == null || SpringAMQPMessage.IS_EXCEPTION_CAUGHT.equals(headerKey)
+                || !filter.applyFilterToCamelHeaders(headerKey, headerValue, exchange);
+    }
+    
+    /**
+     * @return true for the headers that set basic properties or pick the routing key and exchange
+     */
+    public static boolean isReserved(String headerKey) {
+        if(headerKey == null)
+            return false;
+        
+        switch(headerKey) {
+            case CONTENT_ENCODING:
+            case CONTENT_TYPE:
+            case MESSAGE_ID:
+            case CORRELATION_ID:
+            case APP_ID:
+            case EXPIRATION:
+            case PRIORITY:
+            case REPLY_TO:
+            case DELIVERY_MODE:
+            case TYPE:
+            case SpringAMQPComponent.ROUTING_KEY_HEADER:
+            case SpringAMQPComponent.EXCHANGE_NAME_HEADER:
+                return true;
+            default:
+                return false;
+        }
+    }
+    
     public static SpringAMQPMessage copyHeaders(SpringAMQPMessage msg, Map<String, Object> headers) {
         for(Map.Entry<String, Object> headerEntry : headers.entrySet()) {
             if ( !SpringAMQPMessage.EXCHANGE_PATTERN.equals(headerEntry.getKey()) ) {
@@ -0,0 +1,139 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package amqp.spring.camel.component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.camel.Exchange;
+import org.apache.camel.spi.HeaderFilterStrategy;
+
+/**
+ * Decides which Camel headers are written to the AMQP headers table of outgoing
+ * messages. Patterns are comma separated header names, or prefixes ending in
+ * <code>*</code> such as <code>CamelHttp*</code>, matched case insensitively.
+ * A header is sent when it matches no exclude pattern and, if any include patterns
+ * are given, at least one include pattern.
+ *
+ * All patterns are compiled into a trie up front, so checking a header is a single
+ * walk over its name however many patterns there are. Basic properties are not
+ * affected, and headers of received messages are all passed through to Camel.
+ */
+public class SpringAMQPHeaderFilter implements HeaderFilterStrategy {
+    private final Node includes;
+    private final Node excludes;
+
+    public SpringAMQPHeaderFilter(String includes, String excludes) {
+        this(split(includes), split(excludes));
+    }
+
+    public SpringAMQPHeaderFilter(List<String> includes, List<String> excludes) {
+        this.includes = compile(includes);
+        this.excludes = compile(excludes);
+    }
+
+    /**
+     * @return true if the header should be sent to the broker
+     */
+    public boolean isSent(String headerName) {
+        if(headerName == null)
+            return false;
+        if(this.excludes != null && matches(this.excludes, headerName))
+            return false;
+        return this.includes == null || matches(this.includes, headerName);
+    }
+
+    @Override
+    public boolean applyFilterToCamelHeaders(String headerName, Object headerValue, Exchange exchange) {
+        return !isSent(headerName);
+    }
+
+    @Override
+    public boolean applyFilterToExternalHeaders(String headerName, Object headerValue, Exchange exchange) {
+        return false;
+    }
+
+    private static boolean matches(Node root, String headerName) {
+        Node node = root;
+        for(int i = 0; i < headerName.length(); ++i) {
+            if(node.prefix)
+                return true;
+            node = node.child(Character.toLowerCase(headerName.charAt(i)));
+            if(node == null)
+                return false;
+        }
+        return node.prefix || node.exact;
+    }
+
+    private static List<String> split(String patterns) {
+        List<String> split = new ArrayList<>();
+        if(patterns == null)
+            return split;
+        for(String pattern : patterns.split(",")) {
+            if(! pattern.trim().isEmpty())
+                split.add(pattern.trim());
+        }
+        return split;
+    }
+
+    /**
+     * @return the root of the compiled trie, or null if there are no patterns
+     */
+    private static Node compile(List<String> patterns) {
+        if(patterns == null || patterns.isEmpty())
+            return null;
+
+        Node root = new Node();
+        for(String pattern : patterns) {
+            boolean prefix = pattern.endsWith("*");
+            String name = prefix ? pattern.substring(0, pattern.length() - 1) : pattern;
+            if(name.indexOf('*') >= 0)
+                throw new IllegalArgumentException("Header pattern "+pattern+" may only end with a wildcard");
+
+            Node node = root;
+            for(int i = 0; i < name.length(); ++i)
+                node = node.addChild(Character.toLowerCase(name.charAt(i)));
+            if(prefix)
+                node.prefix = true;
+            else
+                node.exact = true;
+        }
+        return root;
+    }
+
+    /**
+     * Children are kept in sorted arrays and found by binary search.
+     */
+    private static class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private boolean exact = false;
+        private boolean prefix = false;
+
+        Node child(char key) {
+            int index = Arrays.binarySearch(this.keys, key);
+            return index < 0 ? null : this.children[index];
+        }
+
+        Node addChild(char key) {
+            int index = Arrays.binarySearch(this.keys, key);
+            if(index >= 0)
+                return this.children[index];
+
+            int insertAt = -index - 1;
+            char[] keys = new char[this.keys.length + 1];
+            Node[] children = new Node[this.children.length + 1];
+            System.arraycopy(this.keys, 0, keys, 0, insertAt);
+            System.arraycopy(this.children, 0, children, 0, insertAt);
+            System.arraycopy(this.keys, insertAt, keys, insertAt + 1, this.keys.length - insertAt);
+            System.arraycopy(this.children, insertAt, children, insertAt + 1, this.children.length - insertAt);
+            keys[insertAt] = key;
+            children[insertAt] = new Node();
+            this.keys = keys;
+            this.children = children;
+            return children[insertAt];
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package amqp.spring.camel.component;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessageProperties;
+
+/**
+ * Camel headers for a received message, read straight out of its MessageProperties
+ * rather than copied into a map up front. Holds the same entries the eager copy would:
+ * the basic properties (null or not), then every AMQP header but the exchange pattern,
+ * which wins over a basic property of the same name.
+ *
+ * Writes and removals are kept in an overlay over the received properties, and copies
+ * only duplicate that overlay. Keys are case insensitive like Camel's own header map.
+ */
+class SpringAMQPHeaderMap extends AbstractMap<String, Object> {
+    private static final String[] BASIC_PROPERTIES = {
+        SpringAMQPHeader.MESSAGE_ID, SpringAMQPHeader.CORRELATION_ID, SpringAMQPHeader.APP_ID,
+        SpringAMQPHeader.CONTENT_ENCODING, SpringAMQPHeader.CONTENT_TYPE, SpringAMQPHeader.EXPIRATION,
+        SpringAMQPHeader.PRIORITY, SpringAMQPHeader.REPLY_TO, SpringAMQPHeader.DELIVERY_MODE, SpringAMQPHeader.TYPE
+    };
+
+    private final MessageProperties properties;
+    //Keyed by lower case name, holding the name as it was written
+    private final Map<String, Entry<String, Object>> writes;
+    //Lower case names of received entries that were removed or overwritten
+    private final Set<String> hidden;
+    private boolean cleared;
+    private String[] receivedKeys;
+    //Lower case name to the name a received entry goes by, built on the first lookup that needs it
+    private Map<String, String> receivedKeyIndex;
+
+    SpringAMQPHeaderMap(MessageProperties properties) {
+        this(properties, new LinkedHashMap<String, Entry<String, Object>>(), new HashSet<String>(), false);
+    }
+
+    private SpringAMQPHeaderMap(MessageProperties properties, Map<String, Entry<String, Object>> writes, Set<String> hidden, boolean cleared) {
+        this.properties = properties;
+        this.writes = writes;
+        this.hidden = hidden;
+        this.cleared = cleared;
+    }
+
+    /**
+     * A copy sharing the received properties; only what was written since receipt is duplicated.
+     */
+    public SpringAMQPHeaderMap copy() {
+        Map<String, Entry<String, Object>> writesCopy = new LinkedHashMap<>();
+        for(Entry<String, Object> write : this.writes.values())
+            writesCopy.put(lowerCase(write.getKey()), new SimpleEntry<>(write.getKey(), write.getValue()));
+        return new SpringAMQPHeaderMap(this.properties, writesCopy, new HashSet<>(this.hidden), this.cleared);
+    }
+
+    @Override
+    public Object get(Object key) {
+        if(! (key instanceof String))
+            return null;
+        if(! this.writes.isEmpty()) {
+            Entry<String, Object> write = this.writes.get(lowerCase((String) key));
+            if(write != null)
+                return write.getValue();
+        }
+        String receivedKey = receivedKey((String) key);
+        return receivedKey == null ? null : receivedValue(receivedKey);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if(! (key instanceof String))
+            return false;
+        if(! this.writes.isEmpty() && this.writes.containsKey(lowerCase((String) key)))
+            return true;
+        return receivedKey((String) key) != null;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        Object previous = get(key);
+        String receivedKey = receivedKey(key);
+        if(receivedKey != null)
+            this.hidden.add(lowerCase(receivedKey));
+        this.writes.put(lowerCase(key), new SimpleEntry<>(key, value));
+        return previous;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        if(! (key instanceof String))
+            return null;
+        Object previous = get(key);
+        String receivedKey = receivedKey((String) key);
+        if(receivedKey != null)
+            this.hidden.add(lowerCase(receivedKey));
+        this.writes.remove(lowerCase((String) key));
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        this.writes.clear();
+        this.hidden.clear();
+        this.cleared = true;
+    }
+
+    @Override
+    public int size() {
+        int size = this.writes.size();
+        if(! this.cleared) {
+            for(String receivedKey : receivedKeys()) {
+                if(! isHidden(receivedKey))
+                    ++size;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return SpringAMQPHeaderMap.this.size();
+            }
+        };
+    }
+
+    /**
+     * @return the name a received entry goes by, or null if there's no visible entry for this key
+     */
+    private String receivedKey(String key) {
+        if(this.cleared)
+            return null;
+
+        String receivedKey;
+        if(this.properties.getHeaders().containsKey(key) && !SpringAMQPMessage.EXCHANGE_PATTERN.equalsIgnoreCase(key))
+            receivedKey = key;
+        else
+            receivedKey = receivedKeyIndex().get(lowerCase(key));
+        return receivedKey == null || isHidden(receivedKey) ? null : receivedKey;
+    }
+
+    /**
+     * Lower case names of the received entries, mapped to the name each goes by. An AMQP
+     * header shadows a basic property of the same name, and the exchange pattern is left out.
+     */
+    private Map<String, String> receivedKeyIndex() {
+        if(this.receivedKeyIndex == null) {
+            Map<String, Object> amqpHeaders = this.properties.getHeaders();
+            Map<String, String> index = new HashMap<>((BASIC_PROPERTIES.length + amqpHeaders.size()) * 4 / 3 + 1);
+            for(String amqpHeader : amqpHeaders.keySet()) {
+                String lowerCaseHeader = lowerCase(amqpHeader);
+                if(! index.containsKey(lowerCaseHeader) && !SpringAMQPMessage.EXCHANGE_PATTERN.equalsIgnoreCase(amqpHeader))
+                    index.put(lowerCaseHeader, amqpHeader);
+            }
+            for(String basicProperty : BASIC_PROPERTIES) {
+                String lowerCaseProperty = lowerCase(basicProperty);
+                if(! index.containsKey(lowerCaseProperty))
+                    index.put(lowerCaseProperty, basicProperty);
+            }
+            this.receivedKeyIndex = index;
+        }
+        return this.receivedKeyIndex;
+    }
+
+    private Object receivedValue(String receivedKey) {
+        Map<String, Object> amqpHeaders = this.properties.getHeaders();
+        if(amqpHeaders.containsKey(receivedKey))
+            return amqpHeaders.get(receivedKey);
+
+        switch(receivedKey) {
+            case SpringAMQPHeader.MESSAGE_ID:
+                return this.properties.getMessageId();
+            case SpringAMQPHeader.CORRELATION_ID:
+                byte[] correlationId = this.properties.getCorrelationId();
+                return correlationId == null ? null : new String(correlationId);
+            case SpringAMQPHeader.APP_ID:
+                return this.properties.getAppId();
+            case SpringAMQPHeader.CONTENT_ENCODING:
+                return this.properties.getContentEncoding();
+            case SpringAMQPHeader.CONTENT_TYPE:
+                return this.properties.getContentType();
+            case SpringAMQPHeader.EXPIRATION:
+                return this.properties.getExpiration();
+            case SpringAMQPHeader.PRIORITY:
+                return this.properties.getPriority();
+            case SpringAMQPHeader.REPLY_TO:
+                return this.properties.getReplyTo();
+            case SpringAMQPHeader.DELIVERY_MODE:
+                MessageDeliveryMode deliveryMode = this.properties.getDeliveryMode();
+                return deliveryMode == null ? null : MessageDeliveryMode.toInt(deliveryMode);
+            case SpringAMQPHeader.TYPE:
+                return this.properties.getType();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Names of the received entries, basic properties first, before any are hidden.
+     */
+    private String[] receivedKeys() {
+        if(this.receivedKeys == null) {
+            Map<String, Object> amqpHeaders = this.properties.getHeaders();
+            Map<String, String> index = receivedKeyIndex();
+            List<String> keys = new ArrayList<>(BASIC_PROPERTIES.length + amqpHeaders.size());
+            for(String basicProperty : BASIC_PROPERTIES) {
+                //Shadowed by an AMQP header of the same name
+                if(! amqpHeaders.containsKey(index.get(lowerCase(basicProperty))))
+                    keys.add(basicProperty);
+            }
+            for(String amqpHeader : amqpHeaders.keySet()) {
+                if(! SpringAMQPMessage.EXCHANGE_PATTERN.equalsIgnoreCase(amqpHeader))
+                    keys.add(amqpHeader);
+            }
+            this.receivedKeys = keys.toArray(new String[keys.size()]);
+        }
+        return this.receivedKeys;
+    }
+
+    private boolean isHidden(String receivedKey) {
+        return !this.hidden.isEmpty() && this.hidden.contains(lowerCase(receivedKey));
+    }
+
+    private static String lowerCase(String key) {
+        return key.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Walks the visible received entries, then the written ones.
+     */
+    private class EntryIterator implements Iterator<Entry<String, Object>> {
+        private final String[] keys = cleared ? new String[0] : receivedKeys();
+        //Only started once the received entries are done, so setValue() on one of those can add a write
+        private Iterator<Entry<String, Object>> writeIterator;
+        private int index = 0;
+        private Entry<String, Object> current;
+        private boolean currentIsWrite;
+
+        @Override
+        public boolean hasNext() {
+            while(this.index < this.keys.length && isHidden(this.keys[this.index]))
+                ++this.index;
+            if(this.index < this.keys.length)
+                return true;
+            if(this.writeIterator == null)
+                this.writeIterator = writes.values().iterator();
+            return this.writeIterator.hasNext();
+        }
+
+        @Override
+        public Entry<String, Object> next() {
+            if(! hasNext())
+                throw new NoSuchElementException();
+
+            if(this.index < this.keys.length) {
+                final String key = this.keys[this.index++];
+                this.current = new SimpleEntry<String, Object>(key, receivedValue(key)) {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    public Object setValue(Object value) {
+                        put(key, value);
+                        return super.setValue(value);
+                    }
+                };
+                this.currentIsWrite = false;
+            } else {
+                this.current = this.writeIterator.next();
+                this.currentIsWrite = true;
+            }
+            return this.current;
+        }
+
+        @Override
+        public void remove() {
+            if(this.current == null)
+                throw new IllegalStateException();
+            if(this.currentIsWrite)
+                this.writeIterator.remove();
+            else
+                hidden.add(lowerCase(this.current.getKey()));
+            this.current = null;
+        }
+    }
+}
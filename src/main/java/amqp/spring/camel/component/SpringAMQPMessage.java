@@ -4,8 +4,10 @@
 
 package amqp.spring.camel.component;
 
+import java.util.Map;
 import org.apache.camel.ExchangePattern;
 import org.apache.camel.impl.DefaultMessage;
+import org.apache.camel.spi.HeaderFilterStrategy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.AmqpException;
@@ -19,6 +21,11 @@ public class SpringAMQPMessage extends DefaultMessage {
     
     public static final String EXCHANGE_PATTERN = "CamelExchangePattern";
     public static final String IS_EXCEPTION_CAUGHT = "IsCamelExceptionCaught";
+    
+    //The received payload, until something asks for the body
+    private LazyBody lazyBody;
+    //Handed out by createHeaders() the first time the headers are used
+    private SpringAMQPHeaderMap headerView;
         
     public SpringAMQPMessage() {
         super();
@@ -30,16 +37,28 @@ public class SpringAMQPMessage extends DefaultMessage {
     }
 
     public static SpringAMQPMessage fromAMQPMessage(MessageConverter msgConverter, org.springframework.amqp.core.Message amqpMessage) {
+        return fromAMQPMessage(msgConverter, amqpMessage, false);
+    }
+    
+    /**
+     * @param lazy defer converting the payload until the body is first read; a body nobody
+     * reads is never converted, and is sent on as the original bytes
+     */
+    public static SpringAMQPMessage fromAMQPMessage(MessageConverter msgConverter, org.springframework.amqp.core.Message amqpMessage, boolean lazy) {
         if(amqpMessage == null) {
             LOG.debug("Received NULL AMQP Message, returning null");
             return null;
         }
         
+        //Compressed bodies are restored before anything else looks at them
+        amqpMessage = SpringAMQPCompression.decompress(amqpMessage);
         SpringAMQPMessage message = new SpringAMQPMessage();
         
         //Restore the body based on the message converter provided
         if(amqpMessage.getBody() == null || amqpMessage.getBody().length == 0) {
             message.setBody(null);
+        } else if(lazy) {
+            message.lazyBody = new LazyBody(msgConverter, amqpMessage);
         } else {
             if(LOG.isTraceEnabled()) {
                 String asText = new String(amqpMessage.getBody());
@@ -49,9 +68,8 @@ public class SpringAMQPMessage extends DefaultMessage {
             message.setBody(msgConverter.fromMessage(amqpMessage));
         }
 
-        //Set & restore headers from AMQP
-        message = SpringAMQPHeader.setBasicPropertiesToHeaders(message, amqpMessage);
-        message = SpringAMQPHeader.copyHeaders(message, amqpMessage.getMessageProperties().getHeaders());
+        //Headers are read from the AMQP properties as they're asked for
+        message.headerView = new SpringAMQPHeaderMap(amqpMessage.getMessageProperties());
         
         return message;
     }
@@ -66,13 +84,115 @@ public class SpringAMQPMessage extends DefaultMessage {
         return ExchangePattern.valueOf(exchangePatternName);
     }
 
+    /**
+     * @return true if the body was received lazily and hasn't been read or replaced since
+     */
+    public boolean isBodyPending() {
+        return this.lazyBody != null;
+    }
+    
+    @Override
+    protected Object createBody() {
+        LazyBody pending = this.lazyBody;
+        if(pending == null)
+            return super.createBody();
+        
+        //From here on the body may be changed in place, so the original bytes no longer stand for it
+        this.lazyBody = null;
+        return pending.get();
+    }
+    
+    @Override
+    public void setBody(Object body) {
+        super.setBody(body);
+        this.lazyBody = null;
+    }
+    
+    @Override
+    protected Map<String, Object> createHeaders() {
+        SpringAMQPHeaderMap view = this.headerView;
+        if(view == null)
+            return super.createHeaders();
+        this.headerView = null;
+        return view;
+    }
+    
+    @Override
+    public void copyFrom(org.apache.camel.Message that) {
+        if(that == this)
+            return;
+        
+        LazyBody pending = that instanceof SpringAMQPMessage ? ((SpringAMQPMessage) that).lazyBody : null;
+        boolean viewCopied = copyHeaderView(that);
+        if(pending == null && ! viewCopied) {
+            super.copyFrom(that);
+            return;
+        }
+        
+        //Same as a plain copy, minus converting a pending body or copying received headers one by one
+        setMessageId(that.getMessageId());
+        if(pending == null) {
+            setBody(that.getBody());
+        } else {
+            setBody(null);
+            this.lazyBody = pending;
+        }
+        setFault(that.isFault());
+        if(! viewCopied && getHeaders() != that.getHeaders()) {
+            getHeaders().clear();
+            if(that.hasHeaders())
+                getHeaders().putAll(that.getHeaders());
+        }
+        copyAttachments(that);
+    }
+    
+    private boolean copyHeaderView(org.apache.camel.Message that) {
+        if(hasPopulatedHeaders() || ! (that instanceof SpringAMQPMessage))
+            return false;
+        Map<String, Object> headers = that.getHeaders();
+        if(! (headers instanceof SpringAMQPHeaderMap))
+            return false;
+        this.headerView = ((SpringAMQPHeaderMap) headers).copy();
+        return true;
+    }
+    
+    @Override
+    public SpringAMQPMessage newInstance() {
+        return new SpringAMQPMessage();
+    }
+
     public Message toAMQPMessage(MessageConverter msgConverter) {
+        return toAMQPMessage(this, msgConverter, null);
+    }
+    
+    /**
+     * @param headerFilter decides which headers go into the AMQP headers table, may be null to send all of them
+     */
+    public Message toAMQPMessage(MessageConverter msgConverter, HeaderFilterStrategy headerFilter) {
+        return toAMQPMessage(this, msgConverter, headerFilter);
+    }
+    
+    /**
+     * Translate any Camel message straight into an AMQP message, without first copying
+     * it into a SpringAMQPMessage. The body is converted into, and the headers written
+     * onto, one MessageProperties instance.
+     * 
+     * @param headerFilter decides which headers go into the AMQP headers table, may be null to send all of them
+     */
+    public static Message toAMQPMessage(org.apache.camel.Message camelMessage, MessageConverter msgConverter, HeaderFilterStrategy headerFilter) {
         MessageProperties properties = new MessageProperties();
-        properties.setMessageId(this.getMessageId());
+        properties.setMessageId(camelMessage.getMessageId());
         
         Message amqpMessage;
-        if(this.getBody() != null) {
-            amqpMessage = msgConverter.toMessage(this.getBody(), properties);
+        LazyBody pending = camelMessage instanceof SpringAMQPMessage ? ((SpringAMQPMessage) camelMessage).lazyBody : null;
+        if(pending != null) {
+            //Never read, so pass the payload on exactly as it arrived
+            MessageProperties received = pending.amqpMessage.getMessageProperties();
+            properties.setContentType(received.getContentType());
+            properties.setContentEncoding(received.getContentEncoding());
+            amqpMessage = new Message(pending.amqpMessage.getBody(), properties);
+        } else if(camelMessage.getBody() != null) {
+            amqpMessage = msgConverter.toMessage(camelMessage.getBody(), properties);
             
             if(LOG.isTraceEnabled()) {
                 String asText = new String(amqpMessage.getBody());
@@ -82,14 +202,45 @@ public class SpringAMQPMessage extends DefaultMessage {
             amqpMessage = new Message(new byte[]{}, properties);
         }
         
-        return new HeadersPostProcessor(this).postProcessMessage(amqpMessage);
+        return new HeadersPostProcessor(camelMessage, headerFilter).postProcessMessage(amqpMessage);
+    }
+    
+    /**
+     * Shared by a message and its copies, so the payload is converted at most once.
+     */
+    private static class LazyBody {
+        private final MessageConverter msgConverter;
+        private final Message amqpMessage;
+        private Object body;
+        private boolean converted = false;
+        
+        LazyBody(MessageConverter msgConverter, Message amqpMessage) {
+            this.msgConverter = msgConverter;
+            this.amqpMessage = amqpMessage;
+        }
+        
+        synchronized Object get() {
+            if(! this.converted) {
+                if(LOG.isTraceEnabled())
+                    LOG.trace("Translating From AMQP Message: "+new String(this.amqpMessage.getBody()));
+                this.body = this.msgConverter.fromMessage(this.amqpMessage);
+                this.converted = true;
+            }
+            return this.body;
+        }
     }
     
     public static class HeadersPostProcessor implements MessagePostProcessor {
         public org.apache.camel.Message camelMessage;
+        public HeaderFilterStrategy headerFilter;
         
         public HeadersPostProcessor(org.apache.camel.Message camelMessage) {
+            this(camelMessage, null);
+        }
+        
+        public HeadersPostProcessor(org.apache.camel.Message camelMessage, HeaderFilterStrategy headerFilter) {
             this.camelMessage = camelMessage;
+            this.headerFilter = headerFilter;
         }
         
         @Override
@@ -98,8 +249,7 @@ public class SpringAMQPMessage extends DefaultMessage {
                 return msg;
                         
             //Set headers
-            msg = SpringAMQPHeader.setBasicPropertiesFromHeaders(msg, camelMessage.getHeaders());
-            msg = SpringAMQPHeader.copyHeaders(msg, camelMessage.getHeaders());
+            msg = SpringAMQPHeader.setPropertiesFromHeaders(msg, camelMessage.getHeaders(), headerFilter, camelMessage.getExchange());
             
             //Set the exchange pattern so we can re-set it upon receipt
             if(camelMessage.getExchange() != null) {
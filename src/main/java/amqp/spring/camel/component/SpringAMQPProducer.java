@@ -4,26 +4,65 @@
 
 package amqp.spring.camel.component;
 
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.camel.AsyncCallback;
 import org.apache.camel.Exchange;
 import org.apache.camel.ServicePoolAware;
+import org.apache.camel.api.management.ManagedAttribute;
+import org.apache.camel.api.management.ManagedResource;
 import org.apache.camel.impl.DefaultAsyncProducer;
+import org.apache.camel.util.AsyncProcessorHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.AmqpConnectException;
 import org.springframework.amqp.AmqpIOException;
+import org.springframework.amqp.core.AmqpTemplate;
 import org.springframework.amqp.core.Message;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.support.converter.MessageConverter;
-import org.springframework.amqp.support.converter.SimpleMessageConverter;
 
+@ManagedResource(description = "Spring AMQP Producer")
 public class SpringAMQPProducer extends DefaultAsyncProducer implements ServicePoolAware {
     private static transient final Logger LOG = LoggerFactory.getLogger(SpringAMQPProducer.class);
     
     private final SpringAMQPEndpoint endpoint;
     private ExecutorService threadPool;
+    private ExecutorService completionExecutor;
+    private AmqpTemplate amqpTemplate;
+    private volatile SpringAMQPSendPlan sendPlan;
+    private SpringAMQPConfirmPublisher confirmPublisher;
+    private SpringAMQPBatchPublisher batchPublisher;
+    private ScheduledExecutorService publisherScheduler;
+    private ScheduledExecutorService confirmScheduler;
+    private SpringAMQPReplyManager replyManager;
+    private Semaphore inFlightPermits;
+    private final AtomicInteger inFlightCount = new AtomicInteger();
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    private SpringAMQPConnectionMonitor connectionMonitor;
+    private final Queue<ParkedExchange> parkedExchanges = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger parkedCount = new AtomicInteger();
+    private final Runnable unparkTask = new Runnable() {
+        @Override
+        public void run() {
+            unparkAll();
+        }
+    };
+    private final Runnable unblockListener = new Runnable() {
+        @Override
+        public void run() {
+            //Called on the connection's I/O thread, don't send from here
+            if(! parkedExchanges.isEmpty())
+                submitUnpark();
+        }
+    };
     
     public SpringAMQPProducer(SpringAMQPEndpoint endpoint) {
         super(endpoint);
@@ -46,16 +85,222 @@ public class SpringAMQPProducer extends DefaultAsyncProducer implements ServiceP
             return true;
         }
         
-        this.threadPool.submit(new AMQPProducerTask(exchange, callback));
+        //Checked before the in-flight limit, so no thread ends up waiting on a blocked connection
+        SpringAMQPConnectionMonitor monitor = this.connectionMonitor;
+        SpringAMQPEndpoint.BlockedPolicy blockedPolicy = monitor != null && monitor.isBlocked() ? this.endpoint.getBlockedPolicy() : SpringAMQPEndpoint.BlockedPolicy.Wait;
+        if(blockedPolicy == SpringAMQPEndpoint.BlockedPolicy.Fail) {
+            exchange.setException(new RejectedExecutionException("AMQP connection is blocked by the broker: " + monitor.getBlockedReason()));
+            callback.done(true);
+            return true;
+        }
+        
+        Semaphore permits = this.inFlightPermits;
+        if(permits != null && !permits.tryAcquire()) {
+            switch(this.endpoint.getOverflowPolicy()) {
+                case Reject:
+                    exchange.setException(new RejectedExecutionException("SpringAMQPProducer has reached its limit of "
+                            + this.endpoint.getMaxInFlight() + " in-flight exchanges"));
+                    callback.done(true);
+                    return true;
+                case CallerRuns:
+                    if(blockedPolicy != SpringAMQPEndpoint.BlockedPolicy.Park)
+                        return processInCaller(exchange, callback);
+                    //The caller can't send until the broker unblocks. Only exchanges holding a
+                    //permit are parked, so wait for one as Block would rather than grow the queue
+                default:
+                    try {
+                        permits.acquire();
+                    } catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        exchange.setException(new RejectedExecutionException("Interrupted while waiting for an in-flight slot", e));
+                        callback.done(true);
+                        return true;
+                    }
+            }
+        }
+        
+        AsyncCallback inFlightCallback = new InFlightCallback(callback, permits);
+        if(blockedPolicy == SpringAMQPEndpoint.BlockedPolicy.Park)
+            return park(exchange, inFlightCallback);
+        
+        return dispatch(exchange, inFlightCallback, false);
+    }
+    
+    /**
+     * Hold an exchange until the broker unblocks the connection. Combine with
+     * maxInFlight to bound how many exchanges can pile up here.
+     */
+    protected boolean park(Exchange exchange, AsyncCallback callback) {
+        LOG.debug("Connection blocked, parking exchange {}", exchange.getExchangeId());
+        this.parkedExchanges.add(new ParkedExchange(exchange, callback));
+        this.parkedCount.incrementAndGet();
+        
+        //The connection may have unblocked before we were queued
+        SpringAMQPConnectionMonitor monitor = this.connectionMonitor;
+        if(monitor == null || !monitor.isBlocked())
+            submitUnpark();
+        return false;
+    }
+    
+    private void submitUnpark() {
+        ExecutorService pool = this.threadPool;
+        try {
+            if(pool != null)
+                pool.execute(this.unparkTask);
+        } catch(RuntimeException e) {
+            //Stopping; doStop fails anything still parked
+            LOG.debug("Could not release parked exchanges", e);
+        }
+    }
+    
+    private void unparkAll() {
+        SpringAMQPConnectionMonitor monitor = this.connectionMonitor;
+        ParkedExchange parked;
+        while((monitor == null || !monitor.isBlocked()) && (parked = this.parkedExchanges.poll()) != null) {
+            this.parkedCount.decrementAndGet();
+            dispatch(parked.exchange, parked.callback, false);
+        }
+    }
+    
+    private void failParked() {
+        ParkedExchange parked;
+        while((parked = this.parkedExchanges.poll()) != null) {
+            this.parkedCount.decrementAndGet();
+            parked.exchange.setException(new RejectedExecutionException("SpringAMQPProducer stopped while the connection was blocked"));
+            parked.callback.done(false);
+        }
+    }
+    
+    /**
+     * Over the in-flight limit with the CallerRuns policy: the calling thread does the
+     * send itself and waits for it to complete, which throttles whoever is producing.
+     * The wait has no bound of its own, as every way of sending gives up by itself
+     * (replyTimeout, confirmTimeout). If the caller is interrupted the exchange is
+     * left to complete from the send, which may still change it.
+     */
+    protected boolean processInCaller(final Exchange exchange, final AsyncCallback callback) {
+        final CountDownLatch latch = new CountDownLatch(1);
+        //Whichever of the send and an interrupted caller gets here first decides who completes the exchange
+        final AtomicBoolean decided = new AtomicBoolean(false);
+        dispatch(exchange, new InFlightCallback(new AsyncCallback() {
+            @Override
+            public void done(boolean doneSync) {
+                latch.countDown();
+                if(! decided.compareAndSet(false, true))
+                    callback.done(false);
+            }
+        }, null), true);
+        
+        try {
+            latch.await();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if(decided.compareAndSet(false, true)) {
+                LOG.debug("Interrupted waiting on the send for exchange {}, it completes asynchronously", exchange.getExchangeId());
+                return false;
+            }
+        }
+        
+        callback.done(true);
+        return true;
+    }
+    
+    protected boolean dispatch(Exchange exchange, AsyncCallback callback, boolean inCaller) {
+        if(this.replyManager != null && exchange.getPattern().isOutCapable())
+            return sendAndReceive(exchange, callback);
+        
+        if(this.batchPublisher != null && !exchange.getPattern().isOutCapable())
+            return publishInBatch(exchange, callback);
+        
+        if(this.confirmPublisher != null && !exchange.getPattern().isOutCapable())
+            return publishWithConfirm(exchange, callback);
+        
+        if(inCaller) {
+            new AMQPProducerTask(exchange, callback).run();
+            return true;
+        }
+        
+        this.queuedCount.incrementAndGet();
+        try {
+            this.threadPool.submit(new QueuedProducerTask(exchange, callback));
+        } catch(RejectedExecutionException e) {
+            this.queuedCount.decrementAndGet();
+            exchange.setException(e);
+            callback.done(true);
+            return true;
+        }
         return false;
     }
     
+    @ManagedAttribute(description = "Exchanges waiting for a producer thread")
+    public int getQueuedCount() {
+        return this.queuedCount.get();
+    }
+    
+    @ManagedAttribute(description = "Asynchronous exchanges sent but not yet completed")
+    public int getInFlightCount() {
+        return this.inFlightCount.get();
+    }
+    
+    @ManagedAttribute(description = "Maximum asynchronous exchanges in flight, 0 if unbounded")
+    public int getMaxInFlight() {
+        return this.endpoint.getMaxInFlight();
+    }
+    
+    @ManagedAttribute(description = "Exchanges held while the broker blocks the connection")
+    public int getParkedCount() {
+        return this.parkedCount.get();
+    }
+    
+    @ManagedAttribute(description = "Whether the broker has blocked this producer's connection")
+    public boolean isConnectionBlocked() {
+        SpringAMQPConnectionMonitor monitor = this.connectionMonitor;
+        return monitor != null && monitor.isBlocked();
+    }
+    
+    @ManagedAttribute(description = "Milliseconds the connection has been blocked for, 0 if it isn't")
+    public long getConnectionBlockedMillis() {
+        SpringAMQPConnectionMonitor monitor = this.connectionMonitor;
+        return monitor == null ? 0 : monitor.getBlockedMillis();
+    }
+    
+    @ManagedAttribute(description = "Total milliseconds the connection has spent blocked")
+    public long getConnectionTotalBlockedMillis() {
+        SpringAMQPConnectionMonitor monitor = this.connectionMonitor;
+        return monitor == null ? 0 : monitor.getTotalBlockedMillis();
+    }
+    
+    @ManagedAttribute(description = "Published messages waiting on a publisher confirm")
+    public int getPendingConfirmCount() {
+        SpringAMQPConfirmPublisher publisher = this.confirmPublisher;
+        SpringAMQPBatchPublisher batchPublisher = this.batchPublisher;
+        return (publisher == null ? 0 : publisher.getPendingCount()) + (batchPublisher == null ? 0 : batchPublisher.getPendingConfirmCount());
+    }
+    
+    @ManagedAttribute(description = "Messages held in open batches")
+    public int getPendingBatchCount() {
+        SpringAMQPBatchPublisher publisher = this.batchPublisher;
+        return publisher == null ? 0 : publisher.getPendingCount();
+    }
+    
+    @ManagedAttribute(description = "Requests waiting on a reply from the shared reply queue")
+    public int getPendingReplyCount() {
+        SpringAMQPReplyManager manager = this.replyManager;
+        return manager == null ? 0 : manager.getPendingCount();
+    }
+    
     @Override
     public void process(Exchange exchange) throws Exception {
         if(!isRunAllowed() && exchange.getException() == null) {
             exchange.setException(new RejectedExecutionException("SpringAMQPProducer not started yet!"));
         }
         
+        //Wait on the broker's confirm or reply rather than a blocking send
+        if(exchange.getPattern().isOutCapable() ? this.replyManager != null : (this.batchPublisher != null || this.confirmPublisher != null)) {
+            AsyncProcessorHelper.process(this, exchange);
+            return;
+        }
+        
         //This is an intentional synchronous invocation of run(), don't mock me
         new AMQPProducerTask(exchange).run();
     }
@@ -63,6 +308,8 @@ public class SpringAMQPProducer extends DefaultAsyncProducer implements ServiceP
     @Override
     public void doStart() throws Exception {
         super.doStart();
+        this.amqpTemplate = this.endpoint.getPublisherTemplate();
+        this.sendPlan = SpringAMQPSendPlan.create(this.endpoint, this.amqpTemplate);
         
         if (this.endpoint.isCreateResources()) {
             org.springframework.amqp.core.Exchange exchange = this.endpoint.createAMQPExchange();
@@ -88,21 +335,122 @@ public class SpringAMQPProducer extends DefaultAsyncProducer implements ServiceP
 
         //Initialize execution pool
         this.threadPool = this.endpoint.getCamelContext().getExecutorServiceManager().newDefaultThreadPool(this, "amqp-producer");
+        
+        if(this.endpoint.getMaxInFlight() > 0)
+            this.inFlightPermits = new Semaphore(this.endpoint.getMaxInFlight(), true);
+        
+        if(this.amqpTemplate instanceof RabbitTemplate) {
+            RabbitTemplate rabbitTemplate = (RabbitTemplate) this.amqpTemplate;
+            SpringAMQPComponent component = (SpringAMQPComponent) this.endpoint.getComponent();
+            this.connectionMonitor = component.getConnectionMonitor(rabbitTemplate.getConnectionFactory());
+            this.connectionMonitor.addUnblockListener(this.unblockListener);
+        }
+        
+        if(this.endpoint.isPublisherConfirms()) {
+            if(! (this.amqpTemplate instanceof RabbitTemplate))
+                throw new IllegalStateException("Publisher confirms require a RabbitMQ AMQP Template");
+            
+            this.confirmPublisher = new SpringAMQPConfirmPublisher(createPublisherSupport((RabbitTemplate) this.amqpTemplate),
+                    getConfirmScheduler(), this.endpoint.getConfirmTimeout());
+        }
+        
+        if(this.endpoint.isBatching()) {
+            if(! (this.amqpTemplate instanceof RabbitTemplate))
+                throw new IllegalStateException("Batched publishing requires a RabbitMQ AMQP Template");
+            
+            this.batchPublisher = new SpringAMQPBatchPublisher(createPublisherSupport((RabbitTemplate) this.amqpTemplate), getPublisherScheduler(),
+                    getConfirmScheduler(), this.endpoint.getConfirmTimeout(), this.endpoint.getBatchSize(), this.endpoint.getBatchBytes(), this.endpoint.getLingerMs());
+        }
+        
+        if(this.endpoint.getReplyQueue() != null) {
+            if(! (this.amqpTemplate instanceof RabbitTemplate))
+                throw new IllegalStateException("A shared reply queue requires a RabbitMQ AMQP Template");
+            
+            //Pooled producers for the same endpoint all share the one consumer on the reply queue
+            RabbitTemplate rabbitTemplate = (RabbitTemplate) this.amqpTemplate;
+            SpringAMQPComponent component = (SpringAMQPComponent) this.endpoint.getComponent();
+            this.replyManager = component.getReplyManager(rabbitTemplate.getConnectionFactory(), this.endpoint.getReplyQueue());
+        }
+    }
+
+    /**
+     * Flushes batches.
+     */
+    private ScheduledExecutorService getPublisherScheduler() {
+        if(this.publisherScheduler == null)
+            this.publisherScheduler = this.endpoint.getCamelContext().getExecutorServiceManager().newSingleThreadScheduledExecutor(this, "amqp-producer-publisher");
+        return this.publisherScheduler;
+    }
+    
+    /**
+     * Expires publishes the broker hasn't confirmed in time. Kept apart from the flush
+     * thread so a flush blocked on the broker can't hold up expiry.
+     */
+    private ScheduledExecutorService getConfirmScheduler() {
+        if(this.endpoint.getConfirmTimeout() <= 0)
+            return null;
+        if(this.confirmScheduler == null)
+            this.confirmScheduler = this.endpoint.getCamelContext().getExecutorServiceManager().newSingleThreadScheduledExecutor(this, "amqp-producer-confirm-timeout");
+        return this.confirmScheduler;
+    }
+    
+    private SpringAMQPPublisherSupport createPublisherSupport(RabbitTemplate rabbitTemplate) {
+        if(this.completionExecutor == null)
+            this.completionExecutor = SpringAMQPPublisherSupport.newCompletionExecutor(this.endpoint.getCamelContext(), this, "amqp-producer-completion");
+        
+        SpringAMQPComponent component = (SpringAMQPComponent) this.endpoint.getComponent();
+        return new SpringAMQPPublisherSupport(rabbitTemplate.getConnectionFactory(), component.getMessagePropertiesConverter(),
+                component.getEncoding(), this.completionExecutor);
     }
 
     @Override
     public void doShutdown() throws Exception {
         super.doShutdown();
-        
-        if(this.threadPool != null) {
-            this.threadPool.shutdown();
-            this.threadPool = null;
-        }
+        tearDown();
     }
     
     @Override
     public void doStop() throws Exception {
         super.doStop();
+        tearDown();
+    }
+    
+    /**
+     * Fails parked exchanges, drains the publishers and shuts down this producer's pools.
+     */
+    private void tearDown() {
+        if(this.connectionMonitor != null) {
+            this.connectionMonitor.removeUnblockListener(this.unblockListener);
+            this.connectionMonitor = null;
+        }
+        failParked();
+        
+        if(this.batchPublisher != null) {
+            this.batchPublisher.stop();
+            this.batchPublisher = null;
+        }
+        
+        if(this.confirmPublisher != null) {
+            this.confirmPublisher.stop();
+            this.confirmPublisher = null;
+        }
+        
+        if(this.publisherScheduler != null) {
+            this.publisherScheduler.shutdown();
+            this.publisherScheduler = null;
+        }
+        
+        if(this.confirmScheduler != null) {
+            this.confirmScheduler.shutdown();
+            this.confirmScheduler = null;
+        }
+        
+        this.replyManager = null;
+        
+        if(this.completionExecutor != null) {
+            this.completionExecutor.shutdown();
+            this.completionExecutor = null;
+        }
         
         if(this.threadPool != null) {
             this.threadPool.shutdown();
@@ -110,6 +458,148 @@ public class SpringAMQPProducer extends DefaultAsyncProducer implements ServiceP
         }
     }
     
+    protected boolean publishWithConfirm(Exchange exchange, AsyncCallback callback) {
+        org.apache.camel.Message message = exchange.getIn();
+        
+        try {
+            LOG.debug("Asynchronous send with publisher confirm for exchange {}", exchange.getExchangeId());
+            SpringAMQPSendPlan plan = this.sendPlan;
+            Message amqpMessage = plan.toAMQPMessage(message);
+            this.confirmPublisher.publish(plan.getExchangeName(message), plan.getRoutingKey(message), amqpMessage, exchange, callback);
+            return false;
+        } catch (Throwable t) {
+            LOG.error("Could not publish message via AMQP", t);
+            exchange.setException(t);
+            callback.done(true);
+            return true;
+        }
+    }
+    
+    protected boolean sendAndReceive(Exchange exchange, AsyncCallback callback) {
+        org.apache.camel.Message message = exchange.getIn();
+        
+        try {
+            LOG.debug("Asynchronous send and request for exchange {}", exchange.getExchangeId());
+            SpringAMQPSendPlan plan = this.sendPlan;
+            final MessageConverter msgConverter = plan.getMessageConverter();
+            Message amqpMessage = plan.toAMQPMessage(message);
+            this.replyManager.sendAndReceive(plan.getExchangeName(message), plan.getRoutingKey(message), amqpMessage, this.endpoint.getReplyTimeout(),
+                    exchange, callback, new SpringAMQPReplyManager.ReplyHandler() {
+                @Override
+                public void handleReply(Exchange exchange, Message reply) {
+                    handleResponse(exchange, msgConverter, reply);
+                }
+            });
+            return false;
+        } catch (Throwable t) {
+            LOG.error("Could not send request via AMQP", t);
+            exchange.setException(t);
+            callback.done(true);
+            return true;
+        }
+    }
+    
+    protected boolean publishInBatch(Exchange exchange, AsyncCallback callback) {
+        org.apache.camel.Message message = exchange.getIn();
+        
+        try {
+            LOG.debug("Batched send for exchange {}", exchange.getExchangeId());
+            SpringAMQPSendPlan plan = this.sendPlan;
+            Message amqpMessage = plan.toAMQPMessage(message);
+            this.batchPublisher.publish(plan.getExchangeName(message), plan.getRoutingKey(message), amqpMessage, exchange, callback);
+            return false;
+        } catch (Throwable t) {
+            LOG.error("Could not queue message for batched delivery via AMQP", t);
+            exchange.setException(t);
+            callback.done(true);
+            return true;
+        }
+    }
+    
+    protected void handleResponse(Exchange exchange, MessageConverter msgConverter, Message amqpResponse) {
+        SpringAMQPMessage camelResponse = SpringAMQPMessage.fromAMQPMessage(msgConverter, amqpResponse);
+
+        if (camelResponse != null && (Boolean)camelResponse.getHeader(SpringAMQPMessage.IS_EXCEPTION_CAUGHT, Boolean.FALSE)) {
+            Object caughtObject = camelResponse.getBody();
+            if (caughtObject == null) {
+                exchange.setException(new RuntimeException("Null exception caught from Camel."));
+            } else if (caughtObject instanceof Throwable) {
+                exchange.setException((Throwable)caughtObject);
+            } else {
+                exchange.setException(new RuntimeException(caughtObject.toString()));
+            }
+        } else {
+            exchange.setOut(camelResponse);
+        }
+    }
+    
+    protected MessageConverter getMessageConverter() {
+        return getSendPlan().getMessageConverter();
+    }
+    
+    protected String getRoutingKey(org.apache.camel.Message message) {
+        return getSendPlan().getRoutingKey(message);
+    }
+    
+    protected String getExchangeName(org.apache.camel.Message message) {
+        return getSendPlan().getExchangeName(message);
+    }
+    
+    /**
+     * The plan made as this producer started, or a one-off plan if it hasn't been started.
+     */
+    private SpringAMQPSendPlan getSendPlan() {
+        SpringAMQPSendPlan plan = this.sendPlan;
+        return plan != null ? plan : SpringAMQPSendPlan.create(this.endpoint, this.amqpTemplate);
+    }
+    
+    /**
+     * Completes the exchange and gives back its in-flight slot, exactly once.
+     */
+    private class InFlightCallback implements AsyncCallback {
+        private final AsyncCallback callback;
+        private final Semaphore permits;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+        
+        InFlightCallback(AsyncCallback callback, Semaphore permits) {
+            this.callback = callback;
+            this.permits = permits;
+            inFlightCount.incrementAndGet();
+        }
+        
+        @Override
+        public void done(boolean doneSync) {
+            if(this.released.compareAndSet(false, true)) {
+                inFlightCount.decrementAndGet();
+                if(this.permits != null)
+                    this.permits.release();
+            }
+            this.callback.done(doneSync);
+        }
+    }
+    
+    private static class ParkedExchange {
+        private final Exchange exchange;
+        private final AsyncCallback callback;
+        
+        ParkedExchange(Exchange exchange, AsyncCallback callback) {
+            this.exchange = exchange;
+            this.callback = callback;
+        }
+    }
+    
+    private class QueuedProducerTask extends AMQPProducerTask {
+        public QueuedProducerTask(Exchange exchange, AsyncCallback callback) {
+            super(exchange, callback);
+        }
+        
+        @Override
+        public void run() {
+            queuedCount.decrementAndGet();
+            super.run();
+        }
+    }
+    
     private class AMQPProducerTask implements Runnable {
         private final Exchange exchange;
         private final AsyncCallback callback;
@@ -126,45 +616,18 @@ public class SpringAMQPProducer extends DefaultAsyncProducer implements ServiceP
         @Override
         public void run() {
             org.apache.camel.Message message = exchange.getIn();
-            SpringAMQPMessage inMessage = new SpringAMQPMessage(message);
-            exchange.setIn(inMessage); //Swap out the old message format
-
-            MessageConverter msgConverter;
-            if(endpoint.getAmqpTemplate() instanceof RabbitTemplate) {
-                RabbitTemplate rabbitTemplate = (RabbitTemplate) endpoint.getAmqpTemplate();
-                msgConverter = rabbitTemplate.getMessageConverter();
-            } else {
-                LOG.warn("Cannot find RabbitMQ AMQP Template, falling back to simple message converter");
-                msgConverter = new SimpleMessageConverter();
-            }
-            
-            String routingKeyHeader = message.getHeader(SpringAMQPComponent.ROUTING_KEY_HEADER, String.class);
-            String routingKey = routingKeyHeader != null ? routingKeyHeader : endpoint.getRoutingKey();
-            
-            String exchangeNameHeader = message.getHeader(SpringAMQPComponent.EXCHANGE_NAME_HEADER, String.class);
-            String exchangeName = exchangeNameHeader != null ? exchangeNameHeader : endpoint.getExchangeName();
+            SpringAMQPSendPlan plan = getSendPlan();
 
             try {
+                String routingKey = plan.getRoutingKey(message);
+                String exchangeName = plan.getExchangeName(message);
                 if(exchange.getPattern().isOutCapable()) {
                     LOG.debug("Synchronous send and request for exchange {}", exchange.getExchangeId());
-                    Message amqpResponse = endpoint.getAmqpTemplate().sendAndReceive(exchangeName, routingKey, inMessage.toAMQPMessage(msgConverter));
-                    SpringAMQPMessage camelResponse = SpringAMQPMessage.fromAMQPMessage(msgConverter, amqpResponse);
-
-                    if (camelResponse != null && (Boolean)camelResponse.getHeader(SpringAMQPMessage.IS_EXCEPTION_CAUGHT, Boolean.FALSE)) {
-                        Object caughtObject = camelResponse.getBody();
-                        if (caughtObject == null) {
-                            exchange.setException(new RuntimeException("Null exception caught from Camel."));
-                        } else if (caughtObject instanceof Throwable) {
-                            exchange.setException((Throwable)caughtObject);
-                        } else {
-                            exchange.setException(new RuntimeException(caughtObject.toString()));
-                        }
-                    } else {
-                        exchange.setOut(camelResponse);
-                    }
+                    Message amqpResponse = amqpTemplate.sendAndReceive(exchangeName, routingKey, plan.toAMQPMessage(message));
+                    handleResponse(exchange, plan.getMessageConverter(), amqpResponse);
                 } else {
                     LOG.debug("Synchronous send for exchange {}", exchange.getExchangeId());
-                    endpoint.getAmqpTemplate().send(exchangeName, routingKey, inMessage.toAMQPMessage(msgConverter));
+                    amqpTemplate.send(exchangeName, routingKey, plan.toAMQPMessage(message));
                 }
             } catch (Throwable t) {
                 LOG.error("Could not deliver message via AMQP", t);
@@ -0,0 +1,150 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package amqp.spring.camel.component;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Envelope;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.ThreadPoolRejectedPolicy;
+import org.apache.camel.spi.ThreadPoolProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.connection.ChannelProxy;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.connection.RabbitUtils;
+import org.springframework.amqp.rabbit.support.MessagePropertiesConverter;
+
+/**
+ * What the confirm and batch publishers and the reply manager share: reading and
+ * writing message properties with the component's properties converter and encoding,
+ * opening and closing confirm-mode channels, and completing exchanges off the
+ * connection's I/O thread.
+ */
+class SpringAMQPPublisherSupport {
+    private static transient final Logger LOG = LoggerFactory.getLogger(SpringAMQPPublisherSupport.class);
+
+    private final ConnectionFactory connectionFactory;
+    private final Executor completionExecutor;
+    private final MessagePropertiesConverter propertiesConverter;
+    private final String encoding;
+
+    SpringAMQPPublisherSupport(ConnectionFactory connectionFactory, MessagePropertiesConverter propertiesConverter, String encoding, Executor completionExecutor) {
+        this.connectionFactory = connectionFactory;
+        this.propertiesConverter = propertiesConverter;
+        this.encoding = encoding;
+        this.completionExecutor = completionExecutor;
+    }
+
+    /**
+     * A pool to complete exchanges on. It rejects work once full rather than running
+     * it on the caller, which would be the connection's I/O thread.
+     */
+    static ExecutorService newCompletionExecutor(CamelContext context, Object source, String name) {
+        ThreadPoolProfile profile = context.getExecutorServiceManager().getDefaultThreadPoolProfile().clone();
+        profile.setId(name);
+        profile.setRejectedPolicy(ThreadPoolRejectedPolicy.Abort);
+        return context.getExecutorServiceManager().newThreadPool(source, name, profile);
+    }
+
+    AMQP.BasicProperties toProperties(Message message) {
+        return this.propertiesConverter.fromMessageProperties(message.getMessageProperties(), this.encoding);
+    }
+
+    Message toMessage(AMQP.BasicProperties properties, Envelope envelope, byte[] body) {
+        return new Message(body, this.propertiesConverter.toMessageProperties(properties, envelope, this.encoding));
+    }
+
+    String getEncoding() {
+        return this.encoding;
+    }
+
+    PublisherChannel openChannel() throws IOException {
+        return new PublisherChannel(this.connectionFactory.createConnection().createChannel(false));
+    }
+
+    /**
+     * Finish an exchange from the completion executor. If it won't take any more work
+     * the exchange fails with the rejection, as routing it on here could deadlock the
+     * connection this thread reads from.
+     */
+    void complete(final Exchange exchange, final AsyncCallback callback, final Throwable failure) {
+        complete(exchange, callback, new Runnable() {
+            @Override
+            public void run() {
+                if(failure != null)
+                    exchange.setException(failure);
+            }
+        });
+    }
+
+    /**
+     * As above, first running the outcome on the completion executor. Anything the
+     * outcome throws is set as the exchange's exception.
+     */
+    void complete(final Exchange exchange, final AsyncCallback callback, final Runnable outcome) {
+        Runnable completion = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    outcome.run();
+                } catch(Throwable t) {
+                    exchange.setException(t);
+                } finally {
+                    callback.done(false);
+                }
+            }
+        };
+
+        try {
+            this.completionExecutor.execute(completion);
+        } catch(RejectedExecutionException e) {
+            LOG.error("Could not hand exchange {} to the completion executor", exchange.getExchangeId(), e);
+            exchange.setException(e);
+            callback.done(false);
+        }
+    }
+
+    /**
+     * A channel in publisher confirm mode. Confirm listeners and sequence numbers belong
+     * to the physical channel, as a cached proxy may swap it out from under us.
+     */
+    static class PublisherChannel {
+        private final Channel channel;
+        private final Channel targetChannel;
+
+        PublisherChannel(Channel channel) throws IOException {
+            this.channel = channel;
+            this.targetChannel = channel instanceof ChannelProxy ? ((ChannelProxy) channel).getTargetChannel() : channel;
+            this.targetChannel.confirmSelect();
+        }
+
+        Channel getTargetChannel() {
+            return this.targetChannel;
+        }
+
+        boolean isOpen() {
+            return this.targetChannel.isOpen();
+        }
+
+        void close() {
+            //Close the physical channel so a confirm-mode channel never goes back into the cache
+            RabbitUtils.closeChannel(this.targetChannel);
+            RabbitUtils.closeChannel(this.channel);
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(this.targetChannel);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package amqp.spring.camel.component;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.ShutdownSignalException;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.Exchange;
+import org.apache.camel.ExchangeTimedOutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Address;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.ChannelProxy;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.connection.RabbitUtils;
+
+/**
+ * Request/reply over one long-lived reply consumer per reply queue. Requests are
+ * tagged with a correlation id and published without waiting; replies are matched
+ * back to their exchange through a correlation map, and requests that don't get an
+ * answer in time are expired by a timer wheel.
+ *
+ * With RabbitMQ's direct reply-to pseudo queue (amq.rabbitmq.reply-to) requests must
+ * be published on the same channel that consumes replies, so all publishing goes
+ * through the reply channel. The component keeps one manager per connection and
+ * reply queue, so every producer sending to that queue shares its consumer.
+ * Properties are written and read, and exchanges completed, through the same
+ * publisher support as the confirm and batch publishers use.
+ */
+class SpringAMQPReplyManager {
+    private static transient final Logger LOG = LoggerFactory.getLogger(SpringAMQPReplyManager.class);
+
+    public static final String DIRECT_REPLY_TO = Address.AMQ_RABBITMQ_REPLY_TO;
+
+    private final ConnectionFactory connectionFactory;
+    private final String replyQueue;
+    private final SpringAMQPTimeoutWheel timeoutWheel;
+    private final SpringAMQPPublisherSupport support;
+    private final ConcurrentMap<String, PendingReply> pendingReplies = new ConcurrentHashMap<>();
+    private final String correlationPrefix = UUID.randomUUID().toString() + "-";
+    private final AtomicLong correlationSequence = new AtomicLong();
+    private final Object channelMonitor = new Object();
+    private ReplyChannel replyChannel;
+
+    /**
+     * Turns a reply into the outcome of the exchange that requested it.
+     */
+    interface ReplyHandler {
+        void handleReply(Exchange exchange, Message reply);
+    }
+
+    SpringAMQPReplyManager(ConnectionFactory connectionFactory, String replyQueue, SpringAMQPTimeoutWheel timeoutWheel, SpringAMQPPublisherSupport support) {
+        this.connectionFactory = connectionFactory;
+        this.replyQueue = replyQueue;
+        this.timeoutWheel = timeoutWheel;
+        this.support = support;
+    }
+
+    public boolean isDirectReplyTo() {
+        return DIRECT_REPLY_TO.equals(this.replyQueue);
+    }
+
+    public void start() throws IOException {
+        synchronized(this.channelMonitor) {
+            getReplyChannel();
+        }
+    }
+
+    public void stop() {
+        synchronized(this.channelMonitor) {
+            if(this.replyChannel != null) {
+                this.replyChannel.close();
+                this.replyChannel = null;
+            }
+        }
+        failAll(new AmqpException("Reply consumer stopped before a reply was received"));
+    }
+
+    public int getPendingCount() {
+        return this.pendingReplies.size();
+    }
+
+    /**
+     * Publish a request and return immediately. Once the reply arrives the handler is
+     * given the exchange and reply, then the callback is invoked (both from the
+     * completion executor); a missing reply fails the exchange after replyTimeout.
+     */
+    public void sendAndReceive(String exchangeName, String routingKey, Message request, final long replyTimeout,
+            Exchange exchange, AsyncCallback callback, ReplyHandler replyHandler) throws IOException {
+        final String correlationId = this.correlationPrefix + this.correlationSequence.incrementAndGet();
+        MessageProperties messageProperties = request.getMessageProperties();
+        messageProperties.setReplyTo(this.replyQueue);
+        messageProperties.setCorrelationId(correlationId.getBytes(this.support.getEncoding()));
+        AMQP.BasicProperties properties = this.support.toProperties(request);
+
+        //A reply or a lost channel can complete the request before its timeout is set
+        final PendingReply pending = new PendingReply(exchange, callback, replyHandler);
+        this.pendingReplies.put(correlationId, pending);
+        pending.timeout = this.timeoutWheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if(pendingReplies.remove(correlationId, pending)) {
+                    LOG.debug("No reply received within {} ms for exchange {}", replyTimeout, pending.exchange.getExchangeId());
+                    complete(pending, null, new ExchangeTimedOutException(pending.exchange, replyTimeout));
+                }
+            }
+        }, replyTimeout);
+
+        try {
+            synchronized(this.channelMonitor) {
+                getReplyChannel().publish(exchangeName, routingKey, properties, request.getBody());
+            }
+        } catch(IOException | RuntimeException e) {
+            //If the channel's shutdown got to it first the exchange has already failed
+            if(this.pendingReplies.remove(correlationId, pending)) {
+                pending.cancelTimeout();
+                throw e;
+            }
+            LOG.debug("Request for exchange {} failed after its channel closed", exchange.getExchangeId(), e);
+        }
+    }
+
+    private ReplyChannel getReplyChannel() throws IOException {
+        if(this.replyChannel == null || !this.replyChannel.isOpen()) {
+            if(this.replyChannel != null)
+                this.replyChannel.close();
+            this.replyChannel = new ReplyChannel(this.connectionFactory.createConnection().createChannel(false));
+        }
+        return this.replyChannel;
+    }
+
+    private void onReply(Message reply) {
+        byte[] correlationBytes = reply.getMessageProperties().getCorrelationId();
+        if(correlationBytes == null) {
+            LOG.warn("Discarding reply without a correlation id on {}", this.replyQueue);
+            return;
+        }
+
+        String correlationId;
+        try {
+            correlationId = new String(correlationBytes, this.support.getEncoding());
+        } catch(UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+
+        PendingReply pending = this.pendingReplies.remove(correlationId);
+        if(pending == null) {
+            LOG.warn("Discarding late or unknown reply with correlation id {}", correlationId);
+            return;
+        }
+
+        pending.cancelTimeout();
+        complete(pending, reply, null);
+    }
+
+    private void failAll(Throwable failure) {
+        for(Map.Entry<String, PendingReply> entry : this.pendingReplies.entrySet()) {
+            if(this.pendingReplies.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().cancelTimeout();
+                complete(entry.getValue(), null, failure);
+            }
+        }
+    }
+
+    private void complete(final PendingReply pending, final Message reply, final Throwable failure) {
+        //Don't continue routing on the connection's I/O thread or the timer thread
+        this.support.complete(pending.exchange, pending.callback, new Runnable() {
+            @Override
+            public void run() {
+                if(failure != null)
+                    pending.exchange.setException(failure);
+                else
+                    pending.replyHandler.handleReply(pending.exchange, reply);
+            }
+        });
+    }
+
+    private class ReplyChannel extends DefaultConsumer {
+        private final Channel channel;
+        private final Channel targetChannel;
+
+        ReplyChannel(Channel channel) throws IOException {
+            super(channel instanceof ChannelProxy ? ((ChannelProxy) channel).getTargetChannel() : channel);
+            this.channel = channel;
+            this.targetChannel = getChannel();
+
+            if(! isDirectReplyTo())
+                this.targetChannel.queueDeclare(replyQueue, false, true, true, null);
+            this.targetChannel.basicConsume(replyQueue, true, this);
+            LOG.info("Consuming replies from {}", replyQueue);
+        }
+
+        void publish(String exchangeName, String routingKey, AMQP.BasicProperties properties, byte[] body) throws IOException {
+            this.targetChannel.basicPublish(exchangeName, routingKey, false, properties, body);
+        }
+
+        boolean isOpen() {
+            return this.targetChannel.isOpen();
+        }
+
+        void close() {
+            //Close the physical channel; it holds our consumer and must not be handed out again
+            RabbitUtils.closeChannel(this.targetChannel);
+            RabbitUtils.closeChannel(this.channel);
+        }
+
+        @Override
+        public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+            onReply(support.toMessage(properties, envelope, body));
+        }
+
+        @Override
+        public void handleShutdownSignal(String consumerTag, ShutdownSignalException cause) {
+            if(! cause.isInitiatedByApplication())
+                LOG.error("Reply channel for {} closed, failing {} outstanding requests", new Object[] {replyQueue, pendingReplies.size(), cause});
+            //Replies can't be routed to a new channel, so nothing outstanding can complete now
+            failAll(new AmqpException("Reply channel closed before a reply was received", cause));
+        }
+    }
+
+    private static class PendingReply {
+        private final Exchange exchange;
+        private final AsyncCallback callback;
+        private final ReplyHandler replyHandler;
+        private volatile SpringAMQPTimeoutWheel.Timeout timeout;
+
+        PendingReply(Exchange exchange, AsyncCallback callback, ReplyHandler replyHandler) {
+            this.exchange = exchange;
+            this.callback = callback;
+            this.replyHandler = replyHandler;
+        }
+
+        void cancelTimeout() {
+            SpringAMQPTimeoutWheel.Timeout scheduled = this.timeout;
+            if(scheduled != null)
+                scheduled.cancel();
+        }
+    }
+}
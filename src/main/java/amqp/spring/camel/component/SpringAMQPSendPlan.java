@@ -0,0 +1,99 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package amqp.spring.camel.component;
+
+import org.apache.camel.spi.HeaderFilterStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.AmqpTemplate;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.amqp.support.converter.SimpleMessageConverter;
+
+/**
+ * Everything a producer needs to know to send a message that doesn't change from one
+ * message to the next, worked out once as the producer starts: the message converter,
+ * the endpoint's exchange and routing key, which headers to send, how to compress
+ * bodies, and whether messages may pick their own exchange and routing key through headers.
+ */
+class SpringAMQPSendPlan {
+    private static transient final Logger LOG = LoggerFactory.getLogger(SpringAMQPSendPlan.class);
+
+    private final MessageConverter msgConverter;
+    private final String exchangeName;
+    private final String routingKey;
+    private final HeaderFilterStrategy headerFilter;
+    private final boolean dynamicRouting;
+    private final SpringAMQPEndpoint.Compression compression;
+    private final int compressionThreshold;
+
+    SpringAMQPSendPlan(MessageConverter msgConverter, String exchangeName, String routingKey, HeaderFilterStrategy headerFilter, boolean dynamicRouting) {
+        this(msgConverter, exchangeName, routingKey, headerFilter, dynamicRouting, SpringAMQPEndpoint.Compression.None, 0);
+    }
+
+    SpringAMQPSendPlan(MessageConverter msgConverter, String exchangeName, String routingKey, HeaderFilterStrategy headerFilter, boolean dynamicRouting,
+            SpringAMQPEndpoint.Compression compression, int compressionThreshold) {
+        this.msgConverter = msgConverter;
+        this.exchangeName = exchangeName;
+        this.routingKey = routingKey;
+        this.headerFilter = headerFilter;
+        this.dynamicRouting = dynamicRouting;
+        this.compression = compression;
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    static SpringAMQPSendPlan create(SpringAMQPEndpoint endpoint, AmqpTemplate amqpTemplate) {
+        return new SpringAMQPSendPlan(resolveMessageConverter(amqpTemplate), endpoint.getExchangeName(), endpoint.getRoutingKey(),
+                endpoint.getHeaderFilterStrategy(), endpoint.isDynamicRouting(), endpoint.getCompression(), endpoint.getCompressionThreshold());
+    }
+
+    static MessageConverter resolveMessageConverter(AmqpTemplate amqpTemplate) {
+        if(amqpTemplate instanceof RabbitTemplate) {
+            RabbitTemplate rabbitTemplate = (RabbitTemplate) amqpTemplate;
+            return rabbitTemplate.getMessageConverter();
+        } else {
+            LOG.warn("Cannot find RabbitMQ AMQP Template, falling back to simple message converter");
+            return new SimpleMessageConverter();
+        }
+    }
+
+    public MessageConverter getMessageConverter() {
+        return this.msgConverter;
+    }
+
+    public HeaderFilterStrategy getHeaderFilter() {
+        return this.headerFilter;
+    }
+
+    public boolean isDynamicRouting() {
+        return this.dynamicRouting;
+    }
+
+    public Message toAMQPMessage(org.apache.camel.Message message) {
+        Message amqpMessage = SpringAMQPMessage.toAMQPMessage(message, this.msgConverter, this.headerFilter);
+        return SpringAMQPCompression.compress(amqpMessage, this.compression, this.compressionThreshold);
+    }
+
+    public String getExchangeName(org.apache.camel.Message message) {
+        String exchangeNameHeader = this.dynamicRouting ? getHeader(message, SpringAMQPComponent.EXCHANGE_NAME_HEADER) : null;
+        return exchangeNameHeader != null ? exchangeNameHeader : this.exchangeName;
+    }
+
+    public String getRoutingKey(org.apache.camel.Message message) {
+        String routingKeyHeader = this.dynamicRouting ? getHeader(message, SpringAMQPComponent.ROUTING_KEY_HEADER) : null;
+        return routingKeyHeader != null ? routingKeyHeader : this.routingKey;
+    }
+
+    /**
+     * Only goes through Camel's type conversion for values that aren't already strings.
+     */
+    private static String getHeader(org.apache.camel.Message message, String name) {
+        Object value = message.getHeader(name);
+        if(value == null || value instanceof String)
+            return (String) value;
+        return message.getHeader(name, String.class);
+    }
+}
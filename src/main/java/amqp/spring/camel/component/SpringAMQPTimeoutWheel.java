@@ -0,0 +1,102 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package amqp.spring.camel.component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A hashed timer wheel for the large number of short-lived timeouts held by
+ * in-flight requests. Scheduling and cancelling are constant time; expiry is
+ * only accurate to one tick. The owner is expected to run() this once per tick.
+ */
+class SpringAMQPTimeoutWheel implements Runnable {
+    private static transient final Logger LOG = LoggerFactory.getLogger(SpringAMQPTimeoutWheel.class);
+    private static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private final long tickMillis;
+    private final List<Set<Timeout>> buckets;
+    private final int mask;
+    private final AtomicLong currentTick = new AtomicLong();
+
+    SpringAMQPTimeoutWheel(long tickMillis) {
+        this(tickMillis, DEFAULT_WHEEL_SIZE);
+    }
+
+    SpringAMQPTimeoutWheel(long tickMillis, int wheelSize) {
+        if(Integer.bitCount(wheelSize) != 1)
+            throw new IllegalArgumentException("Wheel size must be a power of two: " + wheelSize);
+
+        this.tickMillis = tickMillis;
+        this.mask = wheelSize - 1;
+        this.buckets = new ArrayList<>(wheelSize);
+        for(int i = 0; i < wheelSize; ++i)
+            this.buckets.add(Collections.newSetFromMap(new ConcurrentHashMap<Timeout, Boolean>()));
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    public Timeout schedule(Runnable task, long delayMillis) {
+        long ticks = Math.max(1, (delayMillis + this.tickMillis - 1) / this.tickMillis);
+        Timeout timeout = new Timeout(task, this.currentTick.get() + ticks);
+        timeout.bucket = this.buckets.get((int) (timeout.deadline & this.mask));
+        timeout.bucket.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Advance the wheel by one tick and expire everything that is due.
+     */
+    @Override
+    public void run() {
+        long tick = this.currentTick.incrementAndGet();
+        Iterator<Timeout> iterator = this.buckets.get((int) (tick & this.mask)).iterator();
+        while(iterator.hasNext()) {
+            Timeout timeout = iterator.next();
+            if(timeout.deadline <= tick) {
+                iterator.remove();
+                try {
+                    timeout.expire();
+                } catch(RuntimeException e) {
+                    LOG.error("Timeout task failed", e);
+                }
+            }
+        }
+    }
+
+    static class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private volatile Set<Timeout> bucket;
+        private final AtomicBoolean done = new AtomicBoolean(false);
+
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        public boolean cancel() {
+            if(! this.done.compareAndSet(false, true))
+                return false;
+            this.bucket.remove(this);
+            return true;
+        }
+
+        void expire() {
+            if(this.done.compareAndSet(false, true))
+                this.task.run();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+package amqp.spring.converter;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Scratch byte arrays shared by the converters, so serializing a message doesn't
+ * allocate (and regrow) a fresh buffer every time. Arrays come in power of two size
+ * classes from 1KB to 1MB; each class keeps at most about 1MB worth of idle arrays,
+ * and anything bigger than the largest class is allocated and dropped as usual.
+ *
+ * Pooled arrays never leave the converter: what goes into a Message is always an
+ * exact size copy taken with OutputBuffer.toByteArray().
+ */
+public final class BufferPool {
+    static final int MIN_SIZE = 1 << 10;
+    static final int MAX_SIZE = 1 << 20;
+    private static final int MAX_IDLE_BYTES = 1 << 20;
+    private static final int MAX_IDLE_BUFFERS = 32;
+
+    private static final BufferPool SHARED = new BufferPool();
+
+    private final List<ArrayBlockingQueue<byte[]>> sizeClasses;
+
+    BufferPool() {
+        int classCount = Integer.numberOfTrailingZeros(MAX_SIZE) - Integer.numberOfTrailingZeros(MIN_SIZE) + 1;
+        this.sizeClasses = new ArrayList<>(classCount);
+        for(int i = 0; i < classCount; ++i) {
+            int idleBuffers = Math.min(MAX_IDLE_BUFFERS, Math.max(1, MAX_IDLE_BYTES / (MIN_SIZE << i)));
+            this.sizeClasses.add(new ArrayBlockingQueue<byte[]>(idleBuffers));
+        }
+    }
+
+    public static BufferPool getShared() {
+        return SHARED;
+    }
+
+    /**
+     * @return an array of at least minSize bytes, with whatever was left in it
+     */
+    public byte[] acquire(int minSize) {
+        int sizeClass = sizeClassOf(minSize);
+        if(sizeClass < 0)
+            return new byte[minSize];
+
+        byte[] buffer = this.sizeClasses.get(sizeClass).poll();
+        return buffer != null ? buffer : new byte[MIN_SIZE << sizeClass];
+    }
+
+    /**
+     * Hand back an array from acquire(); it must not be used afterwards.
+     */
+    public void release(byte[] buffer) {
+        if(buffer == null || buffer.length < MIN_SIZE || buffer.length > MAX_SIZE || Integer.bitCount(buffer.length) != 1)
+            return;
+        this.sizeClasses.get(sizeClassOf(buffer.length)).offer(buffer);
+    }
+
+    /**
+     * A stream writing into pooled arrays; close it to give them back.
+     */
+    public OutputBuffer newOutputBuffer(int sizeHint) {
+        return new OutputBuffer(this, sizeHint);
+    }
+
+    int idleBuffers(int size) {
+        int sizeClass = sizeClassOf(size);
+        return sizeClass < 0 ? 0 : this.sizeClasses.get(sizeClass).size();
+    }
+
+    private static int sizeClassOf(int size) {
+        if(size > MAX_SIZE)
+            return -1;
+        if(size <= MIN_SIZE)
+            return 0;
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - Integer.numberOfTrailingZeros(MIN_SIZE);
+    }
+
+    /**
+     * Like ByteArrayOutputStream, but grows by swapping pooled arrays.
+     */
+    public static final class OutputBuffer extends OutputStream {
+        private final BufferPool pool;
+        private byte[] buffer;
+        private int count = 0;
+
+        private OutputBuffer(BufferPool pool, int sizeHint) {
+            this.pool = pool;
+            this.buffer = pool.acquire(Math.max(MIN_SIZE, sizeHint));
+        }
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(this.count + 1);
+            this.buffer[this.count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            ensureCapacity(this.count + length);
+            System.arraycopy(bytes, offset, this.buffer, this.count, length);
+            this.count += length;
+        }
+
+        public int size() {
+            return this.count;
+        }
+
+        public void reset() {
+            this.count = 0;
+        }
+
+        /**
+         * @return a copy of exactly what was written
+         */
+        public byte[] toByteArray() {
+            if(this.buffer == null)
+                throw new IllegalStateException("Buffer has been closed");
+            return Arrays.copyOf(this.buffer, this.count);
+        }
+
+        @Override
+        public void close() {
+            this.pool.release(this.buffer);
+            this.buffer = null;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if(this.buffer == null)
+                throw new IllegalStateException("Buffer has been closed");
+            if(capacity < 0)
+                throw new OutOfMemoryError("Buffer cannot hold more than "+Integer.MAX_VALUE+" bytes");
+            if(capacity <= this.buffer.length)
+                return;
+
+            int grown = this.buffer.length << 1;
+            byte[] larger = this.pool.acquire(grown > capacity ? grown : capacity);
+            System.arraycopy(this.buffer, 0, larger, 0, this.count);
+            this.pool.release(this.buffer);
+            this.buffer = larger;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+package amqp.spring.converter;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.ClassMapper;
+import org.springframework.amqp.support.converter.DefaultClassMapper;
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+/**
+ * Remembers the __TypeId__ header each class is sent with and the class each
+ * received type id resolves to, so after the first message of a type neither
+ * direction looks a class up by name. The lookups themselves are left to another
+ * ClassMapper (a DefaultClassMapper unless given one), which must only write the
+ * __TypeId__ header.
+ *
+ * Types can also be restricted to a whitelist of class names, where
+ * <code>com.example.*</code> allows the classes of a package and
+ * <code>com.example.**</code> those of its sub-packages too. Strings, boxed
+ * primitives, dates and the common collections are always allowed. With no
+ * whitelist every type is allowed.
+ */
+public class CachingClassMapper implements ClassMapper {
+    static final List<Class<?>> BASIC_TYPES = Collections.unmodifiableList(Arrays.<Class<?>>asList(
+        String.class, Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class,
+        Float.class, Double.class, BigDecimal.class, BigInteger.class, Date.class,
+        ArrayList.class, LinkedList.class, HashSet.class, LinkedHashSet.class, TreeSet.class,
+        HashMap.class, LinkedHashMap.class, TreeMap.class));
+
+    private final ClassMapper delegate;
+    private final List<String> allowedTypes;
+    private final ConcurrentMap<Class<?>, String> typeIds = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Class<?>> classes = new ConcurrentHashMap<>();
+
+    public CachingClassMapper() {
+        this(new DefaultClassMapper(), null);
+    }
+
+    public CachingClassMapper(List<String> allowedTypes) {
+        this(new DefaultClassMapper(), allowedTypes);
+    }
+
+    /**
+     * @param delegate mapper doing the lookups the cache misses
+     * @param allowedTypes class name patterns, or null to allow every type
+     */
+    public CachingClassMapper(ClassMapper delegate, List<String> allowedTypes) {
+        this.delegate = delegate;
+        this.allowedTypes = allowedTypes == null ? null : Collections.unmodifiableList(new ArrayList<>(allowedTypes));
+        if(this.allowedTypes != null) {
+            for(String pattern : this.allowedTypes) {
+                int wildcard = pattern.indexOf('*');
+                boolean valid = wildcard < 0
+                    || pattern.endsWith(".*") && wildcard == pattern.length() - 1
+                    || pattern.endsWith(".**") && wildcard == pattern.length() - 2;
+                if(! valid)
+                    throw new IllegalArgumentException("Type pattern "+pattern+" may only end in .* or .**");
+            }
+        }
+    }
+
+    ClassMapper getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * @return the class name patterns types are restricted to, or null if any type is allowed
+     */
+    public List<String> getAllowedTypes() {
+        return allowedTypes;
+    }
+
+    @Override
+    public void fromClass(Class<?> clazz, MessageProperties properties) {
+        String typeId = this.typeIds.get(clazz);
+        if(typeId == null) {
+            checkAllowed(clazz);
+            this.delegate.fromClass(clazz, properties);
+            typeId = (String) properties.getHeaders().get(DefaultClassMapper.DEFAULT_CLASSID_FIELD_NAME);
+            if(typeId != null)
+                this.typeIds.putIfAbsent(clazz, typeId);
+            return;
+        }
+        properties.getHeaders().put(DefaultClassMapper.DEFAULT_CLASSID_FIELD_NAME, typeId);
+    }
+
+    @Override
+    public Class<?> toClass(MessageProperties properties) {
+        Object typeId = properties.getHeaders().get(DefaultClassMapper.DEFAULT_CLASSID_FIELD_NAME);
+        Class<?> clazz = typeId instanceof String ? this.classes.get(typeId) : null;
+        if(clazz == null) {
+            clazz = this.delegate.toClass(properties);
+            checkAllowed(clazz);
+            //Only type ids that resolved to an allowed class are kept, so this can't grow past what's loadable
+            if(typeId instanceof String)
+                this.classes.putIfAbsent((String) typeId, clazz);
+        }
+        return clazz;
+    }
+
+    /**
+     * @return true if the class may be sent or received
+     */
+    public boolean isAllowed(Class<?> clazz) {
+        if(this.allowedTypes == null || clazz.isPrimitive() || BASIC_TYPES.contains(clazz))
+            return true;
+        if(clazz.isArray())
+            return isAllowed(clazz.getComponentType());
+
+        String className = clazz.getName();
+        for(String pattern : this.allowedTypes) {
+            if(pattern.endsWith(".**")) {
+                if(className.startsWith(pattern.substring(0, pattern.length() - 2)))
+                    return true;
+            } else if(pattern.endsWith(".*")) {
+                String packagePrefix = pattern.substring(0, pattern.length() - 1);
+                if(className.startsWith(packagePrefix) && className.indexOf('.', packagePrefix.length()) < 0)
+                    return true;
+            } else if(pattern.equals(className)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A mapper doing the same lookups as the given one, restricted to the allowed types.
+     */
+    static CachingClassMapper restrict(ClassMapper classMapper, List<String> allowedTypes) {
+        ClassMapper delegate = classMapper instanceof CachingClassMapper ? ((CachingClassMapper) classMapper).getDelegate() : classMapper;
+        return new CachingClassMapper(delegate == null ? new DefaultClassMapper() : delegate, allowedTypes);
+    }
+
+    private void checkAllowed(Class<?> clazz) {
+        if(clazz != null && !isAllowed(clazz))
+            throw new MessageConversionException("Type "+clazz.getName()+" is not an allowed message type");
+    }
+}
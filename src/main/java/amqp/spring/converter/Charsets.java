@@ -0,0 +1,35 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+package amqp.spring.converter;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Charsets looked up by name once, rather than on every getBytes(String) or new String(byte[], String).
+ * Only names that resolve are remembered, so the cache can't grow past the charsets the JVM knows.
+ */
+final class Charsets {
+    private static final ConcurrentMap<String, Charset> CHARSETS = new ConcurrentHashMap<>();
+
+    private Charsets() {
+    }
+
+    static Charset forName(String name) throws UnsupportedEncodingException {
+        Charset charset = CHARSETS.get(name);
+        if(charset == null) {
+            try {
+                charset = Charset.forName(name);
+            } catch (IllegalArgumentException ex) {
+                UnsupportedEncodingException unsupported = new UnsupportedEncodingException(name);
+                unsupported.initCause(ex);
+                throw unsupported;
+            }
+            CHARSETS.putIfAbsent(name, charset);
+        }
+        return charset;
+    }
+}
@@ -5,8 +5,11 @@ package amqp.spring.converter;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.springframework.amqp.core.Message;
 import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.MessagePropertiesBuilder;
 import org.springframework.amqp.support.converter.AbstractMessageConverter;
 import org.springframework.amqp.support.converter.MessageConversionException;
 import org.springframework.amqp.support.converter.MessageConverter;
@@ -15,22 +18,51 @@ import org.springframework.amqp.support.converter.MessageConverter;
  * This Spring AMQP MessageConverter does not actually perform the conversion - 
  * instead it find an appropriate converter given the content type
  * within the message's properties.
+ *
+ * Converters are registered by media type, and parameters such as charset don't
+ * get in the way of finding one. Besides exact media types, converters may be
+ * registered for a structured suffix (<code>application/*+json</code>), a whole
+ * type (<code>text/*</code>) or anything (<code>*&#47;*</code>), and the most
+ * specific one wins. Messages with no content type at all are treated as the
+ * default content type. Outgoing messages left with Spring AMQP's
+ * application/octet-stream go to the fallback converter unless a converter is
+ * registered for it.
+ *
+ * The converter found for each distinct content type is cached, so for all but
+ * the first message of a kind dispatching is a single lookup.
  */
 public class ContentTypeConverterFactory extends AbstractMessageConverter {
+    private static final int MAX_CACHED_CONTENT_TYPES = 256;
+
     protected Map<String, MessageConverter> converters;
     protected String defaultContentType = MessageProperties.CONTENT_TYPE_JSON;
     protected MessageConverter fallbackConverter = null;
+    //Registered converter (or none) by content type exactly as received, fallback not applied
+    private final ConcurrentMap<String, Match> matches = new ConcurrentHashMap<>();
 
     public ContentTypeConverterFactory() {
         this.converters = new HashMap<>();
     }
     
+    /**
+     * Changes made to the returned map are picked up as long as they're made before
+     * converting messages; afterwards use setConverters() or call clearConverterCache().
+     */
     public Map<String, MessageConverter> getConverters() {
         return converters;
     }
 
     public void setConverters(Map<String, MessageConverter> converters) {
         this.converters = converters;
+        this.matches.clear();
+    }
+
+    /**
+     * Forget the converter found for each content type, so changes to the converters
+     * map take effect.
+     */
+    public void clearConverterCache() {
+        this.matches.clear();
     }
 
     public String getDefaultContentType() {
@@ -52,7 +84,7 @@ public class ContentTypeConverterFactory extends AbstractMessageConverter {
     @Override
     protected Message createMessage(Object object, MessageProperties messageProperties) {
         String contentType = messageProperties.getContentType();
-        MessageConverter converter = converters.get(contentType);
+        MessageConverter converter = findConverter(contentType == null ? this.defaultContentType : contentType);
         if(converter == null) //Try to fall back
             converter = this.fallbackConverter;
         if(converter == null) //Can't even fall back, punt
@@ -64,16 +96,80 @@ public class ContentTypeConverterFactory extends AbstractMessageConverter {
     @Override
     public Object fromMessage(Message message) throws MessageConversionException {
         MessageProperties messageProperties = message.getMessageProperties();
-        String contentType = messageProperties.getContentType();
         if(messageProperties == null)
             throw new MessageConversionException("Cannot decode a message with no properties!");
+        String contentType = messageProperties.getContentType();
+        Message converted = message;
+        if(contentType == null && this.defaultContentType != null) {
+            //Converters check the content type themselves; hand them a copy rather than change the caller's message
+            contentType = this.defaultContentType;
+            MessageProperties defaultedProperties = MessagePropertiesBuilder.fromClonedProperties(messageProperties).setContentType(contentType).build();
+            converted = new Message(message.getBody(), defaultedProperties);
+        }
         
-        MessageConverter converter = converters.get(contentType);
+        MessageConverter converter = findConverter(contentType);
         if(converter == null) //Try to fall back
             converter = this.fallbackConverter;
         if(converter == null) //Can't even fall back, punt
             throw new MessageConversionException("Cannot find converter for content type of "+contentType);
         
-        return converter.fromMessage(message);
+        return converter.fromMessage(converted);
+    }
+
+    /**
+     * @return the converter registered for this content type, or null if there isn't one
+     */
+    protected MessageConverter findConverter(String contentType) {
+        if(contentType == null)
+            return null;
+
+        Match match = this.matches.get(contentType);
+        if(match == null) {
+            match = new Match(resolveConverter(contentType));
+            //Content types come off the wire, so don't let odd ones grow this without bound
+            if(this.matches.size() >= MAX_CACHED_CONTENT_TYPES)
+                this.matches.clear();
+            this.matches.put(contentType, match);
+        }
+        return match.converter;
+    }
+
+    /**
+     * The uncached lookup, most specific registration first.
+     */
+    protected MessageConverter resolveConverter(String contentType) {
+        MessageConverter converter = this.converters.get(contentType);
+        if(converter != null)
+            return converter;
+
+        Map<String, MessageConverter> registered = new HashMap<>();
+        for(Map.Entry<String, MessageConverter> entry : this.converters.entrySet()) {
+            String baseType = MediaTypes.baseType(entry.getKey());
+            if(baseType != null && !registered.containsKey(baseType))
+                registered.put(baseType, entry.getValue());
+        }
+
+        String baseType = MediaTypes.baseType(contentType);
+        converter = registered.get(baseType);
+        int slash = baseType.indexOf('/');
+        if(converter == null && slash > 0) {
+            String type = baseType.substring(0, slash);
+            int suffix = baseType.lastIndexOf('+');
+            if(suffix > slash)
+                converter = registered.get(type+"/*"+baseType.substring(suffix));
+            if(converter == null)
+                converter = registered.get(type+"/*");
+        }
+        if(converter == null)
+            converter = registered.get("*/*");
+        return converter;
+    }
+
+    private static class Match {
+        private final MessageConverter converter;
+
+        Match(MessageConverter converter) {
+            this.converter = converter;
+        }
     }
 }
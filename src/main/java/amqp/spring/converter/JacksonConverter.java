@@ -0,0 +1,176 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+package amqp.spring.converter;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectReader;
+import org.codehaus.jackson.map.ObjectWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.AbstractMessageConverter;
+import org.springframework.amqp.support.converter.ClassMapper;
+import org.springframework.amqp.support.converter.DefaultClassMapper;
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+/**
+ * Marshal (and un-marshal) a message into JSON using Jackson. The type of the object
+ * is carried in the __TypeId__ header, the same way XStreamConverter does it. JSON is
+ * always written as UTF-8, into buffers from the shared BufferPool, but may be received
+ * in any encoding.
+ *
+ * One ObjectMapper is shared by every message, and the readers and writers it hands
+ * out are kept per type, so the work of introspecting a class is only done once.
+ */
+public class JacksonConverter extends AbstractMessageConverter {
+    private static transient final Logger LOG = LoggerFactory.getLogger(JacksonConverter.class);
+
+    protected String contentType;
+    protected String contentEncoding;
+    protected ClassMapper classMapper;
+    protected ObjectMapper objectMapper;
+    protected final ConcurrentMap<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+    protected final ConcurrentMap<String, ObjectReader> readers = new ConcurrentHashMap<>();
+
+    public JacksonConverter() {
+        this(new ObjectMapper(), MessageProperties.CONTENT_TYPE_JSON, "UTF-8");
+    }
+
+    /**
+     * @param objectMapper mapper whose JsonFactory decides the wire format
+     * @param contentType the content type of the messages that format makes
+     * @param contentEncoding the character encoding of a textual format, null for a binary one
+     */
+    protected JacksonConverter(ObjectMapper objectMapper, String contentType, String contentEncoding) {
+        this.classMapper = new CachingClassMapper();
+        this.objectMapper = objectMapper;
+        this.contentType = contentType;
+        this.contentEncoding = contentEncoding;
+    }
+
+    public ObjectMapper getObjectMapper() {
+        return objectMapper;
+    }
+
+    /**
+     * Replace the mapper, e.g. with one configured with custom serializers.
+     */
+    public void setObjectMapper(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.writers.clear();
+        this.readers.clear();
+    }
+
+    public ClassMapper getClassMapper() {
+        return classMapper;
+    }
+
+    public void setClassMapper(ClassMapper classMapper) {
+        this.classMapper = classMapper;
+        this.readers.clear();
+    }
+
+    public List<String> getAllowedTypes() {
+        return this.classMapper instanceof CachingClassMapper ? ((CachingClassMapper) this.classMapper).getAllowedTypes() : null;
+    }
+
+    /**
+     * Only send and accept the given types; see CachingClassMapper for the patterns.
+     */
+    public void setAllowedTypes(List<String> allowedTypes) {
+        setClassMapper(CachingClassMapper.restrict(this.classMapper, allowedTypes));
+    }
+
+    @Override
+    protected Message createMessage(Object object, MessageProperties messageProperties) throws MessageConversionException {
+        byte[] body = null;
+        if(object != null) {
+            try(BufferPool.OutputBuffer outStream = BufferPool.getShared().newOutputBuffer(BufferPool.MIN_SIZE)) {
+                //The generator mustn't close the buffer, which would hand it back to the pool before it's copied
+                JsonGenerator generator = this.objectMapper.getJsonFactory().createJsonGenerator(outStream, JsonEncoding.UTF8);
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                getWriter(object.getClass()).writeValue(generator, object);
+                generator.close();
+                body = outStream.toByteArray();
+            } catch (IOException ex) {
+                LOG.error("Could not marshal message of type {}", object.getClass().getName(), ex);
+                throw new MessageConversionException("Could not marshal message of type "+object.getClass().getName(), ex);
+            }
+
+            classMapper.fromClass(object.getClass(), messageProperties);
+        }
+
+        messageProperties.setContentType(this.contentType);
+        messageProperties.setContentEncoding(this.contentEncoding);
+        messageProperties.setContentLength(body != null ? body.length : 0);
+        return new Message(body, messageProperties);
+    }
+
+    @Override
+    public Object fromMessage(Message message) throws MessageConversionException {
+        MessageProperties messageProperties = message.getMessageProperties();
+        if(messageProperties == null)
+            throw new MessageConversionException("Cannot decode a message with no properties!");
+
+        byte[] body = message.getBody();
+        if(body == null)
+            return null;
+
+        String messageContentType = messageProperties.getContentType();
+        if(! MediaTypes.isSameType(this.contentType, messageContentType))
+            throw new MessageConversionException("Cannot understand a message of type "+messageContentType);
+
+        String typeId = (String) messageProperties.getHeaders().get(DefaultClassMapper.DEFAULT_CLASSID_FIELD_NAME);
+        ObjectReader reader = getReader(typeId, messageProperties);
+
+        String messageEncoding = messageProperties.getContentEncoding();
+        if(messageEncoding == null)
+            messageEncoding = MediaTypes.charset(messageContentType);
+        try {
+            //Jackson detects the flavours of UTF on its own, and binary formats have no encoding
+            if(this.contentEncoding == null || messageEncoding == null || messageEncoding.regionMatches(true, 0, "UTF", 0, 3))
+                return reader.readValue(body);
+            return reader.readValue(new String(body, Charsets.forName(messageEncoding)));
+        } catch (UnsupportedEncodingException ex) {
+            LOG.error("Cannot decode messages encoded as {}", messageEncoding, ex);
+            throw new MessageConversionException("Cannot decode messages encoded as "+messageEncoding, ex);
+        } catch (IOException ex) {
+            LOG.error("Could not unmarshal message of type {}", typeId, ex);
+            throw new MessageConversionException("Could not unmarshal message of type "+typeId, ex);
+        }
+    }
+
+    protected ObjectWriter getWriter(Class<?> type) {
+        ObjectWriter writer = this.writers.get(type);
+        if(writer == null) {
+            writer = this.objectMapper.writerWithType(type);
+            ObjectWriter existing = this.writers.putIfAbsent(type, writer);
+            if(existing != null)
+                writer = existing;
+        }
+        return writer;
+    }
+
+    protected ObjectReader getReader(String typeId, MessageProperties messageProperties) {
+        ObjectReader reader = typeId == null ? null : this.readers.get(typeId);
+        if(reader == null) {
+            //Lets the class mapper pick a default type or complain about a missing one
+            reader = this.objectMapper.reader(this.classMapper.toClass(messageProperties));
+            if(typeId != null) {
+                ObjectReader existing = this.readers.putIfAbsent(typeId, reader);
+                if(existing != null)
+                    reader = existing;
+            }
+        }
+        return reader;
+    }
+}
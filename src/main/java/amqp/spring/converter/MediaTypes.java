@@ -0,0 +1,60 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+package amqp.spring.converter;
+
+import java.util.Locale;
+
+/**
+ * Just enough media type parsing for the converters: content types such as
+ * <code>Application/JSON; charset=UTF-8</code> are compared on their lower case
+ * type and subtype, and a charset parameter stands in for a missing content encoding.
+ */
+final class MediaTypes {
+    private MediaTypes() {
+    }
+
+    /**
+     * @return the type and subtype in lower case without parameters, or null for no content type
+     */
+    static String baseType(String contentType) {
+        if(contentType == null)
+            return null;
+        int parameters = contentType.indexOf(';');
+        String baseType = parameters < 0 ? contentType : contentType.substring(0, parameters);
+        return baseType.trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * @return true if both are the same media type, whatever their parameters
+     */
+    static boolean isSameType(String expected, String contentType) {
+        if(expected == null || contentType == null)
+            return expected == contentType;
+        if(expected.equalsIgnoreCase(contentType))
+            return true;
+        return baseType(expected).equals(baseType(contentType));
+    }
+
+    /**
+     * @return the value of the charset parameter, or null if there isn't one
+     */
+    static String charset(String contentType) {
+        if(contentType == null)
+            return null;
+        int parameter = contentType.indexOf(';');
+        while(parameter >= 0) {
+            int next = contentType.indexOf(';', parameter + 1);
+            String nameValue = (next < 0 ? contentType.substring(parameter + 1) : contentType.substring(parameter + 1, next)).trim();
+            int equals = nameValue.indexOf('=');
+            if(equals > 0 && "charset".equalsIgnoreCase(nameValue.substring(0, equals).trim())) {
+                String value = nameValue.substring(equals + 1).trim();
+                if(value.length() > 1 && value.startsWith("\"") && value.endsWith("\""))
+                    value = value.substring(1, value.length() - 1);
+                return value.isEmpty() ? null : value;
+            }
+            parameter = next;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,24 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+package amqp.spring.converter;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.smile.SmileFactory;
+
+/**
+ * Marshal (and un-marshal) a message into Smile, Jackson's binary form of JSON, for
+ * the content type application/x-jackson-smile. Smile carries the same data model as
+ * JSON but writes numbers in binary and refers back to repeated field names, so
+ * messages are a good deal smaller and quicker to read and write.
+ *
+ * jackson-smile is an optional dependency of this component: add
+ * org.codehaus.jackson:jackson-smile (the same version as jackson-mapper-asl) to use it.
+ */
+public class SmileConverter extends JacksonConverter {
+    public static final String CONTENT_TYPE_SMILE = "application/x-jackson-smile";
+
+    public SmileConverter() {
+        super(new ObjectMapper(new SmileFactory()), CONTENT_TYPE_SMILE, null);
+    }
+}
@@ -42,7 +42,7 @@ public class StringConverter extends AbstractMessageConverter {
         try {
             byte[] body = null;
             if(object != null) {
-                body = object.toString().getBytes(this.encoding);
+                body = object.toString().getBytes(Charsets.forName(this.encoding));
             }
             
             String msgContentType = this.contentType == null ? DEFAULT_CONTENT_TYPE : this.contentType;
@@ -66,16 +66,18 @@ public class StringConverter extends AbstractMessageConverter {
         if(body == null)
             return null;
 
+        String messageContentType = messageProperties.getContentType();
+        if(this.contentType != null && ! MediaTypes.isSameType(this.contentType, messageContentType))
+            throw new MessageConversionException("Cannot understand a message of type "+messageContentType);
+
         String messageEncoding = messageProperties.getContentEncoding();
+        if(messageEncoding == null)
+            messageEncoding = MediaTypes.charset(messageContentType);
         if(messageEncoding == null)
             messageEncoding = this.encoding;
 
-        String messageContentType = messageProperties.getContentType();
-        if(this.contentType != null && ! this.contentType.equalsIgnoreCase(messageContentType))
-            throw new MessageConversionException("Cannot understand a message of type "+messageContentType);
-
         try {
-            return new String(body, messageEncoding);
+            return new String(body, Charsets.forName(messageEncoding));
         } catch (UnsupportedEncodingException ex) {
             LOG.error("Cannot dencode strings as {}", this.encoding, ex);
             throw new MessageConversionException("Cannot dencode strings as "+this.encoding, ex);
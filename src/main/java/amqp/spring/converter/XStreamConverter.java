@@ -8,9 +8,15 @@ import com.thoughtworks.xstream.XStreamException;
 import com.thoughtworks.xstream.io.xml.QNameMap;
 import com.thoughtworks.xstream.io.xml.StaxReader;
 import com.thoughtworks.xstream.io.xml.StaxWriter;
+import com.thoughtworks.xstream.security.AnyTypePermission;
+import com.thoughtworks.xstream.security.ArrayTypePermission;
+import com.thoughtworks.xstream.security.NoTypePermission;
+import com.thoughtworks.xstream.security.NullPermission;
+import com.thoughtworks.xstream.security.PrimitiveTypePermission;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import javax.xml.stream.XMLStreamException;
 import org.codehaus.jettison.mapped.MappedXMLInputFactory;
@@ -26,6 +32,13 @@ import org.springframework.amqp.support.converter.MessageConversionException;
 
 /**
  * Marshal (and un-marshal) a message into JSON using XStream
+ *
+ * The StAX readers and writers are bound to one message's stream and so are made per
+ * message, but the (empty) QName map they look names up in is shared, and messages
+ * are written into buffers from the shared BufferPool.
+ *
+ * Given allowed types, XStream is told to refuse everything else too, rather than
+ * instantiating whatever class a message names.
  */
 public class XStreamConverter extends AbstractMessageConverter {
     private static transient final Logger LOG = LoggerFactory.getLogger(XStreamConverter.class);
@@ -35,14 +48,16 @@ public class XStreamConverter extends AbstractMessageConverter {
     protected XStream objectMapper;
     protected MappedXMLOutputFactory outputFactory;
     protected MappedXMLInputFactory inputFactory;
+    protected QNameMap qnameMap;
 
     public XStreamConverter() {
-        this.classMapper = new DefaultClassMapper();
+        this.classMapper = new CachingClassMapper();
         
  	Map nstjsons = new HashMap();
         this.outputFactory = new MappedXMLOutputFactory(nstjsons);
         this.inputFactory = new MappedXMLInputFactory(nstjsons);
         this.objectMapper = new XStream();
+        this.qnameMap = new QNameMap();
     }
 
     public String getEncoding() {
@@ -53,15 +68,48 @@ public class XStreamConverter extends AbstractMessageConverter {
         this.encoding = encoding;
     }
 
+    public List<String> getAllowedTypes() {
+        return this.classMapper instanceof CachingClassMapper ? ((CachingClassMapper) this.classMapper).getAllowedTypes() : null;
+    }
+
+    /**
+     * Only send and accept the given types; see CachingClassMapper for the patterns.
+     */
+    public void setAllowedTypes(List<String> allowedTypes) {
+        this.classMapper = CachingClassMapper.restrict(this.classMapper, allowedTypes);
+        if(allowedTypes == null) {
+            this.objectMapper.addPermission(AnyTypePermission.ANY);
+            return;
+        }
+
+        List<String> typeNames = new ArrayList<>();
+        List<String> wildcards = new ArrayList<>();
+        for(String allowedType : allowedTypes) {
+            if(allowedType.indexOf('*') >= 0)
+                wildcards.add(allowedType);
+            else
+                typeNames.add(allowedType);
+        }
+
+        this.objectMapper.addPermission(NoTypePermission.NONE);
+        this.objectMapper.addPermission(NullPermission.NULL);
+        this.objectMapper.addPermission(PrimitiveTypePermission.PRIMITIVES);
+        this.objectMapper.addPermission(ArrayTypePermission.ARRAYS);
+        this.objectMapper.allowTypes(CachingClassMapper.BASIC_TYPES.toArray(new Class<?>[0]));
+        this.objectMapper.allowTypes(typeNames.toArray(new String[typeNames.size()]));
+        this.objectMapper.allowTypesByWildcard(wildcards.toArray(new String[wildcards.size()]));
+    }
+
     @Override
     protected Message createMessage(Object object, MessageProperties messageProperties) throws MessageConversionException {
         try {
             byte[] body = null;
             if(object != null) {
-                ByteArrayOutputStream outStream = new ByteArrayOutputStream();
-                StaxWriter writer = new StaxWriter(new QNameMap(), this.outputFactory.createXMLStreamWriter(outStream));
-                this.objectMapper.marshal(object, writer);
-                body = outStream.toByteArray();
+                try(BufferPool.OutputBuffer outStream = BufferPool.getShared().newOutputBuffer(BufferPool.MIN_SIZE)) {
+                    StaxWriter writer = new StaxWriter(this.qnameMap, this.outputFactory.createXMLStreamWriter(outStream));
+                    this.objectMapper.marshal(object, writer);
+                    body = outStream.toByteArray();
+                }
                 
                 classMapper.fromClass(object.getClass(), messageProperties);
             }
@@ -92,17 +140,19 @@ public class XStreamConverter extends AbstractMessageConverter {
         if(body == null)
             return null;
 
+        String contentType = messageProperties.getContentType();
+        if(! MediaTypes.isSameType(MessageProperties.CONTENT_TYPE_JSON, contentType))
+            throw new MessageConversionException("Cannot understand a message of type "+contentType);
+
         String messageEncoding = messageProperties.getContentEncoding();
+        if(messageEncoding == null)
+            messageEncoding = MediaTypes.charset(contentType);
         if(messageEncoding == null)
             messageEncoding = getEncoding();
 
-        String contentType = messageProperties.getContentType();
-        if(! MessageProperties.CONTENT_TYPE_JSON.equalsIgnoreCase(contentType))
-            throw new MessageConversionException("Cannot understand a message of type "+contentType);
-
         try {
             ByteArrayInputStream inStream = new ByteArrayInputStream(body);
-            StaxReader reader = new StaxReader(new QNameMap(), this.inputFactory.createXMLStreamReader(inStream, messageEncoding));
+            StaxReader reader = new StaxReader(this.qnameMap, this.inputFactory.createXMLStreamReader(inStream, messageEncoding));
             return this.objectMapper.unmarshal(reader);
         } catch (XMLStreamException ex) {
             String typeId = (String) messageProperties.getHeaders().get(DefaultClassMapper.DEFAULT_CLASSID_FIELD_NAME);
@@ -0,0 +1,89 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+package amqp.spring.camel.component;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import org.junit.Assert;
+import org.springframework.amqp.rabbit.connection.Connection;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+
+/**
+ * A confirm-mode channel, and a connection factory handing it out, that only confirms
+ * or closes when the test says so.
+ */
+class ConfirmingChannel implements InvocationHandler {
+    final Channel channel = (Channel) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Channel.class}, this);
+    private final Connection connection = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Connection.class}, new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if("createChannel".equals(method.getName()))
+                return channel;
+            throw new UnsupportedOperationException(method.getName());
+        }
+    });
+    final ConnectionFactory connectionFactory = (ConnectionFactory) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {ConnectionFactory.class}, new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if("createConnection".equals(method.getName()))
+                return connection;
+            throw new UnsupportedOperationException(method.getName());
+        }
+    });
+    volatile ConfirmListener confirmListener;
+    volatile ShutdownListener shutdownListener;
+    private long nextPublishSeqNo = 1;
+    private boolean open = true;
+
+    @Override
+    public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch(method.getName()) {
+            case "confirmSelect":
+                return null;
+            case "close":
+                this.open = false;
+                return null;
+            case "addConfirmListener":
+                this.confirmListener = (ConfirmListener) args[0];
+                return null;
+            case "addShutdownListener":
+                this.shutdownListener = (ShutdownListener) args[0];
+                return null;
+            case "getNextPublishSeqNo":
+                return this.nextPublishSeqNo;
+            case "basicPublish":
+                this.nextPublishSeqNo++;
+                notifyAll();
+                return null;
+            case "isOpen":
+                return this.open;
+            case "toString":
+                return "ConfirmingChannel";
+            default:
+                throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    /**
+     * Close the channel as the broker would, telling its shutdown listener.
+     */
+    void lose(ShutdownSignalException cause) {
+        synchronized(this) {
+            this.open = false;
+        }
+        this.shutdownListener.shutdownCompleted(cause);
+    }
+
+    synchronized void awaitPublished(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while(this.nextPublishSeqNo <= count && System.currentTimeMillis() < deadline)
+            wait(100);
+        Assert.assertEquals(count + 1, this.nextPublishSeqNo);
+    }
+}
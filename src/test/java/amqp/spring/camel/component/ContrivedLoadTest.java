@@ -67,13 +67,22 @@ public class ContrivedLoadTest {
     }
     @Test
     public void testAsynchronous() throws Exception {
+        requestAsynchronously("direct:sync");
+    }
+    
+    @Test
+    public void testAsynchronousSharedReplyQueue() throws Exception {
+        requestAsynchronously("direct:syncSharedReply");
+    }
+    
+    private void requestAsynchronously(String endpointUri) throws Exception {
         final int messageCount = 1000;
         int received = 0;
         List<Future<String>> futures = new ArrayList<>();
         
         long startTime = System.currentTimeMillis();
         for(int i=0; i < messageCount; ++i)
-            futures.add(this.template.asyncRequestBody("direct:sync", "HELLO WORLD", String.class));
+            futures.add(this.template.asyncRequestBody(endpointUri, "HELLO WORLD", String.class));
         LOG.info("Time to submit asynchronous messages: {}", (System.currentTimeMillis() - startTime) / 1000.0f);
 
         startTime = System.currentTimeMillis();
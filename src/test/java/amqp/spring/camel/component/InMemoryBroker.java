@@ -0,0 +1,1440 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+package amqp.spring.camel.component;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Address;
+import com.rabbitmq.client.BlockedListener;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.GetResponse;
+import com.rabbitmq.client.ReturnListener;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import com.rabbitmq.client.impl.AMQImpl;
+import com.rabbitmq.client.impl.Frame;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An AMQP 0-9-1 broker held in memory, so routes can be run end to end without
+ * RabbitMQ. It hands out RabbitMQ client Connections and Channels backed by
+ * dynamic proxies and follows RabbitMQ's behaviour for what this component and
+ * Spring AMQP use:
+ *
+ *  - direct, fanout, topic and headers exchanges, exchange to exchange bindings,
+ *    the default exchange and the predeclared amq.* exchanges
+ *  - exclusive, auto-delete and server-named queues, per-message and per-queue
+ *    TTLs, and dead lettering of rejected and expired messages
+ *  - consumers served round robin, limited by basic.qos prefetch per consumer
+ *  - acks, nacks, rejects and recover, with unknown delivery tags closing the channel
+ *  - publisher confirms, mandatory returns, transactions and direct reply-to
+ *  - connection.blocked notifications, through block() and unblock()
+ *
+ * Message properties are passed through the client's own wire encoding, so
+ * headers come out the way they would from a real broker (strings as LongStrings).
+ * Callbacks to consumers and listeners are made in order from one thread per channel,
+ * as the RabbitMQ client does. Channel errors close the channel and surface as an
+ * IOException caused by a ShutdownSignalException.
+ */
+public class InMemoryBroker {
+    private static transient final Logger LOG = LoggerFactory.getLogger(InMemoryBroker.class);
+
+    public static final String DIRECT_REPLY_TO = "amq.rabbitmq.reply-to";
+
+    private static final String DEFAULT_EXCHANGE = "";
+    private static final ConcurrentMap<Method, Method> OPERATIONS = new ConcurrentHashMap<>();
+    private static final List<String> EXCHANGE_TYPES = Arrays.asList("direct", "fanout", "topic", "headers");
+
+    private final Map<String, BrokerExchange> exchanges = new HashMap<>();
+    private final Map<String, BrokerQueue> queues = new HashMap<>();
+    private final Map<String, ConsumerRegistration> replyConsumers = new HashMap<>();
+    private final Set<ConsumerRegistration> exclusiveConsumers = new HashSet<>();
+    private final Set<BrokerConnection> connections = new LinkedHashSet<>();
+    //Queues that may have something to deliver once the current operation is done
+    private final Set<BrokerQueue> pendingDispatch = new LinkedHashSet<>();
+    private final AtomicInteger connectionIds = new AtomicInteger();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong acknowledged = new AtomicLong();
+    private volatile String blockedReason = null;
+
+    public InMemoryBroker() {
+        declareBuiltIn(DEFAULT_EXCHANGE, "direct");
+        declareBuiltIn("amq.direct", "direct");
+        declareBuiltIn("amq.fanout", "fanout");
+        declareBuiltIn("amq.topic", "topic");
+        declareBuiltIn("amq.headers", "headers");
+        declareBuiltIn("amq.match", "headers");
+    }
+
+    /**
+     * A RabbitMQ ConnectionFactory whose connections go to this broker, for handing to
+     * a Spring CachingConnectionFactory in place of a real one.
+     */
+    public ConnectionFactory getConnectionFactory() {
+        return new ConnectionFactory() {
+            @Override
+            public Connection newConnection(ExecutorService executor, Address[] addresses) {
+                return InMemoryBroker.this.newConnection();
+            }
+
+            @Override
+            public String toString() {
+                return "InMemoryConnectionFactory";
+            }
+        };
+    }
+
+    public Connection newConnection() {
+        BrokerConnection connection = new BrokerConnection(this.connectionIds.incrementAndGet());
+        synchronized(this) {
+            this.connections.add(connection);
+        }
+        return connection.proxy;
+    }
+
+    public synchronized boolean exchangeExists(String name) {
+        return this.exchanges.containsKey(name);
+    }
+
+    public synchronized boolean queueExists(String name) {
+        return this.queues.containsKey(name);
+    }
+
+    /**
+     * @return the number of messages ready for delivery, not counting those awaiting acknowledgement
+     */
+    public synchronized int getMessageCount(String queueName) {
+        BrokerQueue queue = this.queues.get(queueName);
+        return queue == null ? 0 : queue.ready.size();
+    }
+
+    public synchronized int getConsumerCount(String queueName) {
+        BrokerQueue queue = this.queues.get(queueName);
+        return queue == null ? 0 : queue.consumers.size();
+    }
+
+    public synchronized int getOpenConnectionCount() {
+        return this.connections.size();
+    }
+
+    public long getPublishedCount() {
+        return this.published.get();
+    }
+
+    public long getDeliveredCount() {
+        return this.delivered.get();
+    }
+
+    public long getAcknowledgedCount() {
+        return this.acknowledged.get();
+    }
+
+    /**
+     * Tell every connection it is blocked, as RabbitMQ does when a resource alarm goes
+     * off; publishes wait until unblock() is called.
+     */
+    public void block(String reason) {
+        List<BrokerConnection> open;
+        synchronized(this) {
+            this.blockedReason = reason;
+            open = new ArrayList<>(this.connections);
+        }
+        for(BrokerConnection connection : open) {
+            for(BlockedListener listener : connection.blockedListeners) {
+                try {
+                    listener.handleBlocked(reason);
+                } catch(IOException | RuntimeException e) {
+                    LOG.warn("Blocked listener {} failed", listener, e);
+                }
+            }
+        }
+    }
+
+    public void unblock() {
+        List<BrokerConnection> open;
+        synchronized(this) {
+            this.blockedReason = null;
+            open = new ArrayList<>(this.connections);
+            notifyAll();
+        }
+        for(BrokerConnection connection : open) {
+            for(BlockedListener listener : connection.blockedListeners) {
+                try {
+                    listener.handleUnblocked();
+                } catch(IOException | RuntimeException e) {
+                    LOG.warn("Blocked listener {} failed", listener, e);
+                }
+            }
+        }
+    }
+
+    private void declareBuiltIn(String name, String type) {
+        this.exchanges.put(name, new BrokerExchange(name, type, true, false, false));
+    }
+
+    /**
+     * Deliver whatever queues touched by the last operation can now deliver.
+     * Must be called holding the broker's lock.
+     */
+    private void dispatchPending() {
+        while(! this.pendingDispatch.isEmpty()) {
+            Iterator<BrokerQueue> pending = this.pendingDispatch.iterator();
+            BrokerQueue queue = pending.next();
+            pending.remove();
+            if(this.queues.get(queue.name) == queue)
+                dispatch(queue);
+        }
+    }
+
+    private void dispatch(BrokerQueue queue) {
+        long now = System.currentTimeMillis();
+        while(! queue.ready.isEmpty() && ! queue.consumers.isEmpty()) {
+            QueuedMessage message = queue.ready.peekFirst();
+            if(message.isExpired(now)) {
+                queue.ready.pollFirst();
+                deadLetter(queue, message, "expired");
+                continue;
+            }
+
+            ConsumerRegistration consumer = nextConsumer(queue);
+            if(consumer == null)
+                return;
+            queue.ready.pollFirst();
+            consumer.channel.deliver(consumer, queue, message);
+        }
+    }
+
+    private ConsumerRegistration nextConsumer(BrokerQueue queue) {
+        for(int i = 0; i < queue.consumers.size(); ++i) {
+            int index = (queue.nextConsumer + i) % queue.consumers.size();
+            ConsumerRegistration consumer = queue.consumers.get(index);
+            if(consumer.hasCapacity()) {
+                queue.nextConsumer = index + 1;
+                return consumer;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Route a message from an exchange into queues.
+     * @return true if it reached at least one queue
+     */
+    private boolean route(BrokerExchange exchange, String routingKey, AMQP.BasicProperties properties, byte[] body) {
+        Set<BrokerQueue> destinations = new LinkedHashSet<>();
+        collectDestinations(exchange, routingKey, properties.getHeaders(), destinations, new LinkedHashSet<String>());
+
+        long now = System.currentTimeMillis();
+        for(BrokerQueue queue : destinations) {
+            queue.ready.addLast(new QueuedMessage(exchange.name, routingKey, properties, body.clone(), queue.expiresAt(properties, now)));
+            this.pendingDispatch.add(queue);
+        }
+        return ! destinations.isEmpty();
+    }
+
+    private void collectDestinations(BrokerExchange exchange, String routingKey, Map<String, Object> headers, Set<BrokerQueue> destinations, Set<String> visited) {
+        if(! visited.add(exchange.name))
+            return;
+
+        if(exchange.name.equals(DEFAULT_EXCHANGE)) {
+            BrokerQueue queue = this.queues.get(routingKey);
+            if(queue != null)
+                destinations.add(queue);
+            return;
+        }
+
+        for(Binding binding : exchange.bindings) {
+            if(! binding.matches(exchange.type, routingKey, headers))
+                continue;
+            if(binding.toExchange) {
+                BrokerExchange destination = this.exchanges.get(binding.destination);
+                if(destination != null)
+                    collectDestinations(destination, routingKey, headers, destinations, visited);
+            } else {
+                BrokerQueue queue = this.queues.get(binding.destination);
+                if(queue != null)
+                    destinations.add(queue);
+            }
+        }
+    }
+
+    private void deadLetter(BrokerQueue queue, QueuedMessage message, String reason) {
+        Object exchangeName = queue.arguments.get("x-dead-letter-exchange");
+        BrokerExchange exchange = exchangeName == null ? null : this.exchanges.get(exchangeName.toString());
+        if(exchange == null)
+            return;
+
+        Object deadLetterKey = queue.arguments.get("x-dead-letter-routing-key");
+        String routingKey = deadLetterKey == null ? message.routingKey : deadLetterKey.toString();
+
+        Map<String, Object> death = new LinkedHashMap<>();
+        death.put("reason", reason);
+        death.put("queue", queue.name);
+        death.put("time", new Date());
+        death.put("exchange", message.exchange);
+        death.put("routing-keys", Collections.singletonList(message.routingKey));
+        Map<String, Object> headers = message.properties.getHeaders() == null ? new LinkedHashMap<String, Object>() : new LinkedHashMap<>(message.properties.getHeaders());
+        List<Object> deaths = new ArrayList<>();
+        deaths.add(death);
+        if(headers.get("x-death") instanceof List)
+            deaths.addAll((List<?>) headers.get("x-death"));
+        headers.put("x-death", deaths);
+
+        AMQP.BasicProperties properties = copyProperties(message.properties.builder().headers(headers).expiration(null).build());
+        route(exchange, routingKey, properties, message.body);
+    }
+
+    private void deleteQueue(BrokerQueue queue) {
+        this.queues.remove(queue.name);
+        for(BrokerExchange exchange : new ArrayList<>(this.exchanges.values())) {
+            Iterator<Binding> bindings = exchange.bindings.iterator();
+            while(bindings.hasNext()) {
+                Binding binding = bindings.next();
+                if(! binding.toExchange && binding.destination.equals(queue.name))
+                    bindings.remove();
+            }
+            deleteIfUnused(exchange);
+        }
+        //The broker tells consumers of a deleted queue they've been cancelled
+        for(ConsumerRegistration consumer : new ArrayList<>(queue.consumers)) {
+            consumer.channel.consumers.remove(consumer.tag);
+            exclusiveConsumers.remove(consumer);
+            consumer.channel.notifyCancelled(consumer);
+        }
+        queue.consumers.clear();
+    }
+
+    private void deleteIfUnused(BrokerExchange exchange) {
+        if(exchange.autoDelete && exchange.hadBindings && exchange.bindings.isEmpty())
+            this.exchanges.remove(exchange.name);
+    }
+
+    private void removeConsumer(ConsumerRegistration consumer) {
+        BrokerQueue queue = this.queues.get(consumer.queue);
+        if(queue == null)
+            return;
+        queue.consumers.remove(consumer);
+        if(queue.autoDelete && queue.consumers.isEmpty())
+            deleteQueue(queue);
+    }
+
+    /**
+     * Copy properties through the wire format, so they come out as a real broker would send them.
+     */
+    private static AMQP.BasicProperties copyProperties(AMQP.BasicProperties properties) {
+        try {
+            Frame frame = properties.toFrame(0, 0);
+            DataInputStream in = frame.getInputStream();
+            in.readShort(); //class id
+            return new AMQP.BasicProperties(in);
+        } catch(IOException e) {
+            throw new IllegalArgumentException("Cannot encode message properties "+properties, e);
+        }
+    }
+
+    private static int intValue(Object value, int defaultValue) {
+        return value instanceof Number ? ((Number) value).intValue() : defaultValue;
+    }
+
+    private static class BrokerExchange {
+        private final String name;
+        private final String type;
+        private final boolean durable;
+        private final boolean autoDelete;
+        private final boolean internal;
+        private final List<Binding> bindings = new ArrayList<>();
+        private boolean hadBindings = false;
+
+        BrokerExchange(String name, String type, boolean durable, boolean autoDelete, boolean internal) {
+            this.name = name;
+            this.type = type;
+            this.durable = durable;
+            this.autoDelete = autoDelete;
+            this.internal = internal;
+        }
+    }
+
+    private static class Binding {
+        private final String destination;
+        private final boolean toExchange;
+        private final String routingKey;
+        private final Map<String, Object> arguments;
+
+        Binding(String destination, boolean toExchange, String routingKey, Map<String, Object> arguments) {
+            this.destination = destination;
+            this.toExchange = toExchange;
+            this.routingKey = routingKey == null ? "" : routingKey;
+            this.arguments = arguments == null ? Collections.<String, Object>emptyMap() : new HashMap<>(arguments);
+        }
+
+        boolean sameAs(String destination, boolean toExchange, String routingKey, Map<String, Object> arguments) {
+            return this.destination.equals(destination) && this.toExchange == toExchange && this.routingKey.equals(routingKey == null ? "" : routingKey)
+                && this.arguments.equals(arguments == null ? Collections.<String, Object>emptyMap() : arguments);
+        }
+
+        boolean matches(String exchangeType, String messageKey, Map<String, Object> headers) {
+            switch(exchangeType) {
+                case "fanout":
+                    return true;
+                case "topic":
+                    return topicMatches(this.routingKey.split("\\.", -1), 0, messageKey.split("\\.", -1), 0);
+                case "headers":
+                    return headersMatch(headers);
+                default:
+                    return this.routingKey.equals(messageKey);
+            }
+        }
+
+        private static boolean topicMatches(String[] pattern, int p, String[] words, int w) {
+            if(p == pattern.length)
+                return w == words.length;
+            if(pattern[p].equals("#")) {
+                for(int skip = w; skip <= words.length; ++skip) {
+                    if(topicMatches(pattern, p + 1, words, skip))
+                        return true;
+                }
+                return false;
+            }
+            if(w == words.length)
+                return false;
+            return (pattern[p].equals("*") || pattern[p].equals(words[w])) && topicMatches(pattern, p + 1, words, w + 1);
+        }
+
+        private boolean headersMatch(Map<String, Object> headers) {
+            Object matchMode = this.arguments.get("x-match");
+            boolean any = matchMode != null && "any".equals(matchMode.toString());
+            boolean matchedAny = false;
+            for(Map.Entry<String, Object> argument : this.arguments.entrySet()) {
+                if(argument.getKey().startsWith("x-"))
+                    continue;
+                Object header = headers == null ? null : headers.get(argument.getKey());
+                boolean matched = headers != null && headers.containsKey(argument.getKey())
+                    && (argument.getValue() == null || header != null && argument.getValue().toString().equals(header.toString()));
+                if(any && matched)
+                    return true;
+                if(! any && ! matched)
+                    return false;
+                matchedAny |= matched;
+            }
+            return ! any || matchedAny;
+        }
+    }
+
+    private static class BrokerQueue {
+        private final String name;
+        private final boolean durable;
+        private final boolean exclusive;
+        private final boolean autoDelete;
+        private final Map<String, Object> arguments;
+        private final BrokerConnection owner;
+        private final Deque<QueuedMessage> ready = new ArrayDeque<>();
+        private final List<ConsumerRegistration> consumers = new ArrayList<>();
+        private int nextConsumer = 0;
+
+        BrokerQueue(String name, boolean durable, boolean exclusive, boolean autoDelete, Map<String, Object> arguments, BrokerConnection owner) {
+            this.name = name;
+            this.durable = durable;
+            this.exclusive = exclusive;
+            this.autoDelete = autoDelete;
+            this.arguments = arguments == null ? Collections.<String, Object>emptyMap() : new HashMap<>(arguments);
+            this.owner = exclusive ? owner : null;
+        }
+
+        long expiresAt(AMQP.BasicProperties properties, long now) {
+            long expiresAt = Long.MAX_VALUE;
+            Object queueTtl = this.arguments.get("x-message-ttl");
+            if(queueTtl instanceof Number)
+                expiresAt = now + ((Number) queueTtl).longValue();
+            if(properties.getExpiration() != null) {
+                try {
+                    expiresAt = Math.min(expiresAt, now + Long.parseLong(properties.getExpiration()));
+                } catch(NumberFormatException e) {
+                    //Real brokers refuse these on publish; don't expire them here
+                }
+            }
+            return expiresAt;
+        }
+    }
+
+    private static class QueuedMessage {
+        private final String exchange;
+        private final String routingKey;
+        private final AMQP.BasicProperties properties;
+        private final byte[] body;
+        private final long expiresAt;
+        private boolean redelivered = false;
+
+        QueuedMessage(String exchange, String routingKey, AMQP.BasicProperties properties, byte[] body, long expiresAt) {
+            this.exchange = exchange;
+            this.routingKey = routingKey;
+            this.properties = properties;
+            this.body = body;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now >= this.expiresAt;
+        }
+    }
+
+    private static class ConsumerRegistration {
+        private final BrokerChannel channel;
+        private final String tag;
+        private final String queue;
+        private final boolean autoAck;
+        private final int prefetch;
+        private final Consumer consumer;
+        private int unacked = 0;
+
+        ConsumerRegistration(BrokerChannel channel, String tag, String queue, boolean autoAck, int prefetch, Consumer consumer) {
+            this.channel = channel;
+            this.tag = tag;
+            this.queue = queue;
+            this.autoAck = autoAck;
+            this.prefetch = prefetch;
+            this.consumer = consumer;
+        }
+
+        boolean hasCapacity() {
+            return this.autoAck || this.prefetch == 0 || this.unacked < this.prefetch;
+        }
+    }
+
+    private static class Unacked {
+        private final BrokerQueue queue;
+        private final QueuedMessage message;
+        private final ConsumerRegistration consumer;
+
+        Unacked(BrokerQueue queue, QueuedMessage message, ConsumerRegistration consumer) {
+            this.queue = queue;
+            this.message = message;
+            this.consumer = consumer;
+        }
+    }
+
+    /**
+     * The BrokerChannel method implementing a Channel method: basicAck is handled by
+     * doBasicAck, and queueDeclareNoWait by doQueueDeclare since replies are free here.
+     */
+    private static Method findOperation(Method method) {
+        Method operation = OPERATIONS.get(method);
+        if(operation != null)
+            return operation;
+
+        String name = method.getName().replace("NoWait", "");
+        name = "do"+Character.toUpperCase(name.charAt(0))+name.substring(1);
+        for(Method candidate : BrokerChannel.class.getDeclaredMethods()) {
+            if(candidate.getName().equals(name) && Arrays.equals(candidate.getParameterTypes(), method.getParameterTypes())) {
+                candidate.setAccessible(true);
+                OPERATIONS.putIfAbsent(method, candidate);
+                return candidate;
+            }
+        }
+        throw new UnsupportedOperationException("In-memory channels do not support "+method);
+    }
+
+    /**
+     * Invokes a proxied method on its handler, unwrapping what reflection wraps.
+     */
+    private static Object invokeOn(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch(InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private class BrokerConnection implements InvocationHandler {
+        private final int id;
+        private final Connection proxy;
+        private final Map<Integer, BrokerChannel> channels = new HashMap<>();
+        private final List<ShutdownListener> shutdownListeners = new CopyOnWriteArrayList<>();
+        private final List<BlockedListener> blockedListeners = new CopyOnWriteArrayList<>();
+        private int nextChannelNumber = 1;
+        private volatile ShutdownSignalException closeReason = null;
+
+        BrokerConnection(int id) {
+            this.id = id;
+            this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch(method.getName()) {
+                case "createChannel":
+                    return createChannel();
+                case "isOpen":
+                    return this.closeReason == null;
+                case "close":
+                case "abort":
+                    close();
+                    return null;
+                case "getCloseReason":
+                    return this.closeReason;
+                case "addShutdownListener":
+                    this.shutdownListeners.add((ShutdownListener) args[0]);
+                    return null;
+                case "removeShutdownListener":
+                    this.shutdownListeners.remove((ShutdownListener) args[0]);
+                    return null;
+                case "addBlockedListener":
+                    this.blockedListeners.add((BlockedListener) args[0]);
+                    return null;
+                case "removeBlockedListener":
+                    return this.blockedListeners.remove((BlockedListener) args[0]);
+                case "clearBlockedListeners":
+                    this.blockedListeners.clear();
+                    return null;
+                case "notifyListeners":
+                    return null;
+                case "getAddress":
+                    return InetAddress.getLoopbackAddress();
+                case "getPort":
+                    return 5672;
+                case "getChannelMax":
+                case "getFrameMax":
+                case "getHeartbeat":
+                    return 0;
+                case "getClientProperties":
+                case "getServerProperties":
+                    return Collections.<String, Object>emptyMap();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "InMemoryConnection#"+this.id;
+                default:
+                    throw new UnsupportedOperationException("In-memory connections do not support "+method.getName());
+            }
+        }
+
+        private Channel createChannel() throws IOException {
+            synchronized(InMemoryBroker.this) {
+                if(this.closeReason != null)
+                    throw new IOException("Connection is closed", this.closeReason);
+                BrokerChannel channel = new BrokerChannel(this, this.nextChannelNumber++);
+                this.channels.put(channel.number, channel);
+                return channel.proxy;
+            }
+        }
+
+        private void close() {
+            List<BrokerChannel> open;
+            ShutdownSignalException cause = new ShutdownSignalException(true, true, new AMQImpl.Connection.Close(200, "OK", 0, 0), this.proxy);
+            synchronized(InMemoryBroker.this) {
+                if(this.closeReason != null)
+                    return;
+                this.closeReason = cause;
+                open = new ArrayList<>(this.channels.values());
+            }
+            for(BrokerChannel channel : open)
+                channel.shutdown(cause);
+            synchronized(InMemoryBroker.this) {
+                for(BrokerQueue queue : new ArrayList<>(queues.values())) {
+                    if(queue.owner == this)
+                        deleteQueue(queue);
+                }
+                connections.remove(this);
+                dispatchPending();
+            }
+            for(ShutdownListener listener : this.shutdownListeners) {
+                try {
+                    listener.shutdownCompleted(cause);
+                } catch(RuntimeException e) {
+                    LOG.warn("Shutdown listener {} failed", listener, e);
+                }
+            }
+        }
+    }
+
+    private class BrokerChannel implements InvocationHandler {
+        private final BrokerConnection connection;
+        private final int number;
+        private final Channel proxy;
+        private final List<ShutdownListener> shutdownListeners = new CopyOnWriteArrayList<>();
+        private final List<ConfirmListener> confirmListeners = new CopyOnWriteArrayList<>();
+        private final List<ReturnListener> returnListeners = new CopyOnWriteArrayList<>();
+        private final Map<String, ConsumerRegistration> consumers = new LinkedHashMap<>();
+        private final NavigableMap<Long, Unacked> unacked = new TreeMap<>();
+        private final List<Runnable> transaction = new ArrayList<>();
+        private volatile ShutdownSignalException closeReason = null;
+        private ExecutorService dispatcher;
+        private Consumer defaultConsumer;
+        private int prefetch = 0;
+        private long deliveryTags = 0;
+        private boolean confirmMode = false;
+        private long nextPublishSeqNo = 0;
+        private boolean transactional = false;
+        private int consumerTags = 0;
+
+        BrokerChannel(BrokerConnection connection, int number) {
+            this.connection = connection;
+            this.number = number;
+            this.proxy = (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(), new Class<?>[] { Channel.class }, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch(name) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "InMemoryChannel#"+this.connection.id+"/"+this.number;
+                case "isOpen":
+                    return this.closeReason == null;
+                case "getCloseReason":
+                    return this.closeReason;
+                case "getChannelNumber":
+                    return this.number;
+                case "getConnection":
+                    return this.connection.proxy;
+                case "close":
+                case "abort":
+                    if(this.closeReason == null)
+                        shutdown(new ShutdownSignalException(false, true, new AMQImpl.Channel.Close(200, "OK", 0, 0), this.proxy));
+                    else if(name.equals("close"))
+                        throw new com.rabbitmq.client.AlreadyClosedException(this.closeReason);
+                    return null;
+                case "addShutdownListener":
+                    this.shutdownListeners.add((ShutdownListener) args[0]);
+                    return null;
+                case "removeShutdownListener":
+                    this.shutdownListeners.remove((ShutdownListener) args[0]);
+                    return null;
+                case "notifyListeners":
+                case "addFlowListener":
+                case "clearFlowListeners":
+                    return null;
+                case "removeFlowListener":
+                    return false;
+                case "flowBlocked":
+                    return false;
+                case "addConfirmListener":
+                    this.confirmListeners.add((ConfirmListener) args[0]);
+                    return null;
+                case "removeConfirmListener":
+                    return this.confirmListeners.remove((ConfirmListener) args[0]);
+                case "clearConfirmListeners":
+                    this.confirmListeners.clear();
+                    return null;
+                case "addReturnListener":
+                    this.returnListeners.add((ReturnListener) args[0]);
+                    return null;
+                case "removeReturnListener":
+                    return this.returnListeners.remove((ReturnListener) args[0]);
+                case "clearReturnListeners":
+                    this.returnListeners.clear();
+                    return null;
+                case "getDefaultConsumer":
+                    return this.defaultConsumer;
+                case "setDefaultConsumer":
+                    this.defaultConsumer = (Consumer) args[0];
+                    return null;
+                default:
+                    break;
+            }
+
+            ensureOpen();
+            synchronized(InMemoryBroker.this) {
+                ensureOpen();
+                try {
+                    return invokeOn(this, findOperation(method), args);
+                } finally {
+                    dispatchPending();
+                }
+            }
+        }
+
+        private void ensureOpen() {
+            if(this.closeReason != null)
+                throw new com.rabbitmq.client.AlreadyClosedException(this.closeReason);
+        }
+
+        /**
+         * Close the channel as the broker would on a channel error.
+         */
+        private IOException channelError(int code, String text, int classId, int methodId) {
+            ShutdownSignalException cause = new ShutdownSignalException(false, false, new AMQImpl.Channel.Close(code, text, classId, methodId), this.proxy);
+            shutdown(cause);
+            return new IOException(text, cause);
+        }
+
+        private void shutdown(final ShutdownSignalException cause) {
+            final List<ConsumerRegistration> cancelled;
+            synchronized(InMemoryBroker.this) {
+                if(this.closeReason != null)
+                    return;
+                this.closeReason = cause;
+                this.connection.channels.remove(this.number);
+
+                //Whatever wasn't acknowledged goes back to the front of its queue
+                for(Unacked entry : this.unacked.descendingMap().values())
+                    requeue(entry);
+                this.unacked.clear();
+                cancelled = new ArrayList<>(this.consumers.values());
+                for(ConsumerRegistration consumer : cancelled) {
+                    exclusiveConsumers.remove(consumer);
+                    if(consumer.queue == null)
+                        replyConsumers.remove(replyToken());
+                    else
+                        removeConsumer(consumer);
+                }
+                this.consumers.clear();
+                dispatchPending();
+            }
+
+            //Channel errors are raised with the broker's lock held, so listeners hear of them on the dispatch thread
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    for(ConsumerRegistration consumer : cancelled)
+                        consumer.consumer.handleShutdownSignal(consumer.tag, cause);
+                    for(ShutdownListener listener : shutdownListeners) {
+                        try {
+                            listener.shutdownCompleted(cause);
+                        } catch(RuntimeException e) {
+                            LOG.warn("Shutdown listener {} failed", listener, e);
+                        }
+                    }
+                }
+            });
+            synchronized(InMemoryBroker.this) {
+                if(this.dispatcher != null)
+                    this.dispatcher.shutdown();
+            }
+        }
+
+        /**
+         * Run a callback on this channel's dispatch thread, in the order callbacks were made.
+         */
+        private void execute(Runnable callback) {
+            synchronized(InMemoryBroker.this) {
+                if(this.dispatcher == null) {
+                    final String threadName = "InMemoryBroker-"+this.connection.id+"-"+this.number;
+                    this.dispatcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, threadName);
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                }
+                try {
+                    this.dispatcher.execute(callback);
+                } catch(RejectedExecutionException e) {
+                    LOG.debug("Dropping callback on closed channel {}", this.proxy);
+                }
+            }
+        }
+
+        private void deliver(final ConsumerRegistration consumer, BrokerQueue queue, final QueuedMessage message) {
+            long deliveryTag = ++this.deliveryTags;
+            if(! consumer.autoAck) {
+                this.unacked.put(deliveryTag, new Unacked(queue, message, consumer));
+                ++consumer.unacked;
+            }
+            delivered.incrementAndGet();
+            final Envelope envelope = new Envelope(deliveryTag, message.redelivered, message.exchange, message.routingKey);
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        consumer.consumer.handleDelivery(consumer.tag, envelope, message.properties, message.body);
+                    } catch(IOException | RuntimeException e) {
+                        LOG.warn("Consumer {} failed to handle delivery {}", new Object[] { consumer.tag, envelope.getDeliveryTag(), e });
+                    }
+                }
+            });
+        }
+
+        private void notifyCancelled(final ConsumerRegistration consumer) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        consumer.consumer.handleCancel(consumer.tag);
+                    } catch(IOException | RuntimeException e) {
+                        LOG.warn("Consumer {} failed to handle cancellation", consumer.tag, e);
+                    }
+                }
+            });
+        }
+
+        private void requeue(Unacked entry) {
+            if(entry.consumer != null)
+                --entry.consumer.unacked;
+            if(queues.get(entry.queue.name) != entry.queue)
+                return;
+            entry.message.redelivered = true;
+            entry.queue.ready.addFirst(entry.message);
+            pendingDispatch.add(entry.queue);
+        }
+
+        private String replyToken() {
+            return DIRECT_REPLY_TO+".inmemory-"+this.connection.id+"-"+this.number;
+        }
+
+        private BrokerQueue findQueue(String queueName, int classId, int methodId) throws IOException {
+            BrokerQueue queue = queues.get(queueName);
+            if(queue == null)
+                throw channelError(404, "NOT_FOUND - no queue '"+queueName+"'", classId, methodId);
+            if(queue.owner != null && queue.owner != this.connection)
+                throw channelError(405, "RESOURCE_LOCKED - cannot obtain exclusive access to locked queue '"+queueName+"'", classId, methodId);
+            return queue;
+        }
+
+        private BrokerExchange findExchange(String exchangeName, int classId, int methodId) throws IOException {
+            BrokerExchange exchange = exchanges.get(exchangeName);
+            if(exchange == null)
+                throw channelError(404, "NOT_FOUND - no exchange '"+exchangeName+"'", classId, methodId);
+            return exchange;
+        }
+
+        // Exchanges
+
+        private AMQP.Exchange.DeclareOk doExchangeDeclare(String exchange, String type) throws IOException {
+            return doExchangeDeclare(exchange, type, false, false, false, null);
+        }
+
+        private AMQP.Exchange.DeclareOk doExchangeDeclare(String exchange, String type, boolean durable) throws IOException {
+            return doExchangeDeclare(exchange, type, durable, false, false, null);
+        }
+
+        private AMQP.Exchange.DeclareOk doExchangeDeclare(String exchange, String type, boolean durable, boolean autoDelete, Map<String, Object> arguments) throws IOException {
+            return doExchangeDeclare(exchange, type, durable, autoDelete, false, arguments);
+        }
+
+        private AMQP.Exchange.DeclareOk doExchangeDeclare(String exchange, String type, boolean durable, boolean autoDelete, boolean internal, Map<String, Object> arguments) throws IOException {
+            BrokerExchange existing = exchanges.get(exchange);
+            if(existing != null) {
+                if(! existing.type.equals(type) || existing.durable != durable || existing.autoDelete != autoDelete || existing.internal != internal)
+                    throw channelError(406, "PRECONDITION_FAILED - inequivalent arg for exchange '"+exchange+"'", 40, 10);
+                return new AMQImpl.Exchange.DeclareOk();
+            }
+            if(exchange.startsWith("amq."))
+                throw channelError(403, "ACCESS_REFUSED - exchange name '"+exchange+"' contains reserved prefix 'amq.*'", 40, 10);
+            if(! EXCHANGE_TYPES.contains(type))
+                throw channelError(503, "COMMAND_INVALID - unknown exchange type '"+type+"'", 40, 10);
+            exchanges.put(exchange, new BrokerExchange(exchange, type, durable, autoDelete, internal));
+            return new AMQImpl.Exchange.DeclareOk();
+        }
+
+        private AMQP.Exchange.DeclareOk doExchangeDeclarePassive(String exchange) throws IOException {
+            findExchange(exchange, 40, 10);
+            return new AMQImpl.Exchange.DeclareOk();
+        }
+
+        private AMQP.Exchange.DeleteOk doExchangeDelete(String exchange) throws IOException {
+            return doExchangeDelete(exchange, false);
+        }
+
+        private AMQP.Exchange.DeleteOk doExchangeDelete(String exchange, boolean ifUnused) throws IOException {
+            BrokerExchange existing = exchanges.get(exchange);
+            if(existing == null)
+                return new AMQImpl.Exchange.DeleteOk();
+            if(exchange.isEmpty() || exchange.startsWith("amq."))
+                throw channelError(403, "ACCESS_REFUSED - cannot delete exchange '"+exchange+"'", 40, 20);
+            if(ifUnused && ! existing.bindings.isEmpty())
+                throw channelError(406, "PRECONDITION_FAILED - exchange '"+exchange+"' in use", 40, 20);
+            exchanges.remove(exchange);
+            for(BrokerExchange source : exchanges.values()) {
+                Iterator<Binding> bindings = source.bindings.iterator();
+                while(bindings.hasNext()) {
+                    Binding binding = bindings.next();
+                    if(binding.toExchange && binding.destination.equals(exchange))
+                        bindings.remove();
+                }
+            }
+            return new AMQImpl.Exchange.DeleteOk();
+        }
+
+        private AMQP.Exchange.BindOk doExchangeBind(String destination, String source, String routingKey) throws IOException {
+            return doExchangeBind(destination, source, routingKey, null);
+        }
+
+        private AMQP.Exchange.BindOk doExchangeBind(String destination, String source, String routingKey, Map<String, Object> arguments) throws IOException {
+            findExchange(destination, 40, 30);
+            bind(findExchange(source, 40, 30), destination, true, routingKey, arguments);
+            return new AMQImpl.Exchange.BindOk();
+        }
+
+        private AMQP.Exchange.UnbindOk doExchangeUnbind(String destination, String source, String routingKey) throws IOException {
+            return doExchangeUnbind(destination, source, routingKey, null);
+        }
+
+        private AMQP.Exchange.UnbindOk doExchangeUnbind(String destination, String source, String routingKey, Map<String, Object> arguments) throws IOException {
+            BrokerExchange exchange = exchanges.get(source);
+            if(exchange != null)
+                unbind(exchange, destination, true, routingKey, arguments);
+            return new AMQImpl.Exchange.UnbindOk();
+        }
+
+        // Queues
+
+        private AMQP.Queue.DeclareOk doQueueDeclare() throws IOException {
+            return doQueueDeclare("", false, true, true, null);
+        }
+
+        private AMQP.Queue.DeclareOk doQueueDeclare(String queue, boolean durable, boolean exclusive, boolean autoDelete, Map<String, Object> arguments) throws IOException {
+            if(queue.isEmpty())
+                queue = "amq.gen-"+UUID.randomUUID();
+            else if(queue.startsWith("amq."))
+                throw channelError(403, "ACCESS_REFUSED - queue name '"+queue+"' contains reserved prefix 'amq.*'", 50, 10);
+
+            BrokerQueue existing = queues.get(queue);
+            if(existing != null) {
+                findQueue(queue, 50, 10);
+                if(existing.durable != durable || existing.exclusive != exclusive || existing.autoDelete != autoDelete)
+                    throw channelError(406, "PRECONDITION_FAILED - inequivalent arg for queue '"+queue+"'", 50, 10);
+                return new AMQImpl.Queue.DeclareOk(queue, existing.ready.size(), existing.consumers.size());
+            }
+            queues.put(queue, new BrokerQueue(queue, durable, exclusive, autoDelete, arguments, this.connection));
+            return new AMQImpl.Queue.DeclareOk(queue, 0, 0);
+        }
+
+        private AMQP.Queue.DeclareOk doQueueDeclarePassive(String queue) throws IOException {
+            if(queue.equals(DIRECT_REPLY_TO))
+                return new AMQImpl.Queue.DeclareOk(queue, 0, 0);
+            BrokerQueue existing = findQueue(queue, 50, 10);
+            return new AMQImpl.Queue.DeclareOk(queue, existing.ready.size(), existing.consumers.size());
+        }
+
+        private AMQP.Queue.DeleteOk doQueueDelete(String queue) throws IOException {
+            return doQueueDelete(queue, false, false);
+        }
+
+        private AMQP.Queue.DeleteOk doQueueDelete(String queue, boolean ifUnused, boolean ifEmpty) throws IOException {
+            BrokerQueue existing = queues.get(queue);
+            if(existing == null)
+                return new AMQImpl.Queue.DeleteOk(0);
+            findQueue(queue, 50, 40);
+            if(ifUnused && ! existing.consumers.isEmpty())
+                throw channelError(406, "PRECONDITION_FAILED - queue '"+queue+"' in use", 50, 40);
+            if(ifEmpty && ! existing.ready.isEmpty())
+                throw channelError(406, "PRECONDITION_FAILED - queue '"+queue+"' not empty", 50, 40);
+            int messageCount = existing.ready.size();
+            deleteQueue(existing);
+            return new AMQImpl.Queue.DeleteOk(messageCount);
+        }
+
+        private AMQP.Queue.PurgeOk doQueuePurge(String queue) throws IOException {
+            BrokerQueue existing = findQueue(queue, 50, 30);
+            int messageCount = existing.ready.size();
+            existing.ready.clear();
+            return new AMQImpl.Queue.PurgeOk(messageCount);
+        }
+
+        private AMQP.Queue.BindOk doQueueBind(String queue, String exchange, String routingKey) throws IOException {
+            return doQueueBind(queue, exchange, routingKey, null);
+        }
+
+        private AMQP.Queue.BindOk doQueueBind(String queue, String exchange, String routingKey, Map<String, Object> arguments) throws IOException {
+            findQueue(queue, 50, 20);
+            if(exchange.isEmpty())
+                throw channelError(403, "ACCESS_REFUSED - operation not permitted on the default exchange", 50, 20);
+            bind(findExchange(exchange, 50, 20), queue, false, routingKey, arguments);
+            return new AMQImpl.Queue.BindOk();
+        }
+
+        private AMQP.Queue.UnbindOk doQueueUnbind(String queue, String exchange, String routingKey) throws IOException {
+            return doQueueUnbind(queue, exchange, routingKey, null);
+        }
+
+        private AMQP.Queue.UnbindOk doQueueUnbind(String queue, String exchange, String routingKey, Map<String, Object> arguments) throws IOException {
+            BrokerExchange existing = exchanges.get(exchange);
+            if(existing != null)
+                unbind(existing, queue, false, routingKey, arguments);
+            return new AMQImpl.Queue.UnbindOk();
+        }
+
+        private void bind(BrokerExchange exchange, String destination, boolean toExchange, String routingKey, Map<String, Object> arguments) {
+            for(Binding binding : exchange.bindings) {
+                if(binding.sameAs(destination, toExchange, routingKey, arguments))
+                    return;
+            }
+            exchange.bindings.add(new Binding(destination, toExchange, routingKey, arguments));
+            exchange.hadBindings = true;
+        }
+
+        private void unbind(BrokerExchange exchange, String destination, boolean toExchange, String routingKey, Map<String, Object> arguments) {
+            Iterator<Binding> bindings = exchange.bindings.iterator();
+            while(bindings.hasNext()) {
+                if(bindings.next().sameAs(destination, toExchange, routingKey, arguments))
+                    bindings.remove();
+            }
+            deleteIfUnused(exchange);
+        }
+
+        // Publishing
+
+        private void doBasicPublish(String exchange, String routingKey, AMQP.BasicProperties properties, byte[] body) throws IOException {
+            doBasicPublish(exchange, routingKey, false, false, properties, body);
+        }
+
+        private void doBasicPublish(String exchange, String routingKey, boolean mandatory, AMQP.BasicProperties properties, byte[] body) throws IOException {
+            doBasicPublish(exchange, routingKey, mandatory, false, properties, body);
+        }
+
+        private void doBasicPublish(final String exchange, final String routingKey, final boolean mandatory, boolean immediate, AMQP.BasicProperties properties, byte[] body) throws IOException {
+            //Held up like a real broker holds up publishers on a blocked connection
+            while(blockedReason != null) {
+                try {
+                    InMemoryBroker.this.wait();
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for the connection to be unblocked", e);
+                }
+                ensureOpen();
+            }
+
+            final BrokerExchange target = findExchange(exchange, 60, 40);
+            if(immediate)
+                throw channelError(540, "NOT_IMPLEMENTED - immediate=true", 60, 40);
+            if(properties == null)
+                properties = new AMQP.BasicProperties();
+            if(DIRECT_REPLY_TO.equals(properties.getReplyTo())) {
+                if(! replyConsumers.containsKey(replyToken()))
+                    throw channelError(406, "PRECONDITION_FAILED - fast reply consumer does not exist", 60, 40);
+                properties = properties.builder().replyTo(replyToken()).build();
+            }
+            final AMQP.BasicProperties published = copyProperties(properties);
+            final byte[] payload = body == null ? new byte[0] : body;
+            final long seqNo = this.confirmMode ? this.nextPublishSeqNo++ : 0;
+
+            Runnable publish = new Runnable() {
+                @Override
+                public void run() {
+                    publish(target, routingKey, mandatory, published, payload, seqNo);
+                }
+            };
+            if(this.transactional)
+                this.transaction.add(publish);
+            else
+                publish.run();
+        }
+
+        private void publish(BrokerExchange exchange, final String routingKey, boolean mandatory, final AMQP.BasicProperties properties, final byte[] body, final long seqNo) {
+            published.incrementAndGet();
+            boolean routed;
+            final ConsumerRegistration replyConsumer = exchange.name.equals(DEFAULT_EXCHANGE) ? replyConsumers.get(routingKey) : null;
+            if(replyConsumer != null) {
+                replyConsumer.channel.deliver(replyConsumer, null, new QueuedMessage(exchange.name, routingKey, properties, body.clone(), Long.MAX_VALUE));
+                routed = true;
+            } else {
+                routed = route(exchange, routingKey, properties, body);
+            }
+
+            final String exchangeName = exchange.name;
+            if(! routed && mandatory) {
+                execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        for(ReturnListener listener : returnListeners) {
+                            try {
+                                listener.handleReturn(312, "NO_ROUTE", exchangeName, routingKey, properties, body);
+                            } catch(IOException | RuntimeException e) {
+                                LOG.warn("Return listener {} failed", listener, e);
+                            }
+                        }
+                    }
+                });
+            }
+            if(seqNo > 0) {
+                execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        for(ConfirmListener listener : confirmListeners) {
+                            try {
+                                listener.handleAck(seqNo, false);
+                            } catch(IOException | RuntimeException e) {
+                                LOG.warn("Confirm listener {} failed", listener, e);
+                            }
+                        }
+                    }
+                });
+            }
+        }
+
+        private AMQP.Confirm.SelectOk doConfirmSelect() throws IOException {
+            if(this.transactional)
+                throw channelError(406, "PRECONDITION_FAILED - cannot switch from tx to confirm mode", 85, 10);
+            if(! this.confirmMode) {
+                this.confirmMode = true;
+                this.nextPublishSeqNo = 1;
+            }
+            return new AMQImpl.Confirm.SelectOk();
+        }
+
+        private long doGetNextPublishSeqNo() {
+            return this.nextPublishSeqNo;
+        }
+
+        //Every publish is routed before basicPublish returns, so it's confirmed as soon as the listeners hear of it
+        private boolean doWaitForConfirms() {
+            return true;
+        }
+
+        private boolean doWaitForConfirms(long timeout) {
+            return true;
+        }
+
+        private void doWaitForConfirmsOrDie() {
+        }
+
+        private void doWaitForConfirmsOrDie(long timeout) {
+        }
+
+        private AMQP.Tx.SelectOk doTxSelect() throws IOException {
+            if(this.confirmMode)
+                throw channelError(406, "PRECONDITION_FAILED - cannot switch from confirm to tx mode", 90, 10);
+            this.transactional = true;
+            return new AMQImpl.Tx.SelectOk();
+        }
+
+        private AMQP.Tx.CommitOk doTxCommit() throws IOException {
+            if(! this.transactional)
+                throw channelError(406, "PRECONDITION_FAILED - channel is not transactional", 90, 20);
+            List<Runnable> work = new ArrayList<>(this.transaction);
+            this.transaction.clear();
+            for(Runnable step : work)
+                step.run();
+            return new AMQImpl.Tx.CommitOk();
+        }
+
+        private AMQP.Tx.RollbackOk doTxRollback() throws IOException {
+            if(! this.transactional)
+                throw channelError(406, "PRECONDITION_FAILED - channel is not transactional", 90, 30);
+            this.transaction.clear();
+            return new AMQImpl.Tx.RollbackOk();
+        }
+
+        // Consuming
+
+        private void doBasicQos(int prefetchCount) {
+            this.prefetch = prefetchCount;
+        }
+
+        private void doBasicQos(int prefetchCount, boolean global) {
+            this.prefetch = prefetchCount;
+        }
+
+        private void doBasicQos(int prefetchSize, int prefetchCount, boolean global) {
+            this.prefetch = prefetchCount;
+        }
+
+        private String doBasicConsume(String queue, Consumer callback) throws IOException {
+            return consume(queue, false, "", false, null, callback);
+        }
+
+        private String doBasicConsume(String queue, boolean autoAck, Consumer callback) throws IOException {
+            return consume(queue, autoAck, "", false, null, callback);
+        }
+
+        private String doBasicConsume(String queue, boolean autoAck, Map<String, Object> arguments, Consumer callback) throws IOException {
+            return consume(queue, autoAck, "", false, arguments, callback);
+        }
+
+        private String doBasicConsume(String queue, boolean autoAck, String consumerTag, Consumer callback) throws IOException {
+            return consume(queue, autoAck, consumerTag, false, null, callback);
+        }
+
+        private String doBasicConsume(String queue, boolean autoAck, String consumerTag, boolean noLocal, boolean exclusive, Map<String, Object> arguments, Consumer callback) throws IOException {
+            return consume(queue, autoAck, consumerTag, exclusive, arguments, callback);
+        }
+
+        private String consume(String queueName, boolean autoAck, String consumerTag, boolean exclusive, Map<String, Object> arguments, final Consumer callback) throws IOException {
+            final String tag = consumerTag == null || consumerTag.isEmpty() ? "amq.ctag-inmemory-"+this.connection.id+"-"+this.number+"-"+(++this.consumerTags) : consumerTag;
+            if(this.consumers.containsKey(tag))
+                throw channelError(530, "NOT_ALLOWED - attempt to reuse consumer tag '"+tag+"'", 60, 20);
+
+            if(queueName.equals(DIRECT_REPLY_TO)) {
+                if(! autoAck)
+                    throw channelError(406, "PRECONDITION_FAILED - reply consumer cannot acknowledge", 60, 20);
+                ConsumerRegistration consumer = new ConsumerRegistration(this, tag, null, true, 0, callback);
+                replyConsumers.put(replyToken(), consumer);
+                this.consumers.put(tag, consumer);
+            } else {
+                BrokerQueue queue = findQueue(queueName, 60, 20);
+                for(ConsumerRegistration other : queue.consumers) {
+                    if(exclusive || exclusiveConsumers.contains(other))
+                        throw channelError(403, "ACCESS_REFUSED - queue '"+queueName+"' in exclusive use", 60, 20);
+                }
+                ConsumerRegistration consumer = new ConsumerRegistration(this, tag, queueName, autoAck, this.prefetch, callback);
+                this.consumers.put(tag, consumer);
+                queue.consumers.add(consumer);
+                if(exclusive)
+                    exclusiveConsumers.add(consumer);
+                pendingDispatch.add(queue);
+            }
+
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    callback.handleConsumeOk(tag);
+                }
+            });
+            return tag;
+        }
+
+        private void doBasicCancel(String consumerTag) throws IOException {
+            final ConsumerRegistration consumer = this.consumers.remove(consumerTag);
+            if(consumer == null)
+                return;
+            exclusiveConsumers.remove(consumer);
+            if(consumer.queue == null)
+                replyConsumers.remove(replyToken());
+            else
+                removeConsumer(consumer);
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    consumer.consumer.handleCancelOk(consumer.tag);
+                }
+            });
+        }
+
+        private GetResponse doBasicGet(String queueName, boolean autoAck) throws IOException {
+            BrokerQueue queue = findQueue(queueName, 60, 70);
+            long now = System.currentTimeMillis();
+            QueuedMessage message;
+            while((message = queue.ready.pollFirst()) != null && message.isExpired(now))
+                deadLetter(queue, message, "expired");
+            if(message == null)
+                return null;
+
+            long deliveryTag = ++this.deliveryTags;
+            if(! autoAck)
+                this.unacked.put(deliveryTag, new Unacked(queue, message, null));
+            delivered.incrementAndGet();
+            Envelope envelope = new Envelope(deliveryTag, message.redelivered, message.exchange, message.routingKey);
+            return new GetResponse(envelope, message.properties, message.body, queue.ready.size());
+        }
+
+        private void doBasicAck(final long deliveryTag, final boolean multiple) throws IOException {
+            settle(deliveryTag, multiple, 60, 80, new Settlement() {
+                @Override
+                public void settle(Unacked entry) {
+                    if(entry.consumer != null)
+                        --entry.consumer.unacked;
+                    acknowledged.incrementAndGet();
+                    pendingDispatch.add(entry.queue);
+                }
+            });
+        }
+
+        private void doBasicNack(long deliveryTag, boolean multiple, boolean requeue) throws IOException {
+            settle(deliveryTag, multiple, 60, 120, rejection(requeue));
+        }
+
+        private void doBasicReject(long deliveryTag, boolean requeue) throws IOException {
+            settle(deliveryTag, false, 60, 90, rejection(requeue));
+        }
+
+        private AMQP.Basic.RecoverOk doBasicRecover() throws IOException {
+            return doBasicRecover(true);
+        }
+
+        private AMQP.Basic.RecoverOk doBasicRecover(boolean requeue) throws IOException {
+            //Redelivering to the same consumer isn't modelled; everything goes back to its queue
+            for(Unacked entry : this.unacked.descendingMap().values())
+                requeue(entry);
+            this.unacked.clear();
+            return new AMQImpl.Basic.RecoverOk();
+        }
+
+        private Settlement rejection(final boolean requeue) {
+            return new Settlement() {
+                @Override
+                public void settle(Unacked entry) {
+                    if(requeue) {
+                        requeue(entry);
+                        return;
+                    }
+                    if(entry.consumer != null)
+                        --entry.consumer.unacked;
+                    pendingDispatch.add(entry.queue);
+                    if(queues.get(entry.queue.name) == entry.queue)
+                        deadLetter(entry.queue, entry.message, "rejected");
+                }
+            };
+        }
+
+        private void settle(final long deliveryTag, final boolean multiple, int classId, int methodId, final Settlement settlement) throws IOException {
+            final List<Unacked> entries = new ArrayList<>();
+            if(multiple && deliveryTag == 0) {
+                entries.addAll(this.unacked.values());
+                this.unacked.clear();
+            } else if(! this.unacked.containsKey(deliveryTag)) {
+                throw channelError(406, "PRECONDITION_FAILED - unknown delivery tag "+deliveryTag, classId, methodId);
+            } else if(multiple) {
+                Map<Long, Unacked> settled = this.unacked.headMap(deliveryTag, true);
+                entries.addAll(settled.values());
+                settled.clear();
+            } else {
+                entries.add(this.unacked.remove(deliveryTag));
+            }
+
+            Runnable settle = new Runnable() {
+                @Override
+                public void run() {
+                    //Requeued messages go back in their original order
+                    for(int i = entries.size() - 1; i >= 0; --i)
+                        settlement.settle(entries.get(i));
+                }
+            };
+            if(this.transactional)
+                this.transaction.add(settle);
+            else
+                settle.run();
+        }
+    }
+
+    private interface Settlement {
+        void settle(Unacked entry);
+    }
+}
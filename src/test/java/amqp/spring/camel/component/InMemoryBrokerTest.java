@@ -0,0 +1,238 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+package amqp.spring.camel.component;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.GetResponse;
+import com.rabbitmq.client.ShutdownSignalException;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class InMemoryBrokerTest {
+    private InMemoryBroker broker;
+    private Connection connection;
+    private Channel channel;
+
+    @Before
+    public void setUp() throws Exception {
+        this.broker = new InMemoryBroker();
+        this.connection = this.broker.newConnection();
+        this.channel = this.connection.createChannel();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.connection.close();
+    }
+
+    @Test
+    public void testTopicRouting() throws Exception {
+        this.channel.exchangeDeclare("prices", "topic");
+        this.channel.queueDeclare("all", false, false, false, null);
+        this.channel.queueDeclare("cheese", false, false, false, null);
+        this.channel.queueBind("all", "prices", "#");
+        this.channel.queueBind("cheese", "prices", "*.cheese.#");
+
+        this.channel.basicPublish("prices", "uk.cheese.cheddar", null, "1".getBytes());
+        this.channel.basicPublish("prices", "uk.wine", null, "2".getBytes());
+        this.channel.basicPublish("prices", "cheese", null, "3".getBytes());
+
+        Assert.assertEquals(3, this.broker.getMessageCount("all"));
+        Assert.assertEquals(1, this.broker.getMessageCount("cheese"));
+        Assert.assertEquals("1", new String(this.channel.basicGet("cheese", true).getBody()));
+    }
+
+    @Test
+    public void testHeadersRouting() throws Exception {
+        this.channel.exchangeDeclare("cheeses", "headers");
+        this.channel.queueDeclare("both", false, false, false, null);
+        this.channel.queueDeclare("either", false, false, false, null);
+        Map<String, Object> both = new HashMap<>();
+        both.put("x-match", "all");
+        both.put("cheese", "gouda");
+        both.put("fromage", "jack");
+        this.channel.queueBind("both", "cheeses", "", both);
+        Map<String, Object> either = new HashMap<>(both);
+        either.put("x-match", "any");
+        this.channel.queueBind("either", "cheeses", "", either);
+
+        AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder().headers(Collections.<String, Object>singletonMap("cheese", "gouda")).build();
+        this.channel.basicPublish("cheeses", "", properties, new byte[0]);
+
+        Assert.assertEquals(0, this.broker.getMessageCount("both"));
+        Assert.assertEquals(1, this.broker.getMessageCount("either"));
+    }
+
+    @Test
+    public void testPrefetchAndRedelivery() throws Exception {
+        this.channel.queueDeclare("work", false, false, false, null);
+        for(int i = 0; i < 5; ++i)
+            this.channel.basicPublish("", "work", null, String.valueOf(i).getBytes());
+
+        this.channel.basicQos(2);
+        RecordingConsumer consumer = new RecordingConsumer(this.channel);
+        this.channel.basicConsume("work", false, consumer);
+
+        Envelope first = consumer.next().envelope;
+        consumer.next();
+        Assert.assertNull("Prefetch of 2 exceeded", consumer.deliveries.poll(200, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(3, this.broker.getMessageCount("work"));
+
+        this.channel.basicNack(first.getDeliveryTag(), false, true);
+        Delivery redelivered = consumer.next();
+        Assert.assertEquals("0", redelivered.body);
+        Assert.assertTrue(redelivered.envelope.isRedeliver());
+
+        this.channel.basicAck(redelivered.envelope.getDeliveryTag(), true);
+        Assert.assertEquals("2", consumer.next().body);
+        Assert.assertEquals("3", consumer.next().body);
+        Assert.assertEquals(5, this.broker.getDeliveredCount());
+    }
+
+    @Test
+    public void testUnknownDeliveryTagClosesChannel() throws Exception {
+        try {
+            this.channel.basicAck(42, false);
+            Assert.fail("Acknowledging an unknown delivery tag should fail");
+        } catch(IOException e) {
+            ShutdownSignalException cause = (ShutdownSignalException) e.getCause();
+            Assert.assertEquals(406, ((AMQP.Channel.Close) cause.getReason()).getReplyCode());
+        }
+        Assert.assertFalse(this.channel.isOpen());
+    }
+
+    @Test
+    public void testUnackedMessagesRequeuedOnClose() throws Exception {
+        this.channel.queueDeclare("work", false, false, false, null);
+        this.channel.basicPublish("", "work", null, "hello".getBytes());
+        GetResponse response = this.channel.basicGet("work", false);
+        Assert.assertFalse(response.getEnvelope().isRedeliver());
+
+        this.channel.close();
+        Channel other = this.connection.createChannel();
+        Assert.assertTrue(other.basicGet("work", true).getEnvelope().isRedeliver());
+    }
+
+    @Test
+    public void testPublisherConfirms() throws Exception {
+        final BlockingQueue<Long> confirmed = new LinkedBlockingQueue<>();
+        this.channel.confirmSelect();
+        this.channel.addConfirmListener(new ConfirmListener() {
+            @Override
+            public void handleAck(long deliveryTag, boolean multiple) {
+                confirmed.add(deliveryTag);
+            }
+
+            @Override
+            public void handleNack(long deliveryTag, boolean multiple) {
+                Assert.fail("Nothing should be nacked");
+            }
+        });
+
+        Assert.assertEquals(1, this.channel.getNextPublishSeqNo());
+        this.channel.basicPublish("amq.direct", "nowhere", null, new byte[0]);
+        this.channel.basicPublish("amq.direct", "nowhere", null, new byte[0]);
+        Assert.assertEquals(Long.valueOf(1), confirmed.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals(Long.valueOf(2), confirmed.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testDirectReplyTo() throws Exception {
+        this.channel.queueDeclare("requests", false, false, false, null);
+        this.channel.queueDeclarePassive(InMemoryBroker.DIRECT_REPLY_TO);
+        RecordingConsumer replies = new RecordingConsumer(this.channel);
+        this.channel.basicConsume(InMemoryBroker.DIRECT_REPLY_TO, true, replies);
+        this.channel.basicPublish("", "requests", new AMQP.BasicProperties.Builder().replyTo(InMemoryBroker.DIRECT_REPLY_TO).build(), "ping".getBytes());
+
+        Channel server = this.connection.createChannel();
+        GetResponse request = server.basicGet("requests", true);
+        String replyTo = request.getProps().getReplyTo();
+        Assert.assertTrue(replyTo.startsWith(InMemoryBroker.DIRECT_REPLY_TO+"."));
+        server.basicPublish("", replyTo, null, "pong".getBytes());
+
+        Assert.assertEquals("pong", replies.next().body);
+    }
+
+    @Test
+    public void testDeadLettering() throws Exception {
+        this.channel.exchangeDeclare("dlx", "fanout");
+        this.channel.queueDeclare("dead", false, false, false, null);
+        this.channel.queueBind("dead", "dlx", "");
+        Map<String, Object> arguments = new HashMap<>();
+        arguments.put("x-dead-letter-exchange", "dlx");
+        arguments.put("x-message-ttl", 0);
+        this.channel.queueDeclare("expiring", false, false, false, arguments);
+
+        this.channel.basicPublish("", "expiring", null, "late".getBytes());
+        Assert.assertNull(this.channel.basicGet("expiring", true));
+
+        GetResponse dead = this.channel.basicGet("dead", true);
+        Assert.assertEquals("late", new String(dead.getBody()));
+        Map<?, ?> death = (Map<?, ?>) ((List<?>) dead.getProps().getHeaders().get("x-death")).get(0);
+        Assert.assertEquals("expired", death.get("reason").toString());
+    }
+
+    @Test
+    public void testExclusiveQueueDeletedWithConnection() throws Exception {
+        String queue = this.channel.queueDeclare().getQueue();
+        Assert.assertTrue(queue.startsWith("amq.gen-"));
+
+        Connection other = this.broker.newConnection();
+        try {
+            other.createChannel().queueDeclarePassive(queue);
+            Assert.fail("Another connection should not see an exclusive queue");
+        } catch(IOException e) {
+            Assert.assertEquals(405, ((AMQP.Channel.Close) ((ShutdownSignalException) e.getCause()).getReason()).getReplyCode());
+        } finally {
+            other.close();
+        }
+
+        this.connection.close();
+        Assert.assertFalse(this.broker.queueExists(queue));
+    }
+
+    private static class Delivery {
+        private final Envelope envelope;
+        private final String body;
+
+        Delivery(Envelope envelope, String body) {
+            this.envelope = envelope;
+            this.body = body;
+        }
+    }
+
+    private static class RecordingConsumer extends DefaultConsumer {
+        private final BlockingQueue<Delivery> deliveries = new LinkedBlockingQueue<>();
+
+        RecordingConsumer(Channel channel) {
+            super(channel);
+        }
+
+        @Override
+        public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+            this.deliveries.add(new Delivery(envelope, new String(body)));
+        }
+
+        Delivery next() throws InterruptedException {
+            Delivery delivery = this.deliveries.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull("Nothing delivered", delivery);
+            return delivery;
+        }
+    }
+}
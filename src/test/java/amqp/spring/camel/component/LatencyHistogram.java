@@ -0,0 +1,95 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+package amqp.spring.camel.component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A latency histogram laid out like HdrHistogram's: values below 2048 get a bucket
+ * each, and every power of two above that is split into 1024 buckets, so a recorded
+ * value is never reported more than 0.1% off whatever its magnitude. Recording is a
+ * single atomic increment, so many threads can record into one histogram.
+ *
+ * Values are nanoseconds, up to an hour; longer ones are counted as an hour.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 11;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+    private static final long MAX_VALUE = TimeUnit.HOURS.toNanos(1);
+
+    private final AtomicLongArray counts = new AtomicLongArray(indexOf(MAX_VALUE) + 1);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalValue = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    public void recordValue(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        this.counts.incrementAndGet(indexOf(value));
+        this.totalCount.incrementAndGet();
+        this.totalValue.addAndGet(value);
+        long max;
+        while(value > (max = this.maxValue.get()) && !this.maxValue.compareAndSet(max, value)) {
+            //Lost a race with a larger value; try again
+        }
+    }
+
+    public long getTotalCount() {
+        return this.totalCount.get();
+    }
+
+    public long getMaxValue() {
+        return this.maxValue.get();
+    }
+
+    public double getMean() {
+        long count = this.totalCount.get();
+        return count == 0 ? 0 : this.totalValue.get() / (double) count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the largest value that could have been recorded in the bucket holding
+     * that percentile, so as not to understate a latency, or 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = this.totalCount.get();
+        if(count == 0)
+            return 0;
+
+        long target = Math.max(1, (long) Math.ceil(count * Math.min(percentile, 100) / 100));
+        long seen = 0;
+        for(int i = 0; i < this.counts.length(); ++i) {
+            seen += this.counts.get(i);
+            if(seen >= target)
+                return Math.min(highestEquivalentValue(i), getMaxValue());
+        }
+        return getMaxValue();
+    }
+
+    public void reset() {
+        for(int i = 0; i < this.counts.length(); ++i)
+            this.counts.set(i, 0);
+        this.totalCount.set(0);
+        this.totalValue.set(0);
+        this.maxValue.set(0);
+    }
+
+    static int indexOf(long value) {
+        if(value < SUB_BUCKET_COUNT)
+            return (int) value;
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (int) (value >>> shift) - SUB_BUCKET_HALF;
+    }
+
+    static long highestEquivalentValue(int index) {
+        if(index < SUB_BUCKET_COUNT)
+            return index;
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return (subBucket << shift) + (1L << shift) - 1;
+    }
+}
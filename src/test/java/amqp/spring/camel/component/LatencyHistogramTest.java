@@ -0,0 +1,44 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+package amqp.spring.camel.component;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testPercentiles() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(long micros = 1; micros <= 1000; ++micros)
+            histogram.recordValue(TimeUnit.MICROSECONDS.toNanos(micros));
+
+        Assert.assertEquals(1000, histogram.getTotalCount());
+        assertWithinPrecision(TimeUnit.MICROSECONDS.toNanos(500), histogram.getValueAtPercentile(50));
+        assertWithinPrecision(TimeUnit.MICROSECONDS.toNanos(990), histogram.getValueAtPercentile(99));
+        assertWithinPrecision(TimeUnit.MICROSECONDS.toNanos(999), histogram.getValueAtPercentile(99.9));
+        Assert.assertEquals(TimeUnit.MICROSECONDS.toNanos(1000), histogram.getValueAtPercentile(100));
+        Assert.assertEquals(500500.0, histogram.getMean(), 0.001);
+
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getTotalCount());
+        Assert.assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testBuckets() throws Exception {
+        //Every value lands in a bucket whose upper bound is within 0.1% of it
+        for(long value = 1; value < TimeUnit.HOURS.toNanos(1); value = value * 3 + 7) {
+            int index = LatencyHistogram.indexOf(value);
+            Assert.assertTrue(LatencyHistogram.highestEquivalentValue(index) >= value);
+            assertWithinPrecision(value, LatencyHistogram.highestEquivalentValue(index));
+            Assert.assertTrue(index == 0 || LatencyHistogram.highestEquivalentValue(index - 1) < value);
+        }
+    }
+
+    private static void assertWithinPrecision(long expected, long actual) {
+        Assert.assertEquals(expected, actual, Math.max(1, expected / 1000.0));
+    }
+}
@@ -0,0 +1,328 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+package amqp.spring.camel.component;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Resource;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Drives messages through full routes, producer to broker to consumer, and records
+ * sustained throughput, per message latency percentiles and GC activity for each of
+ * a list of scenarios. Each result is appended as a line of JSON to load.output, so
+ * runs against different releases or brokers can be compared.
+ *
+ * It only runs when the load.harness system property is set, e.g.
+ * <code>mvn test -Dtest=LoadHarnessTest -Dload.harness -Dtest.broker.uri=memory:</code>.
+ * Scenarios default to a small matrix and can be given as load.scenarios, separated
+ * by semicolons: <code>pattern=InOut,size=1024,concurrency=8,prefetch=50,ack=auto,messages=5000,warmup=1000</code>.
+ * Anything left out takes its default.
+ *
+ * InOut latency is measured by the producer, from request to reply. InOnly latency is
+ * measured by the consumer from a send timestamp header, which is fine as both run
+ * in this JVM.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration
+public class LoadHarnessTest {
+    private static transient final Logger LOG = LoggerFactory.getLogger(LoadHarnessTest.class);
+    private static final String SENT_HEADER = "LoadHarnessSentNanos";
+    private static final long TIMEOUT_MINUTES = 10;
+
+    @Resource
+    protected ProducerTemplate template;
+    @Resource
+    protected CamelContext camelContext;
+
+    @Test
+    public void runScenarios() throws Exception {
+        Assume.assumeTrue(System.getProperty("load.harness") != null);
+
+        List<Scenario> scenarios = Scenario.parseAll(System.getProperty("load.scenarios"));
+        File output = new File(System.getProperty("load.output", "target/load-harness.jsonl")).getAbsoluteFile();
+        output.getParentFile().mkdirs();
+        ObjectMapper mapper = new ObjectMapper();
+
+        for(int i = 0; i < scenarios.size(); ++i) {
+            Map<String, Object> result = run(scenarios.get(i), i);
+            try (Writer writer = new FileWriter(output, true)) {
+                writer.write(mapper.writeValueAsString(result));
+                writer.write('\n');
+            }
+            Assert.assertEquals("Failed exchanges in "+scenarios.get(i), 0L, result.get("errors"));
+        }
+        LOG.info("Load harness results appended to {}", output);
+    }
+
+    private Map<String, Object> run(final Scenario scenario, int number) throws Exception {
+        final String routeId = "load-harness-"+number;
+        final String routingKey = "load.harness."+number;
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final AtomicReference<CountDownLatch> remaining = new AtomicReference<>();
+        final AtomicLong errors = new AtomicLong();
+
+        this.camelContext.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from("spring-amqp:loadHarness:"+routingKey+":"+routingKey+"?type=direct&durable=false&autodelete=true&exclusive=false"
+                        +"&concurrentConsumers="+scenario.concurrency+"&prefetchCount="+scenario.prefetch+"&acknowledgeMode="+scenario.ackMode)
+                    .routeId(routeId)
+                    .process(new Processor() {
+                        @Override
+                        public void process(Exchange exchange) throws Exception {
+                            //Replies echo the request; only one way messages are timed here
+                            if(scenario.inOut)
+                                return;
+                            Long sent = exchange.getIn().getHeader(SENT_HEADER, Long.class);
+                            if(sent != null)
+                                histogram.recordValue(System.nanoTime() - sent);
+                            remaining.get().countDown();
+                        }
+                    });
+            }
+        });
+
+        String endpoint = "spring-amqp:loadHarness:"+routingKey+"?type=direct&durable=false&autodelete=true&exclusive=false"
+            +(scenario.inOut ? "&replyQueue="+routingKey+".replies" : "");
+        String body = payload(scenario.messageSize);
+        ExecutorService producers = Executors.newFixedThreadPool(scenario.concurrency);
+        try {
+            sendAll(producers, scenario, endpoint, body, scenario.warmup, histogram, remaining, errors);
+            histogram.reset();
+            errors.set(0);
+            System.gc();
+
+            long[] gcBefore = gcTotals();
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            sendAll(producers, scenario, endpoint, body, scenario.messages, histogram, remaining, errors);
+            long elapsed = System.nanoTime() - start;
+            long allocatedAfter = allocatedBytes();
+            long[] gcAfter = gcTotals();
+
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("label", label());
+            result.put("timestamp", new Date().getTime());
+            result.put("broker", System.getProperty("test.broker.uri", "amqp://localhost"));
+            result.put("java", System.getProperty("java.version"));
+            result.put("scenario", scenario.toString());
+            result.put("pattern", scenario.inOut ? "InOut" : "InOnly");
+            result.put("messageSize", scenario.messageSize);
+            result.put("concurrency", scenario.concurrency);
+            result.put("prefetch", scenario.prefetch);
+            result.put("ackMode", scenario.ackMode);
+            result.put("messages", scenario.messages);
+            result.put("errors", errors.get());
+            result.put("elapsedMs", TimeUnit.NANOSECONDS.toMillis(elapsed));
+            result.put("throughputPerSecond", round(scenario.messages / (elapsed / 1e9)));
+
+            Map<String, Object> latency = new LinkedHashMap<>();
+            latency.put("p50", micros(histogram.getValueAtPercentile(50)));
+            latency.put("p90", micros(histogram.getValueAtPercentile(90)));
+            latency.put("p99", micros(histogram.getValueAtPercentile(99)));
+            latency.put("p99.9", micros(histogram.getValueAtPercentile(99.9)));
+            latency.put("max", micros(histogram.getMaxValue()));
+            latency.put("mean", round(histogram.getMean() / 1000));
+            result.put("latencyMicros", latency);
+
+            Map<String, Object> gc = new LinkedHashMap<>();
+            gc.put("collections", gcAfter[0] - gcBefore[0]);
+            gc.put("timeMs", gcAfter[1] - gcBefore[1]);
+            gc.put("timePercent", round(100.0 * (gcAfter[1] - gcBefore[1]) / Math.max(1, TimeUnit.NANOSECONDS.toMillis(elapsed))));
+            gc.put("allocatedBytesPerMessage", allocatedBefore < 0 ? -1 : (allocatedAfter - allocatedBefore) / scenario.messages);
+            result.put("gc", gc);
+
+            LOG.info("{}: {} msg/s, p50 {}us, p99 {}us, p99.9 {}us, {} GCs taking {}ms", new Object[] {
+                scenario, result.get("throughputPerSecond"), latency.get("p50"), latency.get("p99"), latency.get("p99.9"),
+                gc.get("collections"), gc.get("timeMs") });
+            return result;
+        } finally {
+            producers.shutdownNow();
+            this.camelContext.stopRoute(routeId);
+            this.camelContext.removeRoute(routeId);
+        }
+    }
+
+    /**
+     * Send count messages spread over the scenario's producer threads, returning once every one has completed.
+     */
+    private void sendAll(ExecutorService producers, final Scenario scenario, final String endpoint, final String body, int count,
+            final LatencyHistogram histogram, AtomicReference<CountDownLatch> remaining, final AtomicLong errors) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(count);
+        remaining.set(latch);
+        for(int thread = 0; thread < scenario.concurrency; ++thread) {
+            final int share = count / scenario.concurrency + (thread < count % scenario.concurrency ? 1 : 0);
+            producers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for(int i = 0; i < share; ++i) {
+                        try {
+                            if(scenario.inOut) {
+                                long start = System.nanoTime();
+                                template.requestBody(endpoint, body, String.class);
+                                histogram.recordValue(System.nanoTime() - start);
+                                latch.countDown();
+                            } else {
+                                template.sendBodyAndHeader(endpoint, body, SENT_HEADER, System.nanoTime());
+                            }
+                        } catch(RuntimeException e) {
+                            LOG.warn("Load harness exchange failed", e);
+                            errors.incrementAndGet();
+                            latch.countDown();
+                        }
+                    }
+                }
+            });
+        }
+        Assert.assertTrue("Timed out waiting for "+latch.getCount()+" messages of "+scenario, latch.await(TIMEOUT_MINUTES, TimeUnit.MINUTES));
+    }
+
+    private static String payload(int size) {
+        char[] chars = new char[size];
+        Arrays.fill(chars, 'x');
+        return new String(chars);
+    }
+
+    private static String label() {
+        String version = SpringAMQPComponent.class.getPackage().getImplementationVersion();
+        return System.getProperty("load.label", version == null ? "snapshot" : version);
+    }
+
+    private static long[] gcTotals() {
+        long collections = 0, time = 0;
+        for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collections += Math.max(0, collector.getCollectionCount());
+            time += Math.max(0, collector.getCollectionTime());
+        }
+        return new long[] { collections, time };
+    }
+
+    /**
+     * @return bytes allocated so far by the threads alive now, or -1 if the JVM can't say. Threads
+     * that finish between two readings take their allocations with them, so differences can understate.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if(!(threads instanceof com.sun.management.ThreadMXBean) || !((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemoryEnabled())
+            return -1;
+        long total = 0;
+        for(long allocated : ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threads.getAllThreadIds()))
+            total += Math.max(0, allocated);
+        return total;
+    }
+
+    private static double micros(long nanos) {
+        return round(nanos / 1000.0);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 10) / 10.0;
+    }
+
+    static class Scenario {
+        private boolean inOut = false;
+        private int messageSize = 256;
+        private int concurrency = 1;
+        private int prefetch = 1;
+        private String ackMode = "auto";
+        private int messages = 2000;
+        private int warmup = 500;
+
+        static List<Scenario> parseAll(String scenarios) {
+            List<Scenario> parsed = new ArrayList<>();
+            if(scenarios == null || scenarios.trim().isEmpty()) {
+                for(String pattern : Arrays.asList("InOnly", "InOut")) {
+                    for(int size : new int[] { 256, 16384 }) {
+                        parsed.add(parse("pattern="+pattern+",size="+size+",concurrency=1,prefetch=1,ack=auto"));
+                        parsed.add(parse("pattern="+pattern+",size="+size+",concurrency=8,prefetch=50,ack=auto"));
+                        parsed.add(parse("pattern="+pattern+",size="+size+",concurrency=8,prefetch=50,ack=none"));
+                    }
+                }
+                return parsed;
+            }
+
+            for(String scenario : scenarios.split(";")) {
+                if(! scenario.trim().isEmpty())
+                    parsed.add(parse(scenario));
+            }
+            return parsed;
+        }
+
+        static Scenario parse(String scenario) {
+            Scenario parsed = new Scenario();
+            for(String setting : scenario.split(",")) {
+                String[] keyValue = setting.split("=", 2);
+                if(keyValue.length != 2)
+                    throw new IllegalArgumentException("Scenario setting "+setting+" is not key=value");
+                String key = keyValue[0].trim(), value = keyValue[1].trim();
+                switch(key) {
+                    case "pattern":
+                        if(! value.equalsIgnoreCase("InOut") && ! value.equalsIgnoreCase("InOnly"))
+                            throw new IllegalArgumentException("Pattern "+value+" is neither InOnly nor InOut");
+                        parsed.inOut = value.equalsIgnoreCase("InOut");
+                        break;
+                    case "size":
+                        parsed.messageSize = Integer.parseInt(value);
+                        break;
+                    case "concurrency":
+                        parsed.concurrency = Integer.parseInt(value);
+                        break;
+                    case "prefetch":
+                        parsed.prefetch = Integer.parseInt(value);
+                        break;
+                    case "ack":
+                        parsed.ackMode = value.toLowerCase();
+                        break;
+                    case "messages":
+                        parsed.messages = Integer.parseInt(value);
+                        break;
+                    case "warmup":
+                        parsed.warmup = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown scenario setting "+key);
+                }
+            }
+            if(parsed.concurrency < 1 || parsed.messages < 1)
+                throw new IllegalArgumentException("Scenario "+scenario+" needs at least one message and one thread");
+            return parsed;
+        }
+
+        @Override
+        public String toString() {
+            return "pattern="+(this.inOut ? "InOut" : "InOnly")+",size="+this.messageSize+",concurrency="+this.concurrency
+                +",prefetch="+this.prefetch+",ack="+this.ackMode+",messages="+this.messages+",warmup="+this.warmup;
+        }
+    }
+}
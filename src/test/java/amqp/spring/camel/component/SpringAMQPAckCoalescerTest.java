@@ -0,0 +1,97 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+package amqp.spring.camel.component;
+
+import com.rabbitmq.client.Channel;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SpringAMQPAckCoalescerTest {
+    @Test
+    public void acknowledgeEveryBatch() throws Exception {
+        RecordingChannel recorder = new RecordingChannel();
+        SpringAMQPAckCoalescer coalescer = new SpringAMQPAckCoalescer(recorder.channel, null, 3, 100);
+        for(long tag = 1; tag <= 7; ++tag) {
+            coalescer.delivered(tag);
+            coalescer.acknowledge(tag);
+        }
+        
+        Assert.assertEquals("[ack 3, ack 6]", recorder.calls.toString());
+        Assert.assertEquals(1, coalescer.getPendingCount());
+        
+        coalescer.flush();
+        Assert.assertEquals("[ack 3, ack 6, ack 7]", recorder.calls.toString());
+        Assert.assertEquals(0, coalescer.getPendingCount());
+    }
+    
+    @Test
+    public void outOfOrderCompletion() throws Exception {
+        RecordingChannel recorder = new RecordingChannel();
+        SpringAMQPAckCoalescer coalescer = new SpringAMQPAckCoalescer(recorder.channel, null, 2, 100);
+        for(long tag = 1; tag <= 5; ++tag)
+            coalescer.delivered(tag);
+        
+        //Tag 1 is still being processed, so nothing can be acknowledged yet
+        coalescer.acknowledge(3);
+        coalescer.acknowledge(2);
+        Assert.assertTrue(recorder.calls.isEmpty());
+        
+        coalescer.acknowledge(1);
+        Assert.assertEquals("[ack 3]", recorder.calls.toString());
+        
+        coalescer.acknowledge(5);
+        coalescer.flush();
+        Assert.assertEquals("[ack 3]", recorder.calls.toString());
+        
+        coalescer.acknowledge(4);
+        Assert.assertEquals("[ack 3, ack 5]", recorder.calls.toString());
+    }
+    
+    @Test
+    public void rejectFailuresIndividually() throws Exception {
+        RecordingChannel recorder = new RecordingChannel();
+        SpringAMQPAckCoalescer coalescer = new SpringAMQPAckCoalescer(recorder.channel, null, 2, 100);
+        for(long tag = 1; tag <= 3; ++tag)
+            coalescer.delivered(tag);
+        
+        coalescer.acknowledge(2);
+        coalescer.acknowledge(3);
+        Assert.assertTrue(recorder.calls.isEmpty());
+        
+        coalescer.reject(1, false);
+        Assert.assertEquals("[requeue 1, ack 3]", recorder.calls.toString());
+        
+        //Failing again after being redelivered, it is left to the dead letter exchange
+        coalescer.delivered(4);
+        coalescer.reject(4, true);
+        Assert.assertEquals("[requeue 1, ack 3, reject 4]", recorder.calls.toString());
+    }
+    
+    private static class RecordingChannel implements InvocationHandler {
+        private final List<String> calls = new ArrayList<>();
+        private final Channel channel = (Channel) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Channel.class}, this);
+        
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch(method.getName()) {
+                case "basicAck":
+                    Assert.assertTrue("Expected a multiple ack", (Boolean) args[1]);
+                    calls.add("ack " + args[0]);
+                    return null;
+                case "basicReject":
+                    calls.add(((Boolean) args[1] ? "requeue " : "reject ") + args[0]);
+                    return null;
+                case "isOpen":
+                    return true;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+package amqp.spring.camel.component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.Exchange;
+import org.apache.camel.ExchangeTimedOutException;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.support.DefaultMessagePropertiesConverter;
+
+public class SpringAMQPBatchPublisherTest {
+    private static final Executor SAME_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private ConfirmingChannel broker;
+    private SpringAMQPPublisherSupport support;
+    private ScheduledExecutorService scheduler;
+
+    @Before
+    public void setUp() throws Exception {
+        this.broker = new ConfirmingChannel();
+        this.support = new SpringAMQPPublisherSupport(this.broker.connectionFactory, new DefaultMessagePropertiesConverter(),
+                SpringAMQPComponent.DEFAULT_ENCODING, SAME_THREAD);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.scheduler.shutdownNow();
+    }
+
+    @Test
+    public void nextBatchGoesOutBeforeConfirms() throws Exception {
+        SpringAMQPBatchPublisher publisher = new SpringAMQPBatchPublisher(this.support, this.scheduler, this.scheduler, 5000, 2, 0, 1000);
+        CompletionLatch completions = new CompletionLatch(4);
+        for(int i = 0; i < 4; ++i)
+            publisher.publish("exchange", "key", new Message(new byte[] {(byte) i}, new MessageProperties()), completions.newExchange(), completions);
+
+        //Both batches are written while the broker has yet to confirm either
+        this.broker.awaitPublished(4);
+        Assert.assertEquals(4, completions.latch.getCount());
+        Assert.assertEquals(4, publisher.getPendingConfirmCount());
+
+        this.broker.confirmListener.handleAck(4, true);
+        Assert.assertTrue(completions.latch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(completions.failures.isEmpty());
+    }
+
+    @Test
+    public void unconfirmedPublishTimesOut() throws Exception {
+        SpringAMQPConfirmPublisher publisher = new SpringAMQPConfirmPublisher(this.support, this.scheduler, 50);
+        CompletionLatch completions = new CompletionLatch(1);
+        publisher.publish("exchange", "key", new Message(new byte[] {1}, new MessageProperties()), completions.newExchange(), completions);
+
+        Assert.assertTrue(completions.latch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(completions.failures.get(0) instanceof ExchangeTimedOutException);
+        Assert.assertEquals(0, publisher.getPendingCount());
+    }
+
+    private static class CompletionLatch implements AsyncCallback {
+        private final DefaultCamelContext context = new DefaultCamelContext();
+        private final CountDownLatch latch;
+        private final List<Exchange> exchanges = new ArrayList<>();
+        private final List<Throwable> failures = new ArrayList<>();
+
+        CompletionLatch(int count) {
+            this.latch = new CountDownLatch(count);
+        }
+
+        Exchange newExchange() {
+            Exchange exchange = new DefaultExchange(this.context);
+            this.exchanges.add(exchange);
+            return exchange;
+        }
+
+        @Override
+        public synchronized void done(boolean doneSync) {
+            for(Exchange exchange : this.exchanges) {
+                if(exchange.getException() != null && !this.failures.contains(exchange.getException()))
+                    this.failures.add(exchange.getException());
+            }
+            this.latch.countDown();
+        }
+    }
+}
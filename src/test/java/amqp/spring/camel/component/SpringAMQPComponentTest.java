@@ -3,12 +3,16 @@
  * You can obtain one at http://mozilla.org/MPL/2.0/. */
 package amqp.spring.camel.component;
 
+import java.util.Collections;
 import org.apache.camel.CamelContext;
 import org.apache.camel.Component;
 import org.apache.camel.test.junit4.CamelTestSupport;
 import org.junit.Assert;
 import org.junit.Test;
+import org.springframework.amqp.core.AmqpTemplate;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
 
 public class SpringAMQPComponentTest extends CamelTestSupport {
     
@@ -26,6 +30,39 @@ public class SpringAMQPComponentTest extends CamelTestSupport {
         Assert.assertEquals(child, SpringAMQPComponent.findRootCause(grandparent));
     }
     
+    @Test
+    public void testPublisherTemplate() throws Exception {
+        SpringAMQPComponent component = context().getComponent("spring-amqp", SpringAMQPComponent.class);
+        AmqpTemplate template = component.getAmqpTemplate().get(SpringAMQPComponent.DEFAULT_CONNECTION);
+        try {
+            component.getPublisherTemplate(template);
+            Assert.fail("Publisher template created without a publisher connection factory");
+        } catch(IllegalStateException e) {
+            Assert.assertTrue(e.getMessage().contains("publisherConnectionFactory"));
+        }
+        
+        //The component's own template has no settings to carry over, so a connection factory will do
+        CachingConnectionFactory publisherFactory = new CachingConnectionFactory("broker.example.com", 5673);
+        component.setPublisherConnectionFactory(Collections.<String, ConnectionFactory>singletonMap(SpringAMQPComponent.DEFAULT_CONNECTION, publisherFactory));
+        RabbitTemplate publisherTemplate = (RabbitTemplate) component.getPublisherTemplate(template);
+        Assert.assertSame(publisherFactory, publisherTemplate.getConnectionFactory());
+        Assert.assertSame(publisherTemplate, component.getPublisherTemplate(template));
+        
+        //Anyone else's template has to come with a publisher template
+        RabbitTemplate configured = new RabbitTemplate(new CachingConnectionFactory("broker.example.com", 5673));
+        component.setAmqpTemplate(Collections.<String, AmqpTemplate>singletonMap("configured", configured));
+        try {
+            component.getPublisherTemplate(configured);
+            Assert.fail("Publisher template derived from a configured template");
+        } catch(IllegalStateException e) {
+            Assert.assertTrue(e.getMessage().contains("publisherTemplate"));
+        }
+        
+        RabbitTemplate configuredPublisher = new RabbitTemplate(publisherFactory);
+        component.setPublisherTemplate(Collections.<String, AmqpTemplate>singletonMap("configured", configuredPublisher));
+        Assert.assertSame(configuredPublisher, component.getPublisherTemplate(configured));
+    }
+    
     @Override
     protected CamelContext createCamelContext() throws Exception {
         ConnectionFactory factory = new TestConnectionFactory();
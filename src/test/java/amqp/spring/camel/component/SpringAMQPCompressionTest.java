@@ -0,0 +1,70 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+package amqp.spring.camel.component;
+
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.SimpleMessageConverter;
+
+public class SpringAMQPCompressionTest {
+    @Test
+    public void roundTrip() throws Exception {
+        for(SpringAMQPEndpoint.Compression compression : SpringAMQPEndpoint.Compression.values()) {
+            if(compression == SpringAMQPEndpoint.Compression.None)
+                continue;
+            
+            byte[] body = createBody(4096);
+            Message compressed = SpringAMQPCompression.compress(createMessage(body), compression, 1024);
+            Assert.assertEquals(compression.getContentEncoding(), compressed.getMessageProperties().getContentEncoding());
+            Assert.assertEquals("UTF-8", compressed.getMessageProperties().getHeaders().get(SpringAMQPHeader.ORIGINAL_CONTENT_ENCODING));
+            Assert.assertTrue(compression+" made "+compressed.getBody().length+" bytes", compressed.getBody().length < body.length);
+            
+            Message decompressed = SpringAMQPCompression.decompress(compressed);
+            Assert.assertArrayEquals(body, decompressed.getBody());
+            Assert.assertEquals("UTF-8", decompressed.getMessageProperties().getContentEncoding());
+            Assert.assertFalse(decompressed.getMessageProperties().getHeaders().containsKey(SpringAMQPHeader.ORIGINAL_CONTENT_ENCODING));
+        }
+    }
+    
+    @Test
+    public void smallOrCompressedBodiesLeftAlone() throws Exception {
+        Message small = createMessage(createBody(100));
+        Assert.assertSame(small, SpringAMQPCompression.compress(small, SpringAMQPEndpoint.Compression.Gzip, 1024));
+        
+        Message compressed = SpringAMQPCompression.compress(createMessage(createBody(4096)), SpringAMQPEndpoint.Compression.Gzip, 1024);
+        Assert.assertSame(compressed, SpringAMQPCompression.compress(compressed, SpringAMQPEndpoint.Compression.Snappy, 1024));
+        
+        Message plain = createMessage(createBody(4096));
+        Assert.assertSame(plain, SpringAMQPCompression.decompress(plain));
+    }
+    
+    @Test
+    public void receivedMessagesDecompressed() throws Exception {
+        String text = new String(createBody(4096), "UTF-8");
+        MessageProperties properties = new MessageProperties();
+        Message amqpMessage = new SimpleMessageConverter().toMessage(text, properties);
+        amqpMessage = SpringAMQPCompression.compress(amqpMessage, SpringAMQPEndpoint.Compression.Deflate, 1024);
+        
+        SpringAMQPMessage camelMessage = SpringAMQPMessage.fromAMQPMessage(new SimpleMessageConverter(), amqpMessage);
+        Assert.assertEquals(text, camelMessage.getBody());
+        Assert.assertEquals("UTF-8", camelMessage.getHeader(SpringAMQPHeader.CONTENT_ENCODING));
+    }
+    
+    private static Message createMessage(byte[] body) {
+        MessageProperties properties = new MessageProperties();
+        properties.setContentEncoding("UTF-8");
+        return new Message(body, properties);
+    }
+    
+    private static byte[] createBody(int length) {
+        byte[] body = new byte[length];
+        byte[] pattern = "{\"reading\":12.5,\"sensor\":\"abc\"},".getBytes();
+        for(int i = 0; i < length; ++i)
+            body[i] = pattern[i % pattern.length];
+        return Arrays.copyOf(body, length);
+    }
+}
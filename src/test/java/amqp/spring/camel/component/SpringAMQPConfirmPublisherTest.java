@@ -0,0 +1,110 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+package amqp.spring.camel.component;
+
+import com.rabbitmq.client.ShutdownSignalException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.support.DefaultMessagePropertiesConverter;
+
+public class SpringAMQPConfirmPublisherTest {
+    private static final Executor SAME_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final DefaultCamelContext context = new DefaultCamelContext();
+    private final AtomicInteger completions = new AtomicInteger();
+    private final AsyncCallback callback = new AsyncCallback() {
+        @Override
+        public void done(boolean doneSync) {
+            completions.incrementAndGet();
+        }
+    };
+
+    private ConfirmingChannel broker;
+    private ScheduledExecutorService scheduler;
+    private SpringAMQPConfirmPublisher publisher;
+
+    @Before
+    public void setUp() throws Exception {
+        this.broker = new ConfirmingChannel();
+        SpringAMQPPublisherSupport support = new SpringAMQPPublisherSupport(this.broker.connectionFactory, new DefaultMessagePropertiesConverter(),
+                SpringAMQPComponent.DEFAULT_ENCODING, SAME_THREAD);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+        this.publisher = new SpringAMQPConfirmPublisher(support, this.scheduler, 5000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.scheduler.shutdownNow();
+    }
+
+    @Test
+    public void nackFailsOnlyThatExchange() throws Exception {
+        Exchange acked = publish();
+        Exchange nacked = publish();
+
+        this.broker.confirmListener.handleNack(2, false);
+        Assert.assertEquals(1, this.completions.get());
+        Assert.assertTrue(nacked.getException() instanceof AmqpException);
+        Assert.assertEquals(1, this.publisher.getPendingCount());
+
+        this.broker.confirmListener.handleAck(1, false);
+        Assert.assertEquals(2, this.completions.get());
+        Assert.assertNull(acked.getException());
+        Assert.assertEquals(0, this.publisher.getPendingCount());
+    }
+
+    @Test
+    public void lostChannelFailsUnconfirmed() throws Exception {
+        Exchange first = publish();
+        Exchange second = publish();
+
+        ShutdownSignalException cause = new ShutdownSignalException(false, false, null, this.broker.channel);
+        this.broker.lose(cause);
+        Assert.assertEquals(2, this.completions.get());
+        for(Exchange exchange : new Exchange[] {first, second}) {
+            Assert.assertTrue(exchange.getException() instanceof AmqpException);
+            Assert.assertSame(cause, exchange.getException().getCause());
+        }
+        Assert.assertEquals(0, this.publisher.getPendingCount());
+    }
+
+    @Test
+    public void noTimeoutWaitsForTheBroker() throws Exception {
+        this.publisher = new SpringAMQPConfirmPublisher(new SpringAMQPPublisherSupport(this.broker.connectionFactory,
+                new DefaultMessagePropertiesConverter(), SpringAMQPComponent.DEFAULT_ENCODING, SAME_THREAD), null, 0);
+        Exchange exchange = publish();
+
+        Thread.sleep(50);
+        Assert.assertEquals(0, this.completions.get());
+        Assert.assertEquals(1, this.publisher.getPendingCount());
+
+        this.publisher.stop();
+        Assert.assertEquals(1, this.completions.get());
+        Assert.assertTrue(exchange.getException() instanceof AmqpException);
+    }
+
+    private Exchange publish() throws Exception {
+        Exchange exchange = new DefaultExchange(this.context);
+        this.publisher.publish("exchange", "key", new Message(new byte[] {1}, new MessageProperties()), exchange, this.callback);
+        return exchange;
+    }
+}
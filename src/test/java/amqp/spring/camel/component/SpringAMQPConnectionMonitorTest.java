@@ -0,0 +1,47 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+package amqp.spring.camel.component;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SpringAMQPConnectionMonitorTest {
+    @Test
+    public void blockedAndUnblocked() throws Exception {
+        final AtomicInteger unblocked = new AtomicInteger();
+        SpringAMQPConnectionMonitor monitor = new SpringAMQPConnectionMonitor("test");
+        monitor.addUnblockListener(new Runnable() {
+            @Override
+            public void run() {
+                unblocked.incrementAndGet();
+            }
+        });
+        Assert.assertFalse(monitor.isBlocked());
+        Assert.assertEquals(0, monitor.getBlockedMillis());
+        
+        monitor.handleBlocked("low on memory");
+        monitor.handleBlocked("low on memory");
+        Assert.assertTrue(monitor.isBlocked());
+        Assert.assertEquals("low on memory", monitor.getBlockedReason());
+        Assert.assertEquals(1, monitor.getBlockedCount());
+        
+        Thread.sleep(20);
+        monitor.handleUnblocked();
+        monitor.handleUnblocked();
+        Assert.assertFalse(monitor.isBlocked());
+        Assert.assertNull(monitor.getBlockedReason());
+        Assert.assertEquals(0, monitor.getBlockedMillis());
+        Assert.assertTrue(monitor.getTotalBlockedMillis() >= 20);
+        Assert.assertEquals(1, unblocked.get());
+    }
+    
+    @Test
+    public void closedConnectionIsUnblocked() throws Exception {
+        SpringAMQPConnectionMonitor monitor = new SpringAMQPConnectionMonitor("test");
+        monitor.handleBlocked("low on disk");
+        monitor.onClose(null);
+        Assert.assertFalse(monitor.isBlocked());
+    }
+}
@@ -0,0 +1,71 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+package amqp.spring.camel.component;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SpringAMQPConsumerScalerTest {
+    @Test
+    public void scaleUpToDrainBacklog() throws Exception {
+        SpringAMQPConsumerScaler scaler = new SpringAMQPConsumerScaler(new FixedTarget(0), 1, 20, 2, 1, 1000);
+        //Two busy consumers, 100 ms per message and 50 waiting: 2 to keep up plus 5 to drain within a second
+        Assert.assertEquals(7, scaler.decide(50, 1.0, 100));
+        //Never past maxConsumers
+        Assert.assertEquals(20, scaler.decide(5000, 1.0, 100));
+        //A backlog with idle consumers isn't for want of consumers
+        Assert.assertEquals(2, scaler.decide(50, 0.5, 100));
+    }
+    
+    @Test
+    public void scaleDownAfterRepeatedIdleSamples() throws Exception {
+        FixedTarget target = new FixedTarget(0);
+        SpringAMQPConsumerScaler scaler = new SpringAMQPConsumerScaler(target, 1, 10, 3, 1, 1000);
+        Assert.assertEquals(3, scaler.decide(0, 0.1, 10));
+        Assert.assertEquals(3, scaler.decide(0, 0.1, 10));
+        //A busy sample in between starts the count over
+        Assert.assertEquals(3, scaler.decide(0, 0.9, 10));
+        Assert.assertEquals(3, scaler.decide(0, 0.1, 10));
+        Assert.assertEquals(3, scaler.decide(0, 0.1, 10));
+        Assert.assertEquals(2, scaler.decide(0, 0.1, 10));
+    }
+    
+    @Test
+    public void sampleAppliesDecision() throws Exception {
+        FixedTarget target = new FixedTarget(100);
+        SpringAMQPConsumerScaler scaler = new SpringAMQPConsumerScaler(target, 2, 8, 1, 1, 10);
+        Assert.assertEquals(2, scaler.getConsumers());
+        
+        Thread.sleep(20);
+        scaler.recordCompletion(TimeUnit.SECONDS.toNanos(1));
+        scaler.sample();
+        Assert.assertEquals(8, scaler.getConsumers());
+        Assert.assertEquals(8, target.consumers);
+        
+        //Unknown queue depth leaves things as they are
+        target.depth = null;
+        scaler.sample();
+        Assert.assertEquals(8, scaler.getConsumers());
+    }
+    
+    private static class FixedTarget implements SpringAMQPConsumerScaler.Target {
+        private Integer depth;
+        private int consumers = 0;
+        
+        FixedTarget(Integer depth) {
+            this.depth = depth;
+        }
+        
+        @Override
+        public Integer getQueueDepth() {
+            return this.depth;
+        }
+        
+        @Override
+        public void setConsumers(int consumers) {
+            this.consumers = consumers;
+        }
+    }
+}
@@ -4,7 +4,10 @@
 package amqp.spring.camel.component;
 
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import org.apache.camel.*;
 import org.apache.camel.builder.RouteBuilder;
 import org.apache.camel.component.mock.MockEndpoint;
@@ -19,6 +22,7 @@ import org.springframework.amqp.support.converter.JsonMessageConverter;
 
 
 public class SpringAMQPConsumerTest extends CamelTestSupport {
+    private ConnectionFactory connectionFactory;
     
     @Test
     public void testCreateContext() throws Exception {
@@ -74,6 +78,122 @@ public class SpringAMQPConsumerTest extends CamelTestSupport {
         Assert.assertNotNull(inMessage.getMessageId());
     }
     
+    @Test
+    public void consumeBatch() throws Exception {
+        MockEndpoint mockEndpoint = getMockEndpoint("mock:test.h");
+        mockEndpoint.expectedMessageCount(2);
+        for(int i = 0; i < 15; ++i)
+            context().createProducerTemplate().sendBodyAndHeader("spring-amqp:directExchange:test.h?durable=false&autodelete=true&exclusive=false", "batch " + i, "Sequence", i);
+        
+        //One full batch of 10, then the remaining 5 once the batch timeout passes
+        mockEndpoint.assertIsSatisfied();
+        List<?> firstBatch = mockEndpoint.getExchanges().get(0).getIn().getBody(List.class);
+        List<?> secondBatch = mockEndpoint.getExchanges().get(1).getIn().getBody(List.class);
+        Assert.assertEquals(10, firstBatch.size());
+        Assert.assertEquals(5, secondBatch.size());
+        Assert.assertEquals("batch 0", firstBatch.get(0));
+        
+        List<?> headers = mockEndpoint.getExchanges().get(1).getIn().getHeader(SpringAMQPComponent.BATCH_HEADERS, List.class);
+        Assert.assertEquals(5, headers.size());
+        Assert.assertEquals(14, ((Map<?, ?>) headers.get(4)).get("Sequence"));
+    }
+    
+    @Test
+    public void failedBatchIsRequeuedOnlyOnce() throws Exception {
+        MockEndpoint mockEndpoint = getMockEndpoint("mock:test.failbatch");
+        //The batch and its one redelivery, then nothing more
+        mockEndpoint.expectedMessageCount(2);
+        mockEndpoint.setAssertPeriod(1000);
+        for(int i = 0; i < 5; ++i)
+            context().createProducerTemplate().sendBody("spring-amqp:directExchange:test.failbatch?durable=false&autodelete=true&exclusive=false", "batch " + i);
+        
+        mockEndpoint.assertIsSatisfied();
+        Assert.assertEquals(5, mockEndpoint.getExchanges().get(1).getIn().getBody(List.class).size());
+    }
+    
+    @Test
+    public void coalesceAcks() throws Exception {
+        MockEndpoint mockEndpoint = getMockEndpoint("mock:test.i");
+        mockEndpoint.expectedMessageCount(25);
+        for(int i = 0; i < 25; ++i)
+            context().createProducerTemplate().sendBody("spring-amqp:directExchange:test.i?durable=false&autodelete=true&exclusive=false", "ack " + i);
+        
+        //Past the raised prefetch window of 10 only acknowledged deliveries make room for more
+        mockEndpoint.assertIsSatisfied();
+        Assert.assertEquals("ack 24", mockEndpoint.getExchanges().get(24).getIn().getBody(String.class));
+    }
+    
+    @Test
+    public void consumeAsynchronously() throws Exception {
+        MockEndpoint mockEndpoint = getMockEndpoint("mock:test.j");
+        mockEndpoint.expectedMessageCount(10);
+        //Each message waits a second in the route; one at a time this would take ten
+        mockEndpoint.setResultWaitTime(5000);
+        for(int i = 0; i < 10; ++i)
+            context().createProducerTemplate().sendBody("spring-amqp:directExchange:test.j?durable=false&autodelete=true&exclusive=false", "async " + i);
+        
+        mockEndpoint.assertIsSatisfied();
+        
+        String reply = context().createProducerTemplate().requestBody("spring-amqp:directExchange:test.j?durable=false&autodelete=true&exclusive=false&replyQueue=test.j.replies", "request", String.class);
+        Assert.assertEquals("REPLY TO request", reply);
+    }
+    
+    @Test
+    public void autoscaledConsumer() throws Exception {
+        MockEndpoint mockEndpoint = getMockEndpoint("mock:test.k");
+        mockEndpoint.expectedMessageCount(20);
+        //One consumer at 100 ms a message would need two seconds for these
+        mockEndpoint.setResultWaitTime(10000);
+        for(int i = 0; i < 20; ++i)
+            context().createProducerTemplate().sendBody("spring-amqp:directExchange:test.k?durable=false&autodelete=true&exclusive=false", "scaled " + i);
+        
+        mockEndpoint.assertIsSatisfied();
+        
+        //Started with one consumer, so more than one listener thread means it scaled up
+        Set<String> consumerThreads = new HashSet<>();
+        for(Exchange exchange : mockEndpoint.getExchanges())
+            consumerThreads.add(exchange.getIn().getHeader("ConsumerThread", String.class));
+        Assert.assertTrue("Consumers never scaled up: " + consumerThreads, consumerThreads.size() > 1);
+    }
+    
+    @Test
+    public void partitionedConsumer() throws Exception {
+        MockEndpoint mockEndpoint = getMockEndpoint("mock:test.part");
+        mockEndpoint.expectedMessageCount(40);
+        for(int i = 0; i < 40; ++i) {
+            Map<String, Object> headers = new HashMap<>();
+            headers.put("Account", "account-" + (i % 4));
+            headers.put("Sequence", i);
+            context().createProducerTemplate().sendBodyAndHeaders("spring-amqp:directExchange:test.part?durable=false&autodelete=true&exclusive=false", "partitioned " + i, headers);
+        }
+        
+        mockEndpoint.assertIsSatisfied();
+        //Lanes interleave, but every account's messages arrive in the order they were sent
+        Map<Object, Integer> lastSequence = new HashMap<>();
+        for(Exchange exchange : mockEndpoint.getExchanges()) {
+            Object account = exchange.getIn().getHeader("Account");
+            int sequence = exchange.getIn().getHeader("Sequence", Integer.class);
+            Integer previous = lastSequence.put(account, sequence);
+            Assert.assertTrue("Out of order for " + account, previous == null || previous < sequence);
+        }
+    }
+    
+    @Test
+    public void compressedMessage() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for(int i = 0; i < 500; ++i)
+            body.append("compressible ");
+        
+        MockEndpoint mockEndpoint = getMockEndpoint("mock:test.zip");
+        mockEndpoint.expectedBodiesReceived(body.toString());
+        context().createProducerTemplate().sendBody("spring-amqp:directExchange:test.zip?durable=false&autodelete=true&exclusive=false&compression=Snappy&compressionThreshold=100", body.toString());
+        mockEndpoint.assertIsSatisfied();
+        
+        Exchange received = mockEndpoint.getExchanges().get(0);
+        Assert.assertNotEquals("snappy", received.getIn().getHeader(SpringAMQPHeader.CONTENT_ENCODING));
+        Assert.assertNull(received.getIn().getHeader(SpringAMQPHeader.ORIGINAL_CONTENT_ENCODING));
+    }
+    
     @Test
     public void sendAsyncMessage() throws Exception {
         MockEndpoint mockEndpoint = getMockEndpoint("mock:test.b");
@@ -180,6 +300,30 @@ public class SpringAMQPConsumerTest extends CamelTestSupport {
 
     }
 
+    @Test
+    public void refusedReplyIsRequeuedOnlyOnce() throws Exception {
+        MockEndpoint mockEndpoint = getMockEndpoint("mock:test.refused");
+        //The first delivery and its one redelivery, then nothing more
+        mockEndpoint.expectedMessageCount(2);
+        mockEndpoint.setAssertPeriod(1000);
+        
+        SpringAMQPComponent component = context().getComponent("spring-amqp", SpringAMQPComponent.class);
+        SpringAMQPConnectionMonitor monitor = component.getConnectionMonitor(this.connectionFactory);
+        monitor.handleBlocked("test alarm");
+        try {
+            //No reply comes back, so the request itself just times out
+            context().createProducerTemplate().request("spring-amqp:directExchange:test.refused?replyTimeout=500", new Processor() {
+                @Override
+                public void process(Exchange exchange) throws Exception {
+                    exchange.getIn().setBody("refuse me");
+                }
+            });
+            mockEndpoint.assertIsSatisfied();
+        } finally {
+            monitor.handleUnblocked();
+        }
+    }
+
     @Override
     protected JndiRegistry createRegistry() throws Exception {
         JndiRegistry registry = super.createRegistry();
@@ -190,6 +334,7 @@ public class SpringAMQPConsumerTest extends CamelTestSupport {
     @Override
     protected CamelContext createCamelContext() throws Exception {
         ConnectionFactory factory = new TestConnectionFactory();
+        this.connectionFactory = factory;
         RabbitTemplate amqpTemplate = new RabbitTemplate(factory);
         //The JSON converter stresses marshalling more than the default converter
         amqpTemplate.setMessageConverter(new JsonMessageConverter());
@@ -211,6 +356,19 @@ public class SpringAMQPConsumerTest extends CamelTestSupport {
             public void configure() throws Exception {
                 from("spring-amqp:directExchange:q1:test.a?durable=false&autodelete=true&exclusive=false").to("mock:test.a");
                 from("spring-amqp:directExchange:q5:test.b?durable=false&autodelete=true&exclusive=false").to("mock:test.b");
+                from("spring-amqp:directExchange:q7:test.h?durable=false&autodelete=true&exclusive=false&acknowledgeMode=manual&consumeBatchSize=10&consumeBatchTimeoutMs=200").to("mock:test.h");
+                from("spring-amqp:directExchange:q14:test.failbatch?durable=false&autodelete=true&exclusive=false&acknowledgeMode=manual&consumeBatchSize=5&consumeBatchTimeoutMs=2000")
+                        .to("mock:test.failbatch").throwException(new IllegalStateException("Batch failed"));
+                from("spring-amqp:directExchange:q8:test.i?durable=false&autodelete=true&exclusive=false&acknowledgeMode=manual&ackBatchSize=10&ackBatchTimeoutMs=100").to("mock:test.i");
+                from("spring-amqp:directExchange:q9:test.j?durable=false&autodelete=true&exclusive=false&acknowledgeMode=manual&prefetchCount=20&asyncConsumer=true")
+                        .delay(1000).asyncDelayed().to("mock:test.j").transform(body().prepend("REPLY TO "));
+                from("spring-amqp:directExchange:q10:test.k?durable=false&autodelete=true&exclusive=false&acknowledgeMode=auto&minConsumers=1&maxConsumers=4&scaleIntervalMs=200")
+                        .setHeader("ConsumerThread", simple("${threadName}")).delay(100).to("mock:test.k");
+                from("spring-amqp:directExchange:q11:test.part?durable=false&autodelete=true&exclusive=false&acknowledgeMode=manual&partitionLanes=4&partitionHeader=Account")
+                        .delay(20).to("mock:test.part");
+                from("spring-amqp:directExchange:q12:test.zip?durable=false&autodelete=true&exclusive=false").to("mock:test.zip");
+                from("spring-amqp:directExchange:q13:test.refused?durable=false&autodelete=true&exclusive=false&acknowledgeMode=auto&blockedPolicy=Fail")
+                        .to("mock:test.refused").transform(body().prepend("REPLY TO "));
                 from("spring-amqp:directExchange:q6:test.g?durable=false&prefetchCount=1&acknowledgeMode=auto").to("mock:test.g");
                 from("spring-amqp:headerAndExchange:q2:cheese=asiago&fromage=cheddar?type=headers&durable=false&autodelete=true&exclusive=false").to("mock:test.b");
                 from("spring-amqp:headerAndExchange:q3:cheese=gouda&fromage=jack?type=headers&durable=false&autodelete=true&exclusive=false").to("mock:test.c");
@@ -46,6 +46,28 @@ public class SpringAMQPEndpointTest extends CamelTestSupport {
     	Assert.assertEquals("routingKey1", ReflectionTestUtils.getField(endpoint, "tempQueueOrKey"));
     }
     
+    @Test
+    public void testInFlightLimitOptions() {
+        SpringAMQPEndpoint endpoint = context().getEndpoint("spring-amqp:exchange1:routingKey1?maxInFlight=10&overflowPolicy=Reject", SpringAMQPEndpoint.class);
+        Assert.assertEquals(10, endpoint.getMaxInFlight());
+        Assert.assertEquals(SpringAMQPEndpoint.OverflowPolicy.Reject, endpoint.getOverflowPolicy());
+        
+        endpoint = context().getEndpoint("spring-amqp:exchange1:routingKey1", SpringAMQPEndpoint.class);
+        Assert.assertEquals(0, endpoint.getMaxInFlight());
+        Assert.assertEquals(SpringAMQPEndpoint.OverflowPolicy.Block, endpoint.getOverflowPolicy());
+    }
+    
+    @Test
+    public void testHeaderFilterOptions() {
+        SpringAMQPEndpoint endpoint = context().getEndpoint("spring-amqp:exchange1:routingKey1?headerExcludes=CamelHttp*,breadcrumbId", SpringAMQPEndpoint.class);
+        Assert.assertTrue(endpoint.getHeaderFilterStrategy() instanceof SpringAMQPHeaderFilter);
+        Assert.assertTrue(endpoint.getHeaderFilterStrategy().applyFilterToCamelHeaders("CamelHttpUri", "/", null));
+        Assert.assertFalse(endpoint.getHeaderFilterStrategy().applyFilterToCamelHeaders("Cheese", "Gouda", null));
+        
+        endpoint = context().getEndpoint("spring-amqp:exchange1:routingKey1", SpringAMQPEndpoint.class);
+        Assert.assertNull(endpoint.getHeaderFilterStrategy());
+    }
+    
     @Test
     public void testIsUsingDefaultExchangeTrue() {
         Component component = context().getComponent("spring-amqp", SpringAMQPComponent.class);
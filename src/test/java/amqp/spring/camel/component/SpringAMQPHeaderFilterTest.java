@@ -0,0 +1,65 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+package amqp.spring.camel.component;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+
+public class SpringAMQPHeaderFilterTest {
+    @Test
+    public void excludesNamesAndPrefixes() throws Exception {
+        SpringAMQPHeaderFilter filter = new SpringAMQPHeaderFilter(null, "CamelHttp*, breadcrumbId,Camel");
+        Assert.assertFalse(filter.isSent("CamelHttpUri"));
+        Assert.assertFalse(filter.isSent("camelhttpmethod"));
+        Assert.assertFalse(filter.isSent("CamelHttp"));
+        Assert.assertFalse(filter.isSent("BreadcrumbId"));
+        Assert.assertFalse(filter.isSent("Camel"));
+        Assert.assertTrue(filter.isSent("CamelFileName"));
+        Assert.assertTrue(filter.isSent("breadcrumbIdentifier"));
+        Assert.assertTrue(filter.isSent("Cheese"));
+        Assert.assertTrue(filter.isSent(""));
+    }
+    
+    @Test
+    public void includesNarrowWhatIsSent() throws Exception {
+        SpringAMQPHeaderFilter filter = new SpringAMQPHeaderFilter("Order*,Account", "OrderSecret");
+        Assert.assertTrue(filter.isSent("OrderId"));
+        Assert.assertTrue(filter.isSent("account"));
+        Assert.assertFalse(filter.isSent("OrderSecret"));
+        Assert.assertFalse(filter.isSent("AccountId"));
+        Assert.assertFalse(filter.isSent("Cheese"));
+        
+        Assert.assertFalse(new SpringAMQPHeaderFilter(null, "*").isSent("Cheese"));
+        Assert.assertTrue(new SpringAMQPHeaderFilter("", "").isSent("Cheese"));
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void wildcardOnlyAtTheEnd() throws Exception {
+        new SpringAMQPHeaderFilter("Camel*Uri", null);
+    }
+    
+    @Test
+    public void filteredHeadersNotCopied() throws Exception {
+        SpringAMQPMessage camelMessage = new SpringAMQPMessage();
+        camelMessage.setHeader("CamelHttpUri", "/cheese");
+        camelMessage.setHeader("Cheese", "Gouda");
+        camelMessage.setHeader(SpringAMQPMessage.IS_EXCEPTION_CAUGHT, true);
+        camelMessage.setHeader(SpringAMQPHeader.REPLY_TO, "BuzzSaw");
+        
+        Exchange exchange = new DefaultExchange(new DefaultCamelContext());
+        exchange.setIn(camelMessage);
+        
+        Message message = new Message(new byte[]{}, new MessageProperties());
+        message = SpringAMQPHeader.copyHeaders(message, camelMessage.getHeaders(), new SpringAMQPHeaderFilter("Cheese", null), exchange);
+        Assert.assertEquals("Gouda", message.getMessageProperties().getHeaders().get("Cheese"));
+        Assert.assertEquals(true, message.getMessageProperties().getHeaders().get(SpringAMQPMessage.IS_EXCEPTION_CAUGHT));
+        Assert.assertFalse(message.getMessageProperties().getHeaders().containsKey("CamelHttpUri"));
+        Assert.assertFalse(message.getMessageProperties().getHeaders().containsKey(SpringAMQPHeader.REPLY_TO));
+    }
+}
@@ -0,0 +1,98 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+package amqp.spring.camel.component;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessageProperties;
+
+public class SpringAMQPHeaderMapTest {
+    @Test
+    public void sameEntriesAsEagerCopy() throws Exception {
+        Message amqpMessage = new Message(new byte[] {}, createProperties());
+        SpringAMQPMessage eager = new SpringAMQPMessage();
+        SpringAMQPHeader.setBasicPropertiesToHeaders(eager, amqpMessage);
+        SpringAMQPHeader.copyHeaders(eager, amqpMessage.getMessageProperties().getHeaders());
+        
+        SpringAMQPHeaderMap view = new SpringAMQPHeaderMap(amqpMessage.getMessageProperties());
+        Assert.assertEquals(new HashMap<>(eager.getHeaders()), new HashMap<>(view));
+        Assert.assertEquals(eager.getHeaders().size(), view.size());
+        Assert.assertFalse(view.containsKey(SpringAMQPMessage.EXCHANGE_PATTERN));
+        Assert.assertTrue(view.containsKey(SpringAMQPHeader.APP_ID));
+        Assert.assertNull(view.get(SpringAMQPHeader.APP_ID));
+        Assert.assertEquals("abc", view.get(SpringAMQPHeader.CORRELATION_ID));
+        Assert.assertEquals(2, view.get(SpringAMQPHeader.DELIVERY_MODE));
+        Assert.assertEquals("Gouda", view.get("CHEESE"));
+    }
+    
+    @Test
+    public void writesOverlayReceivedEntries() throws Exception {
+        MessageProperties properties = createProperties();
+        SpringAMQPHeaderMap view = new SpringAMQPHeaderMap(properties);
+        int receivedSize = view.size();
+        
+        Assert.assertEquals("Gouda", view.put("Cheese", "Brie"));
+        view.put("Wine", "Merlot");
+        Assert.assertEquals("Brie", view.get("cheese"));
+        Assert.assertEquals(receivedSize + 1, view.size());
+        Assert.assertEquals("Gouda", properties.getHeaders().get("cheese"));
+        
+        Assert.assertEquals("text/plain", view.remove(SpringAMQPHeader.CONTENT_TYPE));
+        Assert.assertFalse(view.containsKey(SpringAMQPHeader.CONTENT_TYPE));
+        Assert.assertEquals(receivedSize, view.size());
+        
+        int entries = 0;
+        for(Map.Entry<String, Object> entry : view.entrySet()) {
+            ++entries;
+            Assert.assertNotEquals("Gouda", entry.getValue());
+        }
+        Assert.assertEquals(view.size(), entries);
+    }
+    
+    @Test
+    public void copiesAreIndependent() throws Exception {
+        SpringAMQPHeaderMap view = new SpringAMQPHeaderMap(createProperties());
+        view.put("Wine", "Merlot");
+        
+        SpringAMQPHeaderMap copy = view.copy();
+        copy.put("Wine", "Malbec");
+        copy.remove("cheese");
+        Assert.assertEquals("Merlot", view.get("Wine"));
+        Assert.assertEquals("Gouda", view.get("cheese"));
+        Assert.assertEquals("Malbec", copy.get("Wine"));
+        Assert.assertNull(copy.get("cheese"));
+        
+        copy.clear();
+        Assert.assertTrue(copy.isEmpty());
+        Assert.assertFalse(view.isEmpty());
+    }
+    
+    @Test
+    public void receivedMessageUsesView() throws Exception {
+        Message amqpMessage = new Message("body".getBytes(), createProperties());
+        SpringAMQPMessage camelMessage = SpringAMQPMessage.fromAMQPMessage(new org.springframework.amqp.support.converter.SimpleMessageConverter(), amqpMessage);
+        Assert.assertTrue(camelMessage.getHeaders() instanceof SpringAMQPHeaderMap);
+        Assert.assertEquals("Gouda", camelMessage.getHeader("cheese"));
+        
+        SpringAMQPMessage copy = new SpringAMQPMessage(camelMessage);
+        Assert.assertTrue(copy.getHeaders() instanceof SpringAMQPHeaderMap);
+        copy.setHeader("cheese", "Brie");
+        Assert.assertEquals("Gouda", camelMessage.getHeader("cheese"));
+    }
+    
+    private static MessageProperties createProperties() {
+        MessageProperties properties = new MessageProperties();
+        properties.setMessageId("message-1");
+        properties.setCorrelationId("abc".getBytes());
+        properties.setContentType("text/plain");
+        properties.setDeliveryMode(MessageDeliveryMode.PERSISTENT);
+        properties.setHeader("cheese", "Gouda");
+        properties.setHeader(SpringAMQPMessage.EXCHANGE_PATTERN, "InOnly");
+        return properties;
+    }
+}
@@ -59,14 +59,85 @@ public class SpringAMQPMessageTest {
         Assert.assertEquals("My Secret", message.getMessageProperties().getHeaders().get("Secret"));
     }
     
+    @Test
+    public void toAMQPFromAnyMessage() throws Exception {
+        MessageConverter msgConverter = new StringMessageConverter();
+        
+        DefaultMessage camelMessage = new DefaultMessage();
+        camelMessage.setBody("Test Message 3");
+        camelMessage.setHeader("Secret", "My Secret");
+        camelMessage.setHeader(SpringAMQPHeader.REPLY_TO, "BuzzSaw");
+        camelMessage.setHeader(SpringAMQPComponent.ROUTING_KEY_HEADER, "cheese");
+        
+        Exchange exchange = new DefaultExchange(new DefaultCamelContext());
+        exchange.setIn(camelMessage);
+        
+        org.springframework.amqp.core.Message direct = SpringAMQPMessage.toAMQPMessage(camelMessage, msgConverter, null);
+        SpringAMQPMessage copy = new SpringAMQPMessage(camelMessage);
+        copy.setExchange(exchange);
+        org.springframework.amqp.core.Message copied = copy.toAMQPMessage(msgConverter);
+        Assert.assertSame(camelMessage, exchange.getIn());
+        Assert.assertEquals("Test Message 3", new String(direct.getBody()));
+        Assert.assertEquals(copied.getMessageProperties().getHeaders(), direct.getMessageProperties().getHeaders());
+        Assert.assertEquals(camelMessage.getMessageId(), direct.getMessageProperties().getMessageId());
+        Assert.assertEquals("BuzzSaw", direct.getMessageProperties().getReplyTo());
+        Assert.assertFalse(direct.getMessageProperties().getHeaders().containsKey(SpringAMQPComponent.ROUTING_KEY_HEADER));
+        Assert.assertEquals(ExchangePattern.InOnly.name(), direct.getMessageProperties().getHeaders().get(SpringAMQPMessage.EXCHANGE_PATTERN));
+    }
+    
+    @Test
+    public void lazyBodyConvertedOnFirstRead() throws Exception {
+        StringMessageConverter msgConverter = new StringMessageConverter();
+        org.springframework.amqp.core.Message message = new org.springframework.amqp.core.Message("Lazy Message".getBytes(), new MessageProperties());
+        
+        SpringAMQPMessage camelMessage = SpringAMQPMessage.fromAMQPMessage(msgConverter, message, true);
+        Assert.assertTrue(camelMessage.isBodyPending());
+        Assert.assertEquals(0, msgConverter.conversions);
+        
+        //Copies share the pending body and its conversion
+        org.apache.camel.Message copy = camelMessage.copy();
+        Assert.assertTrue(((SpringAMQPMessage) copy).isBodyPending());
+        Assert.assertEquals("Lazy Message", camelMessage.getBody(String.class));
+        Assert.assertEquals("Lazy Message", copy.getBody());
+        Assert.assertEquals(1, msgConverter.conversions);
+        Assert.assertFalse(camelMessage.isBodyPending());
+    }
+    
+    @Test
+    public void lazyBodyRepublishedUntouched() throws Exception {
+        StringMessageConverter msgConverter = new StringMessageConverter();
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType("text/plain");
+        byte[] payload = "Forwarded".getBytes();
+        org.springframework.amqp.core.Message message = new org.springframework.amqp.core.Message(payload, properties);
+        
+        Exchange exchange = new DefaultExchange(new DefaultCamelContext());
+        exchange.setIn(SpringAMQPMessage.fromAMQPMessage(msgConverter, message, true));
+        SpringAMQPMessage outbound = new SpringAMQPMessage(exchange.getIn());
+        exchange.setIn(outbound);
+        
+        org.springframework.amqp.core.Message republished = outbound.toAMQPMessage(msgConverter);
+        Assert.assertSame(payload, republished.getBody());
+        Assert.assertEquals("text/plain", republished.getMessageProperties().getContentType());
+        Assert.assertEquals(0, msgConverter.conversions);
+        
+        //Once replaced, the new body is what gets sent
+        outbound.setBody("Changed");
+        Assert.assertFalse(outbound.isBodyPending());
+        Assert.assertEquals("Changed", new String(outbound.toAMQPMessage(msgConverter).getBody()));
+    }
+    
     private static class StringMessageConverter extends AbstractMessageConverter {
         @Override
         protected org.springframework.amqp.core.Message createMessage(Object object, MessageProperties messageProperties) {
             return new org.springframework.amqp.core.Message(((String) object).getBytes(), messageProperties);
         }
 
+        private int conversions = 0;
+        
         @Override
         public Object fromMessage(org.springframework.amqp.core.Message message) throws MessageConversionException {
+            ++conversions;
             return new String(message.getBody());
         }
     }
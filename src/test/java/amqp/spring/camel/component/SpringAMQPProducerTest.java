@@ -6,9 +6,13 @@ package amqp.spring.camel.component;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import org.apache.camel.CamelContext;
 import org.apache.camel.Component;
 import org.apache.camel.Exchange;
+import org.apache.camel.ExchangeTimedOutException;
+import org.apache.camel.Processor;
 import org.apache.camel.Producer;
 import org.apache.camel.builder.RouteBuilder;
 import org.apache.camel.component.mock.MockEndpoint;
@@ -17,7 +21,6 @@ import org.apache.camel.test.junit4.CamelTestSupport;
 import org.junit.Assert;
 import org.junit.Test;
 import org.springframework.amqp.core.AmqpTemplate;
-import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 
 public class SpringAMQPProducerTest extends CamelTestSupport {
@@ -91,9 +94,106 @@ public class SpringAMQPProducerTest extends CamelTestSupport {
         mockEndpoint.assertIsSatisfied();
     }
     
+    @Test
+    public void sendOverDedicatedPublisherConnection() throws Exception {
+        MockEndpoint mockEndpoint = getMockEndpoint("mock:test.u");
+        mockEndpoint.expectedMessageCount(1);
+        context().createProducerTemplate().sendBody("direct:test.l", new ProducerTestObject());
+        mockEndpoint.assertIsSatisfied();
+    }
+    
+    @Test
+    public void sendWithPublisherConfirms() throws Exception {
+        MockEndpoint mockEndpoint = getMockEndpoint("mock:test.t");
+        mockEndpoint.expectedMessageCount(2);
+        context().createProducerTemplate().sendBody("direct:test.t", new ProducerTestObject());
+        //Failures in an async callback are swallowed, so check the completed exchange instead
+        Exchange confirmed = context().createProducerTemplate().asyncSend("direct:test.t", new Processor() {
+            @Override
+            public void process(Exchange exchange) throws Exception {
+                exchange.getIn().setBody("HELLO WORLD");
+            }
+        }).get(5, TimeUnit.SECONDS);
+        Assert.assertNull(confirmed.getException());
+        mockEndpoint.assertIsSatisfied();
+    }
+    
+    @Test
+    public void sendBatched() throws Exception {
+        MockEndpoint mockEndpoint = getMockEndpoint("mock:test.s");
+        mockEndpoint.expectedMessageCount(25);
+        for(int i = 0; i < 24; ++i)
+            context().createProducerTemplate().asyncSendBody("direct:test.s", "HELLO WORLD " + i);
+        //A partial batch is sent once it has lingered long enough
+        context().createProducerTemplate().sendBody("direct:test.s", new ProducerTestObject());
+        mockEndpoint.assertIsSatisfied();
+    }
+    
+    @Test
+    public void requestWithReplyQueue() throws Exception {
+        for(int i = 0; i < 5; ++i) {
+            String response = context().createProducerTemplate().requestBody("direct:test.r", "HELLO WORLD " + i, String.class);
+            Assert.assertEquals("REPLY TO HELLO WORLD " + i, response);
+        }
+    }
+    
+    @Test
+    public void requestWithReplyQueueTimesOut() throws Exception {
+        Exchange response = context().createProducerTemplate().request("direct:test.q", null);
+        Assert.assertTrue(response.getException() instanceof ExchangeTimedOutException);
+    }
+    
+    @Test
+    public void sendWithInFlightLimit() throws Exception {
+        MockEndpoint mockEndpoint = getMockEndpoint("mock:test.p");
+        mockEndpoint.expectedMessageCount(20);
+        for(int i = 0; i < 10; ++i) {
+            context().createProducerTemplate().asyncSendBody("direct:test.p", "HELLO WORLD " + i);
+            context().createProducerTemplate().asyncSendBody("direct:test.o", "HELLO WORLD " + i);
+        }
+        mockEndpoint.assertIsSatisfied();
+    }
+    
+    @Test
+    public void blockedConnectionFailsFast() throws Exception {
+        SpringAMQPConnectionMonitor monitor = getConnectionMonitor();
+        monitor.handleBlocked("test alarm");
+        try {
+            Exchange response = context().createProducerTemplate().send("direct:test.n", new Processor() {
+                @Override
+                public void process(Exchange exchange) throws Exception {
+                    exchange.getIn().setBody("HELLO WORLD");
+                }
+            });
+            Assert.assertTrue(response.getException() instanceof RejectedExecutionException);
+        } finally {
+            monitor.handleUnblocked();
+        }
+    }
+    
+    @Test
+    public void blockedConnectionParks() throws Exception {
+        MockEndpoint mockEndpoint = getMockEndpoint("mock:test.m");
+        mockEndpoint.expectedMessageCount(3);
+        SpringAMQPConnectionMonitor monitor = getConnectionMonitor();
+        monitor.handleBlocked("test alarm");
+        for(int i = 0; i < 3; ++i)
+            context().createProducerTemplate().asyncSendBody("direct:test.m", "HELLO WORLD " + i);
+        mockEndpoint.assertIsNotSatisfied(500);
+        
+        monitor.handleUnblocked();
+        mockEndpoint.assertIsSatisfied();
+    }
+    
+    private SpringAMQPConnectionMonitor getConnectionMonitor() {
+        SpringAMQPComponent component = context().getComponent("spring-amqp", SpringAMQPComponent.class);
+        RabbitTemplate template = (RabbitTemplate) component.getAmqpTemplate().get(SpringAMQPComponent.DEFAULT_CONNECTION);
+        return component.getConnectionMonitor(template.getConnectionFactory());
+    }
+    
     @Override
     protected CamelContext createCamelContext() throws Exception {
-        ConnectionFactory factory = new TestConnectionFactory();
+        TestConnectionFactory factory = new TestConnectionFactory();
         RabbitTemplate amqpTemplate = new RabbitTemplate(factory);
         SpringAMQPComponent amqpComponent = new SpringAMQPComponent(factory);
         
@@ -101,6 +201,10 @@ public class SpringAMQPProducerTest extends CamelTestSupport {
         templateMap.put(SpringAMQPComponent.DEFAULT_CONNECTION, amqpTemplate);
         amqpComponent.setAmqpTemplate(templateMap);
         
+        Map<String, AmqpTemplate> publisherTemplateMap = new HashMap<>(1);
+        publisherTemplateMap.put(SpringAMQPComponent.DEFAULT_CONNECTION, new RabbitTemplate(factory.newConnectionFactory()));
+        amqpComponent.setPublisherTemplate(publisherTemplateMap);
+        
         CamelContext camelContext = super.createCamelContext();
         camelContext.addComponent("spring-amqp", amqpComponent);
         return camelContext;
@@ -116,10 +220,25 @@ public class SpringAMQPProducerTest extends CamelTestSupport {
                 from("direct:test.x").to("spring-amqp:fanoutExchange?durable=false&autodelete=true&exclusive=false");
                 from("direct:test.w").to("spring-amqp:fanoutExchange?durable=false&autodelete=true&exclusive=false");
                 from("direct:test.v").to("spring-amqp:topicExchange?type=topic&durable=false&autodelete=true&exclusive=false");
+                from("direct:test.l").to("spring-amqp:topicExchange:test.l.u?durable=false&autodelete=true&exclusive=false&dedicatedPublisherConnection=true");
                 from("direct:test.u").to("spring-amqp:topicExchange:test.u?durable=false&autodelete=true&exclusive=false");
+                from("direct:test.s").to("spring-amqp:topicExchange:test.s?durable=false&autodelete=true&exclusive=false&batchSize=10&lingerMs=50");
+                from("direct:test.t").to("spring-amqp:topicExchange:test.t?durable=false&autodelete=true&exclusive=false&publisherConfirms=true");
+                from("direct:test.r").to("spring-amqp:topicExchange:test.r?durable=false&autodelete=true&exclusive=false&replyQueue=test.r.replies");
+                from("direct:test.p").to("spring-amqp:topicExchange:test.p?durable=false&autodelete=true&exclusive=false&maxInFlight=2");
+                from("direct:test.o").to("spring-amqp:topicExchange:test.o.p?durable=false&autodelete=true&exclusive=false&maxInFlight=2&overflowPolicy=CallerRuns&publisherConfirms=true");
+                from("direct:test.n").to("spring-amqp:topicExchange:test.n?durable=false&autodelete=true&exclusive=false&blockedPolicy=Fail");
+                from("direct:test.m").to("spring-amqp:topicExchange:test.m?durable=false&autodelete=true&exclusive=false&blockedPolicy=Park");
+                from("direct:test.q").to("spring-amqp:topicExchange:test.q?durable=false&autodelete=true&exclusive=false&replyQueue=test.q.replies&replyTimeout=200");
                 
                 from("spring-amqp:topicExchange:queue.v:#.v?type=topic&durable=false&autodelete=true&exclusive=false").to("mock:test.v");
                 from("spring-amqp:topicExchange:queue.u:#.u?type=topic&durable=false&autodelete=true&exclusive=false").to("mock:test.u");
+                from("spring-amqp:topicExchange:queue.s:#.s?type=topic&durable=false&autodelete=true&exclusive=false").to("mock:test.s");
+                from("spring-amqp:topicExchange:queue.t:#.t?type=topic&durable=false&autodelete=true&exclusive=false").to("mock:test.t");
+                from("spring-amqp:topicExchange:queue.r:#.r?type=topic&durable=false&autodelete=true&exclusive=false").transform(body().prepend("REPLY TO "));
+                from("spring-amqp:topicExchange:queue.p:#.p?type=topic&durable=false&autodelete=true&exclusive=false").to("mock:test.p");
+                from("spring-amqp:topicExchange:queue.m:#.m?type=topic&durable=false&autodelete=true&exclusive=false").to("mock:test.m");
+                from("spring-amqp:topicExchange:queue.q:#.q?type=topic&durable=false&autodelete=true&exclusive=false&autoReply=false").to("log:foo?level=OFF");
                 
                 // we just need to bind some queue to the fanoutExchange otherwise the exchange will not be deleted after the tests
                 from("spring-amqp:fanoutExchange:queue.x?type=fanout&durable=false&autodelete=true&exclusive=false").to("log:foo?level=OFF"); // trash bin
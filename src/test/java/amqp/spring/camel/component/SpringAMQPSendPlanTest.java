@@ -0,0 +1,49 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+package amqp.spring.camel.component;
+
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+import org.apache.camel.impl.DefaultMessage;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.amqp.support.converter.SimpleMessageConverter;
+
+public class SpringAMQPSendPlanTest {
+    @Test
+    public void routesByHeaders() throws Exception {
+        SpringAMQPSendPlan plan = new SpringAMQPSendPlan(new SimpleMessageConverter(), "exchange1", "key1", null, true);
+        
+        DefaultMessage message = new DefaultMessage();
+        new DefaultExchange(new DefaultCamelContext()).setIn(message);
+        Assert.assertEquals("exchange1", plan.getExchangeName(message));
+        Assert.assertEquals("key1", plan.getRoutingKey(message));
+        
+        message.setHeader(SpringAMQPComponent.EXCHANGE_NAME_HEADER, "exchange2");
+        message.setHeader(SpringAMQPComponent.ROUTING_KEY_HEADER, 42);
+        Assert.assertEquals("exchange2", plan.getExchangeName(message));
+        Assert.assertEquals("42", plan.getRoutingKey(message));
+    }
+    
+    @Test
+    public void staticRoutingIgnoresHeaders() throws Exception {
+        SpringAMQPSendPlan plan = new SpringAMQPSendPlan(new SimpleMessageConverter(), "exchange1", "key1", null, false);
+        
+        DefaultMessage message = new DefaultMessage();
+        message.setHeader(SpringAMQPComponent.EXCHANGE_NAME_HEADER, "exchange2");
+        message.setHeader(SpringAMQPComponent.ROUTING_KEY_HEADER, "key2");
+        Assert.assertEquals("exchange1", plan.getExchangeName(message));
+        Assert.assertEquals("key1", plan.getRoutingKey(message));
+    }
+    
+    @Test
+    public void fallbackConverterResolvedOnce() throws Exception {
+        SpringAMQPEndpoint endpoint = new SpringAMQPEndpoint(null, "spring-amqp:exchange1:key1", "exchange1:key1", null, null);
+        endpoint.createProducer();
+        SpringAMQPSendPlan plan = SpringAMQPSendPlan.create(endpoint, null);
+        Assert.assertTrue(plan.getMessageConverter() instanceof SimpleMessageConverter);
+        Assert.assertSame(plan.getMessageConverter(), plan.getMessageConverter());
+        Assert.assertEquals("key1", plan.getRoutingKey(new DefaultMessage()));
+    }
+}
@@ -10,16 +10,24 @@ import org.springframework.stereotype.Component;
 
 /**
  * To configure connections used by the tests, set the "test.broker.uri" system property
- * to amqp://[username]:[password]@[host]:[port]/[vhost] when running the tests
+ * to amqp://[username]:[password]@[host]:[port]/[vhost] when running the tests, or to
+ * memory: to run them against an InMemoryBroker instead of a RabbitMQ broker
  */
 @Component("connectionFactory")
 public class TestConnectionFactory extends CachingConnectionFactory {
+    private static final String IN_MEMORY_URI = "memory:";
+    private final com.rabbitmq.client.ConnectionFactory rabbitConnectionFactory;
     
     public TestConnectionFactory() {
-        super();
+        this(isInMemory() ? new InMemoryBroker().getConnectionFactory() : new com.rabbitmq.client.ConnectionFactory());
+    }
+    
+    private TestConnectionFactory(com.rabbitmq.client.ConnectionFactory rabbitConnectionFactory) {
+        super(rabbitConnectionFactory);
+        this.rabbitConnectionFactory = rabbitConnectionFactory;
         
         String brokerUri = System.getProperty("test.broker.uri");
-        if ( brokerUri!=null ) {
+        if ( brokerUri!=null && !isInMemory() ) {
             try {
                 URI uri = new URI(brokerUri);
 
@@ -51,4 +59,15 @@ public class TestConnectionFactory extends CachingConnectionFactory {
             }
         }
     }
+    
+    /**
+     * A connection factory of its own to the same broker, such as a dedicated publisher connection needs
+     */
+    public TestConnectionFactory newConnectionFactory() {
+        return new TestConnectionFactory(this.rabbitConnectionFactory);
+    }
+    
+    private static boolean isInMemory() {
+        return IN_MEMORY_URI.equals(System.getProperty("test.broker.uri"));
+    }
 }
@@ -0,0 +1,64 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+package amqp.spring.converter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+    @Test
+    public void testSizeClasses() throws Exception {
+        BufferPool pool = new BufferPool();
+        Assert.assertEquals(BufferPool.MIN_SIZE, pool.acquire(1).length);
+        Assert.assertEquals(BufferPool.MIN_SIZE, pool.acquire(BufferPool.MIN_SIZE).length);
+        Assert.assertEquals(BufferPool.MIN_SIZE * 2, pool.acquire(BufferPool.MIN_SIZE + 1).length);
+        Assert.assertEquals(BufferPool.MAX_SIZE, pool.acquire(BufferPool.MAX_SIZE).length);
+        Assert.assertEquals(BufferPool.MAX_SIZE + 1, pool.acquire(BufferPool.MAX_SIZE + 1).length);
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        BufferPool pool = new BufferPool();
+        byte[] buffer = pool.acquire(4096);
+        pool.release(buffer);
+        Assert.assertSame(buffer, pool.acquire(3000));
+
+        //Odd sizes and oversized arrays aren't kept
+        pool.release(new byte[3000]);
+        pool.release(new byte[BufferPool.MAX_SIZE * 2]);
+        Assert.assertEquals(0, pool.idleBuffers(3000));
+
+        //Only about 1MB of each size class is kept idle
+        for(int i = 0; i < 4; ++i)
+            pool.release(new byte[BufferPool.MAX_SIZE]);
+        Assert.assertEquals(1, pool.idleBuffers(BufferPool.MAX_SIZE));
+    }
+
+    @Test
+    public void testOutputBuffer() throws Exception {
+        BufferPool pool = new BufferPool();
+        byte[] expected = new byte[5000];
+        for(int i = 0; i < expected.length; ++i)
+            expected[i] = (byte) i;
+
+        BufferPool.OutputBuffer out = pool.newOutputBuffer(16);
+        out.write(expected[0]);
+        out.write(expected, 1, expected.length - 1);
+        Assert.assertEquals(expected.length, out.size());
+        Assert.assertArrayEquals(expected, out.toByteArray());
+
+        //Growing gave back the smaller arrays, and closing the last one
+        out.close();
+        out.close();
+        Assert.assertEquals(1, pool.idleBuffers(BufferPool.MIN_SIZE));
+        Assert.assertEquals(1, pool.idleBuffers(8192));
+        try {
+            out.toByteArray();
+            Assert.fail("Expected a closed buffer to be refused");
+        } catch(IllegalStateException ex) {
+            //Expected
+        }
+    }
+}
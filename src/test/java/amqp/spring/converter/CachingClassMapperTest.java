@@ -0,0 +1,78 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+package amqp.spring.converter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.ClassMapper;
+import org.springframework.amqp.support.converter.DefaultClassMapper;
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+public class CachingClassMapperTest {
+
+    @Test
+    public void testCaching() throws Exception {
+        final AtomicInteger lookups = new AtomicInteger();
+        final ClassMapper defaultMapper = new DefaultClassMapper();
+        ClassMapper countingMapper = new ClassMapper() {
+            @Override
+            public void fromClass(Class<?> clazz, MessageProperties properties) {
+                lookups.incrementAndGet();
+                defaultMapper.fromClass(clazz, properties);
+            }
+
+            @Override
+            public Class<?> toClass(MessageProperties properties) {
+                lookups.incrementAndGet();
+                return defaultMapper.toClass(properties);
+            }
+        };
+        CachingClassMapper classMapper = new CachingClassMapper(countingMapper, null);
+
+        for(int i = 0; i < 3; ++i) {
+            MessageProperties properties = new MessageProperties();
+            classMapper.fromClass(CachingClassMapperTest.class, properties);
+            Assert.assertEquals(CachingClassMapperTest.class.getName(), properties.getHeaders().get(DefaultClassMapper.DEFAULT_CLASSID_FIELD_NAME));
+            Assert.assertEquals(CachingClassMapperTest.class, classMapper.toClass(properties));
+        }
+        Assert.assertEquals(2, lookups.get());
+    }
+
+    @Test
+    public void testAllowedTypes() throws Exception {
+        CachingClassMapper classMapper = new CachingClassMapper(Arrays.asList("amqp.spring.converter.*", "org.junit.**", "java.util.Locale"));
+        Assert.assertTrue(classMapper.isAllowed(CachingClassMapperTest.class));
+        Assert.assertTrue(classMapper.isAllowed(CachingClassMapperTest[].class));
+        Assert.assertTrue(classMapper.isAllowed(org.junit.runner.Runner.class));
+        Assert.assertTrue(classMapper.isAllowed(java.util.Locale.class));
+        Assert.assertTrue(classMapper.isAllowed(String.class));
+        Assert.assertTrue(classMapper.isAllowed(int.class));
+        Assert.assertFalse(classMapper.isAllowed(amqp.spring.camel.component.SpringAMQPComponent.class));
+        Assert.assertFalse(classMapper.isAllowed(java.util.Currency.class));
+
+        MessageProperties properties = new MessageProperties();
+        properties.getHeaders().put(DefaultClassMapper.DEFAULT_CLASSID_FIELD_NAME, "java.util.Currency");
+        try {
+            classMapper.toClass(properties);
+            Assert.fail("Expected a type that isn't allowed to be refused");
+        } catch(MessageConversionException ex) {
+            //Expected
+        }
+        try {
+            classMapper.fromClass(java.util.Currency.class, new MessageProperties());
+            Assert.fail("Expected a type that isn't allowed to be refused");
+        } catch(MessageConversionException ex) {
+            //Expected
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testBadPattern() throws Exception {
+        new CachingClassMapper(Collections.singletonList("com.*.Foo"));
+    }
+}
@@ -8,6 +8,7 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.springframework.amqp.core.Message;
 import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
 
 public class ContentTypeConverterFactoryTest {
     @Test
@@ -58,6 +59,96 @@ public class ContentTypeConverterFactoryTest {
         Assert.assertEquals(testObject, newObject);
     }
     
+    @Test
+    public void testContentTypeParameters() throws Exception {
+        ContentTypeConverterFactory converter = new ContentTypeConverterFactory();
+        converter.getConverters().put("application/json", new XStreamConverter());
+        StringConverter textConverter = new StringConverter();
+        textConverter.setContentType("text/plain");
+        converter.getConverters().put("text/plain", textConverter);
+
+        MessageProperties messageProperties = new MessageProperties();
+        messageProperties.setContentType("text/plain; charset=ISO-8859-1");
+        Message amqpMessage = new Message("caf\u00e9".getBytes("ISO-8859-1"), messageProperties);
+        Assert.assertEquals("caf\u00e9", converter.fromMessage(amqpMessage));
+
+        TestObject testObject = new TestObject();
+        testObject.setValue("TESTING");
+        amqpMessage = new XStreamConverter().toMessage(testObject, new MessageProperties());
+        amqpMessage.getMessageProperties().setContentType("Application/JSON;charset=UTF-8");
+        Assert.assertEquals(testObject, converter.fromMessage(amqpMessage));
+    }
+
+    @Test
+    public void testWildcards() throws Exception {
+        StringConverter suffixConverter = new StringConverter();
+        StringConverter typeConverter = new StringConverter();
+        StringConverter anyConverter = new StringConverter();
+        ContentTypeConverterFactory converter = new ContentTypeConverterFactory();
+        converter.getConverters().put("application/json", new XStreamConverter());
+        converter.getConverters().put("application/*+json", suffixConverter);
+        converter.getConverters().put("application/*", typeConverter);
+        converter.getConverters().put("*/*", anyConverter);
+
+        Assert.assertTrue(converter.findConverter("application/json; charset=UTF-8") instanceof XStreamConverter);
+        Assert.assertSame(suffixConverter, converter.findConverter("application/vnd.example+json"));
+        Assert.assertSame(typeConverter, converter.findConverter("application/xml"));
+        Assert.assertSame(anyConverter, converter.findConverter("text/plain"));
+    }
+
+    @Test
+    public void testDefaultContentType() throws Exception {
+        TestObject testObject = new TestObject();
+        testObject.setValue("TESTING");
+
+        ContentTypeConverterFactory converter = new ContentTypeConverterFactory();
+        converter.getConverters().put("application/json", new XStreamConverter());
+        converter.getConverters().put("application/xml", new StringConverter());
+        converter.setDefaultContentType("application/json");
+
+        //Nothing set a content type, so the default is used rather than failing
+        MessageProperties messageProperties = new MessageProperties();
+        messageProperties.setContentType(null);
+        Message amqpMessage = converter.toMessage(testObject, messageProperties);
+        Assert.assertEquals("application/json", amqpMessage.getMessageProperties().getContentType());
+
+        amqpMessage.getMessageProperties().setContentType(null);
+        Assert.assertEquals(testObject, converter.fromMessage(amqpMessage));
+        Assert.assertNull(amqpMessage.getMessageProperties().getContentType());
+    }
+
+    @Test
+    public void testOctetStreamFallsBack() throws Exception {
+        ContentTypeConverterFactory converter = new ContentTypeConverterFactory();
+        converter.getConverters().put("application/json", new XStreamConverter());
+        converter.setDefaultContentType("application/json");
+        converter.setFallbackConverter(new StringConverter());
+
+        //Spring AMQP's default content type is left to the fallback, as it always was
+        Message amqpMessage = converter.toMessage("TESTING", new MessageProperties());
+        Assert.assertEquals("TESTING", new String(amqpMessage.getBody()));
+    }
+
+    @Test
+    public void testConverterCache() throws Exception {
+        StringConverter textConverter = new StringConverter();
+        ContentTypeConverterFactory converter = new ContentTypeConverterFactory();
+        Assert.assertNull(converter.findConverter("text/plain"));
+
+        converter.getConverters().put("text/plain", textConverter);
+        Assert.assertNull(converter.findConverter("text/plain"));
+
+        converter.clearConverterCache();
+        Assert.assertSame(textConverter, converter.findConverter("text/plain"));
+    }
+
+    @Test(expected=MessageConversionException.class)
+    public void testNoProperties() throws Exception {
+        ContentTypeConverterFactory converter = new ContentTypeConverterFactory();
+        converter.setFallbackConverter(new StringConverter());
+        converter.fromMessage(new Message(new byte[0], null));
+    }
+    
     private static class TestObject implements Serializable {
         private static final long serialVersionUID = -5994283445686875873L;
         protected String value;
@@ -0,0 +1,107 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+package amqp.spring.converter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.DefaultClassMapper;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+public class JacksonConverterTest {
+    
+    @Test
+    public void testConversion() throws Exception {
+        TestObject testObject = new TestObject();
+        testObject.setValue("TESTING");
+        
+        MessageConverter converter = new JacksonConverter();
+        Message amqpMessage = converter.toMessage(testObject, new MessageProperties());
+        Assert.assertEquals("{\"value\":\"TESTING\"}", new String(amqpMessage.getBody(), "UTF-8"));
+        Assert.assertEquals(MessageProperties.CONTENT_TYPE_JSON, amqpMessage.getMessageProperties().getContentType());
+        Assert.assertEquals(TestObject.class.getName(), amqpMessage.getMessageProperties().getHeaders().get(DefaultClassMapper.DEFAULT_CLASSID_FIELD_NAME));
+
+        Object newObject = converter.fromMessage(amqpMessage);
+        Assert.assertEquals(testObject, newObject);
+        //The second time around comes out of the cached reader
+        Assert.assertEquals(testObject, converter.fromMessage(amqpMessage));
+    }
+    
+    @Test
+    public void testCollections() throws Exception {
+        MessageConverter converter = new JacksonConverter();
+        List<String> list = new ArrayList<>(Arrays.asList("a", "b"));
+        Message amqpMessage = converter.toMessage(list, new MessageProperties());
+        Assert.assertEquals(list, converter.fromMessage(amqpMessage));
+    }
+    
+    @Test
+    public void testOtherEncoding() throws Exception {
+        MessageProperties messageProperties = new MessageProperties();
+        messageProperties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+        messageProperties.setContentEncoding("ISO-8859-1");
+        messageProperties.setHeader(DefaultClassMapper.DEFAULT_CLASSID_FIELD_NAME, TestObject.class.getName());
+        Message amqpMessage = new Message("{\"value\":\"café\"}".getBytes("ISO-8859-1"), messageProperties);
+        
+        TestObject newObject = (TestObject) new JacksonConverter().fromMessage(amqpMessage);
+        Assert.assertEquals("café", newObject.getValue());
+    }
+    
+    @Test
+    public void testAllowedTypes() throws Exception {
+        TestObject testObject = new TestObject();
+        testObject.setValue("TESTING");
+        Message amqpMessage = new JacksonConverter().toMessage(testObject, new MessageProperties());
+
+        JacksonConverter converter = new JacksonConverter();
+        converter.setAllowedTypes(Arrays.asList("amqp.spring.converter.**"));
+        Assert.assertEquals(testObject, converter.fromMessage(amqpMessage));
+
+        converter.setAllowedTypes(Arrays.asList("com.example.**"));
+        Assert.assertEquals(Arrays.asList("com.example.**"), converter.getAllowedTypes());
+        try {
+            converter.fromMessage(amqpMessage);
+            Assert.fail("Expected a type that isn't allowed to be refused");
+        } catch(MessageConversionException ex) {
+            //Expected
+        }
+    }
+
+    @Test(expected=MessageConversionException.class)
+    public void testWrongContentType() throws Exception {
+        MessageProperties messageProperties = new MessageProperties();
+        messageProperties.setContentType(MessageProperties.CONTENT_TYPE_XML);
+        new JacksonConverter().fromMessage(new Message("<value/>".getBytes(), messageProperties));
+    }
+    
+    public static class TestObject {
+        protected String value;
+        public String getValue() { return value; }
+        public void setValue(String value) { this.value = value; }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == null) {
+                return false;
+            }
+            if (getClass() != obj.getClass()) {
+                return false;
+            }
+            final TestObject other = (TestObject) obj;
+            return this.value == null ? other.value == null : this.value.equals(other.value);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = 29 * hash + (this.value != null ? this.value.hashCode() : 0);
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this file,
+ * You can obtain one at http://mozilla.org/MPL/2.0/. */
+package amqp.spring.converter;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+public class SmileConverterTest {
+    
+    @Test
+    public void testConversion() throws Exception {
+        JacksonConverterTest.TestObject testObject = new JacksonConverterTest.TestObject();
+        testObject.setValue("TESTING");
+        
+        MessageConverter converter = new SmileConverter();
+        Message amqpMessage = converter.toMessage(testObject, new MessageProperties());
+        Assert.assertEquals(SmileConverter.CONTENT_TYPE_SMILE, amqpMessage.getMessageProperties().getContentType());
+        Assert.assertNull(amqpMessage.getMessageProperties().getContentEncoding());
+        Assert.assertEquals(':', (char) amqpMessage.getBody()[0]);
+        Assert.assertEquals(testObject, converter.fromMessage(amqpMessage));
+    }
+}
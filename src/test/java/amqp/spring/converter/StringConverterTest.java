@@ -8,6 +8,7 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.springframework.amqp.core.Message;
 import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
 import org.springframework.amqp.support.converter.MessageConverter;
 
 public class StringConverterTest {
@@ -25,6 +26,23 @@ public class StringConverterTest {
         
         Assert.assertEquals("TESTING", newObject);
     }
+
+    @Test
+    public void testEncodings() throws Exception {
+        StringConverter converter = new StringConverter();
+        converter.setEncoding("ISO-8859-1");
+        Message amqpMessage = converter.toMessage("caf\u00e9", new MessageProperties());
+        Assert.assertEquals(4, amqpMessage.getBody().length);
+        Assert.assertEquals("caf\u00e9", converter.fromMessage(amqpMessage));
+
+        amqpMessage.getMessageProperties().setContentEncoding("no-such-charset");
+        try {
+            converter.fromMessage(amqpMessage);
+            Assert.fail("Expected an unknown encoding to be refused");
+        } catch(MessageConversionException ex) {
+            //Expected
+        }
+    }
     
     private static class TestObject implements Serializable {
         private static final long serialVersionUID = 8035548300959603643L;
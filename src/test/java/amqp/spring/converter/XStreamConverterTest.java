@@ -4,10 +4,12 @@
 package amqp.spring.converter;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import org.junit.Assert;
 import org.junit.Test;
 import org.springframework.amqp.core.Message;
 import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
 import org.springframework.amqp.support.converter.MessageConverter;
 
 public class XStreamConverterTest {
@@ -29,6 +31,33 @@ public class XStreamConverterTest {
         Assert.assertEquals("UTF-8", ((XStreamConverter) converter).getEncoding());
     }
     
+    @Test
+    public void testAllowedTypes() throws Exception {
+        TestObject testObject = new TestObject();
+        testObject.setValue("TESTING");
+
+        XStreamConverter converter = new XStreamConverter();
+        converter.setAllowedTypes(Arrays.asList("amqp.spring.converter.*"));
+        Message amqpMessage = converter.toMessage(testObject, new MessageProperties());
+        Assert.assertEquals(testObject, converter.fromMessage(amqpMessage));
+
+        XStreamConverter restricted = new XStreamConverter();
+        restricted.setAllowedTypes(Arrays.asList("com.example.**"));
+        try {
+            restricted.fromMessage(amqpMessage);
+            Assert.fail("Expected a type that isn't allowed to be refused");
+        } catch(MessageConversionException ex) {
+            //Expected
+        }
+        try {
+            restricted.toMessage(testObject, new MessageProperties());
+            Assert.fail("Expected a type that isn't allowed to be refused");
+        } catch(MessageConversionException ex) {
+            //Expected
+        }
+        Assert.assertEquals("TESTING", restricted.fromMessage(restricted.toMessage("TESTING", new MessageProperties())));
+    }
+    
     private static class TestObject implements Serializable {
         private static final long serialVersionUID = 5137673667799859817L;
         protected String value;